@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.Supplier;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.Cancellation;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Schedulers;
+import reactor.core.scheduler.TimedScheduler;
+import reactor.util.concurrent.QueueSupplier;
+
+/**
+ * Size or time batching honoring downstream demand, unlike the timed
+ * {@link Flux#buffer(int, Duration)} which emits on its timer regardless of demand.
+ * <p>
+ * A batch is emitted once it holds {@code maxItems} items or its first item has waited
+ * {@code maxWait}, or as soon as no received item is pending if {@code maxWait} is
+ * {@link Duration#ZERO}, and only while the subscriber has requested batches. Otherwise it
+ * keeps accumulating up to {@code maxItems}, upstream being requested no more than the
+ * room left in the pending batch, so that a slow subscriber only slows the source down.
+ */
+final class Batcher {
+
+	static <T, C extends Collection<? super T>> Flux<C> batch(Publisher<? extends T> source,
+			int maxItems,
+			Duration maxWait,
+			Supplier<C> batchSupplier) {
+		return batch(source, maxItems, maxWait, batchSupplier, Schedulers.timer());
+	}
+
+	static <T, C extends Collection<? super T>> Flux<C> batch(Publisher<? extends T> source,
+			int maxItems,
+			Duration maxWait,
+			Supplier<C> batchSupplier,
+			TimedScheduler timer) {
+		if (maxItems < 1) {
+			throw new IllegalArgumentException("maxItems must be strictly positive, " +
+					"was: " + maxItems);
+		}
+		Objects.requireNonNull(source, "source");
+		Objects.requireNonNull(batchSupplier, "batchSupplier");
+		Objects.requireNonNull(timer, "timer");
+		long maxWaitNanos = Objects.requireNonNull(maxWait, "maxWait")
+		                           .toNanos();
+		if (maxWaitNanos < 0L) {
+			throw new IllegalArgumentException("maxWait must be positive, was: " + maxWait);
+		}
+		return Flux.from(s -> source.subscribe(new BatchSubscriber<>(s,
+				maxItems,
+				maxWaitNanos,
+				batchSupplier,
+				timer)));
+	}
+
+	static final class BatchSubscriber<T, C extends Collection<? super T>>
+			implements Subscriber<T>, Subscription {
+
+		final Subscriber<? super C> actual;
+		final int                   maxItems;
+		final long                  maxWaitNanos;
+		final Supplier<C>           batchSupplier;
+		final TimedScheduler        timer;
+		final Queue<T>              queue;
+
+		Subscription s;
+
+		/**
+		 * Pending batch, its size, index and expiry timer, drain only
+		 */
+		C            batch;
+		int          size;
+		long         index;
+		Cancellation expiry;
+
+		/**
+		 * Index of the last batch whose first item waited {@link #maxWaitNanos}
+		 */
+		volatile long expired = -1L;
+
+		volatile boolean done;
+		Throwable        error;
+		volatile boolean cancelled;
+
+		volatile long requested;
+		@SuppressWarnings("rawtypes")
+		static final AtomicLongFieldUpdater<BatchSubscriber> REQUESTED =
+				AtomicLongFieldUpdater.newUpdater(BatchSubscriber.class, "requested");
+
+		volatile int wip;
+		@SuppressWarnings("rawtypes")
+		static final AtomicIntegerFieldUpdater<BatchSubscriber> WIP =
+				AtomicIntegerFieldUpdater.newUpdater(BatchSubscriber.class, "wip");
+
+		BatchSubscriber(Subscriber<? super C> actual,
+				int maxItems,
+				long maxWaitNanos,
+				Supplier<C> batchSupplier,
+				TimedScheduler timer) {
+			this.actual = actual;
+			this.maxItems = maxItems;
+			this.maxWaitNanos = maxWaitNanos;
+			this.batchSupplier = batchSupplier;
+			this.timer = timer;
+			this.queue = QueueSupplier.<T>get(maxItems).get();
+		}
+
+		@Override
+		public void onSubscribe(Subscription s) {
+			if (Operators.validate(this.s, s)) {
+				this.s = s;
+				actual.onSubscribe(this);
+				s.request(maxItems);
+			}
+		}
+
+		@Override
+		public void onNext(T t) {
+			if (done) {
+				Operators.onNextDropped(t);
+				return;
+			}
+			if (!queue.offer(t)) {
+				s.cancel();
+				onError(Exceptions.failWithOverflow());
+				return;
+			}
+			drain();
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			if (done) {
+				Operators.onErrorDropped(t);
+				return;
+			}
+			error = t;
+			done = true;
+			drain();
+		}
+
+		@Override
+		public void onComplete() {
+			if (done) {
+				return;
+			}
+			done = true;
+			drain();
+		}
+
+		@Override
+		public void request(long n) {
+			if (Operators.validate(n)) {
+				Operators.getAndAddCap(REQUESTED, this, n);
+				drain();
+			}
+		}
+
+		@Override
+		public void cancel() {
+			if (!cancelled) {
+				cancelled = true;
+				s.cancel();
+				drain();
+			}
+		}
+
+		void expire(long batchIndex) {
+			expired = batchIndex;
+			drain();
+		}
+
+		void drain() {
+			if (WIP.getAndIncrement(this) != 0) {
+				return;
+			}
+			int missed = 1;
+			for (; ; ) {
+				for (; ; ) {
+					if (cancelled) {
+						clear();
+						return;
+					}
+					boolean d = done;
+					if (d && error != null) {
+						clear();
+						actual.onError(error);
+						return;
+					}
+					// upstream is never requested more than the room left in the batch
+					T t;
+					while ((t = queue.poll()) != null) {
+						if (size == 0) {
+							batch = batchSupplier.get();
+							if (maxWaitNanos != 0L) {
+								long i = index;
+								expiry = timer.schedule(() -> expire(i),
+										maxWaitNanos,
+										TimeUnit.NANOSECONDS);
+							}
+						}
+						batch.add(t);
+						size++;
+					}
+					boolean empty = queue.isEmpty();
+					if (size != 0 && requested != 0L && (size == maxItems || expired == index ||
+							((d || maxWaitNanos == 0L) && empty))) {
+						emit();
+						continue;
+					}
+					if (d && empty && size == 0) {
+						actual.onComplete();
+						return;
+					}
+					break;
+				}
+
+				missed = WIP.addAndGet(this, -missed);
+				if (missed == 0) {
+					break;
+				}
+			}
+		}
+
+		void emit() {
+			C b = batch;
+			int n = size;
+			batch = null;
+			size = 0;
+			index++;
+			Cancellation c = expiry;
+			if (c != null) {
+				expiry = null;
+				c.dispose();
+			}
+			if (requested != Long.MAX_VALUE) {
+				REQUESTED.decrementAndGet(this);
+			}
+			actual.onNext(b);
+			if (!done) {
+				s.request(n);
+			}
+		}
+
+		void clear() {
+			queue.clear();
+			batch = null;
+			size = 0;
+			Cancellation c = expiry;
+			if (c != null) {
+				expiry = null;
+				c.dispose();
+			}
+		}
+	}
+
+	private Batcher() {
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Operators;
+import reactor.util.concurrent.QueueSupplier;
+
+/**
+ * A blocking view of an {@link Inbound} for imperative handlers, typically running on
+ * a virtual thread via {@link reactor.ipc.util.VirtualThreads#executor()}.
+ * <p>
+ * Up to {@code prefetch} items are requested upfront and demand is replenished in
+ * batches as they are read, so the transport stops reading when the handler is slow.
+ * Waiting parks the reading thread without holding any monitor. A single thread must
+ * read at a time.
+ *
+ * @param <IN> the received item type
+ *
+ * @since 0.6
+ */
+public final class BlockingInbound<IN> implements Subscriber<IN>, AutoCloseable {
+
+	/**
+	 * Default number of items requested ahead of {@link #read()}
+	 */
+	public static final int DEFAULT_PREFETCH = 32;
+
+	/**
+	 * Subscribe to the given {@link Inbound#receive()} and read it with blocking calls.
+	 *
+	 * @param inbound the inbound to read
+	 * @param <IN> the received item type
+	 *
+	 * @return a new {@link BlockingInbound}
+	 */
+	public static <IN> BlockingInbound<IN> create(Inbound<IN> inbound) {
+		return create(inbound, DEFAULT_PREFETCH);
+	}
+
+	/**
+	 * Subscribe to the given {@link Inbound#receive()} and read it with blocking calls.
+	 *
+	 * @param inbound the inbound to read
+	 * @param prefetch the number of items requested ahead of {@link #read()}, 1 mapping
+	 * every read to a {@code request(1)}
+	 * @param <IN> the received item type
+	 *
+	 * @return a new {@link BlockingInbound}
+	 */
+	public static <IN> BlockingInbound<IN> create(Inbound<IN> inbound, int prefetch) {
+		BlockingInbound<IN> blocking = new BlockingInbound<>(prefetch);
+		Objects.requireNonNull(inbound, "inbound")
+		       .receive()
+		       .subscribe(blocking);
+		return blocking;
+	}
+
+	final int       prefetch;
+	final int       limit;
+	final Queue<IN> queue;
+
+	volatile Subscription s;
+	@SuppressWarnings("rawtypes")
+	static final AtomicReferenceFieldUpdater<BlockingInbound, Subscription> S =
+			AtomicReferenceFieldUpdater.newUpdater(BlockingInbound.class, Subscription.class, "s");
+
+	volatile Thread  waiter;
+	volatile boolean done;
+	Throwable        error;
+	int              consumed;
+
+	BlockingInbound(int prefetch) {
+		if (prefetch < 1) {
+			throw new IllegalArgumentException("prefetch must be strictly positive, was: " + prefetch);
+		}
+		this.prefetch = prefetch;
+		this.limit = prefetch == 1 ? 1 : prefetch - (prefetch >> 2);
+		this.queue = QueueSupplier.<IN>get(prefetch).get();
+	}
+
+	/**
+	 * Wait for the next item.
+	 *
+	 * @return the next item or null if the inbound completed
+	 * @throws InterruptedException if the waiting thread is interrupted
+	 * @throws RuntimeException if the inbound failed
+	 */
+	public IN read() throws InterruptedException {
+		return poll(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Wait for the next item up to the given timeout.
+	 *
+	 * @param timeout the maximum time to wait
+	 *
+	 * @return the next item or null if the inbound completed
+	 * @throws InterruptedException if the waiting thread is interrupted
+	 * @throws TimeoutException if no item arrived in time
+	 * @throws RuntimeException if the inbound failed
+	 */
+	public IN read(Duration timeout) throws InterruptedException, TimeoutException {
+		IN v = poll(System.nanoTime() + timeout.toNanos());
+		if (v == null && !done) {
+			throw new TimeoutException("No item received within " + timeout);
+		}
+		return v;
+	}
+
+	/**
+	 * Stop reading, cancelling the inbound subscription and discarding pending items.
+	 */
+	@Override
+	public void close() {
+		Operators.terminate(S, this);
+		queue.clear();
+	}
+
+	@Override
+	public void onSubscribe(Subscription s) {
+		if (Operators.setOnce(S, this, s)) {
+			s.request(prefetch);
+		}
+	}
+
+	@Override
+	public void onNext(IN t) {
+		if (!queue.offer(t)) {
+			Operators.terminate(S, this);
+			onError(Exceptions.failWithOverflow());
+			return;
+		}
+		LockSupport.unpark(waiter);
+	}
+
+	@Override
+	public void onError(Throwable t) {
+		error = t;
+		done = true;
+		LockSupport.unpark(waiter);
+	}
+
+	@Override
+	public void onComplete() {
+		done = true;
+		LockSupport.unpark(waiter);
+	}
+
+	IN poll(long deadline) throws InterruptedException {
+		for (; ; ) {
+			boolean d = done;
+			IN v = queue.poll();
+			if (v != null) {
+				if (++consumed == limit) {
+					consumed = 0;
+					s.request(limit);
+				}
+				return v;
+			}
+			if (d) {
+				Throwable e = error;
+				if (e != null) {
+					throw Exceptions.propagate(e);
+				}
+				return null;
+			}
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			waiter = Thread.currentThread();
+			if (queue.isEmpty() && !done) {
+				if (deadline == Long.MAX_VALUE) {
+					LockSupport.park(this);
+				}
+				else {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0L) {
+						waiter = null;
+						return null;
+					}
+					LockSupport.parkNanos(this, remaining);
+				}
+			}
+			waiter = null;
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.Exceptions;
+import reactor.core.publisher.MonoProcessor;
+import reactor.core.publisher.Operators;
+
+/**
+ * A blocking view of an {@link Outbound} for imperative handlers, typically running on
+ * a virtual thread via {@link reactor.ipc.util.VirtualThreads#executor()}.
+ * <p>
+ * Written items are emitted from the writing thread to a single
+ * {@link Outbound#send(Publisher)}, {@link #write(Object)} parking until the transport
+ * requested more items so that backpressure is preserved. {@link #close()} completes
+ * the send and waits for its final flush. A single thread must write at a time.
+ *
+ * @param <OUT> the sent item type
+ *
+ * @since 0.6
+ */
+public final class BlockingOutbound<OUT> implements AutoCloseable {
+
+	/**
+	 * Start a {@link Outbound#send(Publisher)} on the given outbound and feed it with
+	 * blocking calls.
+	 *
+	 * @param outbound the outbound to write to
+	 * @param <OUT> the sent item type
+	 *
+	 * @return a new {@link BlockingOutbound}
+	 */
+	public static <OUT> BlockingOutbound<OUT> create(Outbound<OUT> outbound) {
+		BlockingOutbound<OUT> blocking = new BlockingOutbound<>();
+		blocking.result = Objects.requireNonNull(outbound, "outbound")
+		                         .send(blocking.source)
+		                         .subscribe();
+		return blocking;
+	}
+
+	final Source<OUT> source = new Source<>();
+
+	MonoProcessor<Void> result;
+
+	BlockingOutbound() {
+	}
+
+	/**
+	 * Emit the given item, waiting for the transport to request it.
+	 *
+	 * @param item the item to send
+	 *
+	 * @throws InterruptedException if the waiting thread is interrupted
+	 * @throws RuntimeException if the send failed or was cancelled
+	 */
+	public void write(OUT item) throws InterruptedException {
+		Objects.requireNonNull(item, "item");
+		if (!source.await()) {
+			Throwable e = result.getError();
+			if (e != null) {
+				throw Exceptions.propagate(e);
+			}
+			throw new CancellationException("The send has been cancelled or closed");
+		}
+		source.actual.onNext(item);
+		if (source.requested != Long.MAX_VALUE) {
+			Source.REQUESTED.decrementAndGet(source);
+		}
+	}
+
+	/**
+	 * Complete the send and wait for the outbound to flush it.
+	 *
+	 * @throws RuntimeException if the send failed
+	 */
+	@Override
+	public void close() {
+		source.done = true;
+		source.tryComplete();
+		result.block();
+	}
+
+	static final class Source<OUT> implements Publisher<OUT>, Subscription {
+
+		volatile Subscriber<? super OUT> actual;
+		volatile Thread                  waiter;
+		volatile boolean                 cancelled;
+		volatile boolean                 done;
+
+		volatile int once;
+		@SuppressWarnings("rawtypes")
+		static final AtomicIntegerFieldUpdater<Source> ONCE =
+				AtomicIntegerFieldUpdater.newUpdater(Source.class, "once");
+
+		volatile long requested;
+		@SuppressWarnings("rawtypes")
+		static final AtomicLongFieldUpdater<Source> REQUESTED =
+				AtomicLongFieldUpdater.newUpdater(Source.class, "requested");
+
+		@Override
+		public void subscribe(Subscriber<? super OUT> s) {
+			if (actual != null) {
+				Operators.error(s, Exceptions.duplicateOnSubscribeException());
+				return;
+			}
+			s.onSubscribe(this);
+			actual = s;
+			LockSupport.unpark(waiter);
+			tryComplete();
+		}
+
+		void tryComplete() {
+			Subscriber<? super OUT> a = actual;
+			if (a != null && done && !cancelled && ONCE.compareAndSet(this, 0, 1)) {
+				a.onComplete();
+			}
+		}
+
+		@Override
+		public void request(long n) {
+			if (Operators.validate(n)) {
+				Operators.getAndAddCap(REQUESTED, this, n);
+				LockSupport.unpark(waiter);
+			}
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			LockSupport.unpark(waiter);
+		}
+
+		/**
+		 * @return false if the send has been cancelled or closed
+		 */
+		boolean await() throws InterruptedException {
+			for (; ; ) {
+				if (cancelled || done) {
+					return false;
+				}
+				if (actual != null && requested != 0L) {
+					return true;
+				}
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+				waiter = Thread.currentThread();
+				if (!cancelled && (actual == null || requested == 0L)) {
+					LockSupport.park(this);
+				}
+				waiter = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,449 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.reactivestreams.Publisher;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.util.concurrent.QueueSupplier;
+
+/**
+ * An {@link Outbound} fanning out every item given to {@link #send(Publisher)} to all
+ * the {@link Outbound} joined via {@link #add(Outbound)}.
+ * <p>
+ * Items are expected to be encoded once before reaching the group: each member receives
+ * a cheap view of the same shared item (e.g. {@link java.nio.ByteBuffer#duplicate()})
+ * and the item is reference-counted, the release callback being invoked once every
+ * member has written or dropped its view. Each member is written by one
+ * {@link Outbound#send(Publisher)} at a time, carrying the items queued meanwhile, and
+ * its views are only released once that send completes, so that asynchronous
+ * transports may keep using them after {@code onNext} returns.
+ * <p>
+ * Slow members are handled according to the group {@link Overflow} policy so that they
+ * never slow down the source nor the other members.
+ *
+ * @param <OUT> the shared item type
+ *
+ * @since 0.6
+ */
+public final class BroadcastGroup<OUT> implements Outbound<OUT> {
+
+	/**
+	 * Policy applied to a member that cannot keep up with the broadcast rate
+	 */
+	public enum Overflow {
+		/**
+		 * Drop the items arriving while a member is still writing previous ones
+		 */
+		DROP,
+		/**
+		 * Buffer up to the group bound, then drop the items a member has no room for
+		 */
+		BUFFER,
+		/**
+		 * Buffer up to the group bound, then disconnect the member with an overflow
+		 * error
+		 */
+		DISCONNECT
+	}
+
+	/**
+	 * Create a {@link BroadcastGroup} sharing items as is and never releasing them.
+	 *
+	 * @param overflow the slow member policy
+	 * @param maxPending the maximum number of items buffered per member
+	 * @param <OUT> the shared item type
+	 *
+	 * @return a new {@link BroadcastGroup}
+	 */
+	public static <OUT> BroadcastGroup<OUT> create(Overflow overflow, int maxPending) {
+		return create(Function.identity(), v -> {
+		}, overflow, maxPending);
+	}
+
+	/**
+	 * Create a {@link BroadcastGroup}.
+	 *
+	 * @param view the function producing a member view of a shared item, e.g. {@code
+	 * ByteBuffer::duplicate}
+	 * @param release the callback invoked once a shared item is not referenced anymore,
+	 * e.g. returning a buffer to its pool
+	 * @param overflow the slow member policy
+	 * @param maxPending the maximum number of items buffered per member
+	 * @param <OUT> the shared item type
+	 *
+	 * @return a new {@link BroadcastGroup}
+	 */
+	public static <OUT> BroadcastGroup<OUT> create(Function<? super OUT, ? extends OUT> view,
+			Consumer<? super OUT> release,
+			Overflow overflow,
+			int maxPending) {
+		return new BroadcastGroup<>(view, release, overflow, maxPending);
+	}
+
+	final Function<? super OUT, ? extends OUT> view;
+	final Consumer<? super OUT>                release;
+	final Overflow                             overflow;
+	final int                                  maxPending;
+
+	volatile Member<OUT>[] members;
+	@SuppressWarnings("rawtypes")
+	static final AtomicReferenceFieldUpdater<BroadcastGroup, Member[]> MEMBERS =
+			AtomicReferenceFieldUpdater.newUpdater(BroadcastGroup.class, Member[].class, "members");
+
+	@SuppressWarnings("rawtypes")
+	static final Member[] EMPTY      = new Member[0];
+	@SuppressWarnings("rawtypes")
+	static final Member[] TERMINATED = new Member[0];
+
+	@SuppressWarnings("unchecked")
+	BroadcastGroup(Function<? super OUT, ? extends OUT> view,
+			Consumer<? super OUT> release,
+			Overflow overflow,
+			int maxPending) {
+		if (maxPending < 1) {
+			throw new IllegalArgumentException("maxPending must be strictly positive, " +
+					"was: " + maxPending);
+		}
+		this.view = Objects.requireNonNull(view, "view");
+		this.release = Objects.requireNonNull(release, "release");
+		this.overflow = Objects.requireNonNull(overflow, "overflow");
+		this.maxPending = maxPending;
+		this.members = EMPTY;
+	}
+
+	/**
+	 * Join the given {@link Outbound} to this group. The returned {@link Mono} must be
+	 * subscribed to start receiving broadcast items, and cancelled to leave the group.
+	 *
+	 * @param outbound the member to join
+	 *
+	 * @return A {@link Mono} completing when the group is shut down or failing if the
+	 * member is disconnected
+	 */
+	public Mono<Void> add(Outbound<? super OUT> outbound) {
+		Objects.requireNonNull(outbound, "outbound");
+		return Mono.create(sink -> {
+			Member<OUT> m = new Member<>(outbound, sink, this);
+			sink.setCancellation(m::cancel);
+			if (!join(m)) {
+				m.onComplete();
+			}
+		});
+	}
+
+	/**
+	 * @return the current number of members
+	 */
+	public int size() {
+		return members.length;
+	}
+
+	/**
+	 * Complete every current member and reject further members.
+	 */
+	@SuppressWarnings("unchecked")
+	public void shutdown() {
+		for (Member<OUT> m : MEMBERS.getAndSet(this, TERMINATED)) {
+			m.onComplete();
+		}
+	}
+
+	/**
+	 * Broadcast the given items to every member. Items are requested unbounded and
+	 * dispatched in order, concurrent calls being serialized.
+	 *
+	 * @param dataStream the shared items to broadcast
+	 *
+	 * @return A {@link Mono} completing when every item has been dispatched
+	 */
+	@Override
+	public Mono<Void> send(Publisher<? extends OUT> dataStream) {
+		return Flux.from(dataStream)
+		           .doOnNext(this::dispatch)
+		           .then();
+	}
+
+	/**
+	 * Dispatch a single shared item to every member.
+	 *
+	 * @param item the shared item
+	 */
+	public synchronized void dispatch(OUT item) {
+		Shared<OUT> shared = new Shared<>(item, release);
+		for (Member<OUT> m : members) {
+			shared.retain();
+			if (!m.offer(shared)) {
+				shared.release();
+			}
+		}
+		shared.release();
+	}
+
+	@SuppressWarnings("unchecked")
+	boolean join(Member<OUT> m) {
+		for (; ; ) {
+			Member<OUT>[] a = members;
+			if (a == TERMINATED) {
+				return false;
+			}
+			int n = a.length;
+			Member<OUT>[] b = new Member[n + 1];
+			System.arraycopy(a, 0, b, 0, n);
+			b[n] = m;
+			if (MEMBERS.compareAndSet(this, a, b)) {
+				return true;
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	void leave(Member<OUT> m) {
+		for (; ; ) {
+			Member<OUT>[] a = members;
+			if (a == TERMINATED || a == EMPTY) {
+				return;
+			}
+			int n = a.length;
+			int j = -1;
+			for (int i = 0; i < n; i++) {
+				if (a[i] == m) {
+					j = i;
+					break;
+				}
+			}
+			if (j < 0) {
+				return;
+			}
+			Member<OUT>[] b;
+			if (n == 1) {
+				b = EMPTY;
+			}
+			else {
+				b = new Member[n - 1];
+				System.arraycopy(a, 0, b, 0, j);
+				System.arraycopy(a, j + 1, b, j, n - j - 1);
+			}
+			if (MEMBERS.compareAndSet(this, a, b)) {
+				return;
+			}
+		}
+	}
+
+	static final class Shared<OUT> {
+
+		final OUT                   value;
+		final Consumer<? super OUT> onRelease;
+
+		volatile int refCnt = 1;
+		@SuppressWarnings("rawtypes")
+		static final AtomicIntegerFieldUpdater<Shared> REF_CNT =
+				AtomicIntegerFieldUpdater.newUpdater(Shared.class, "refCnt");
+
+		Shared(OUT value, Consumer<? super OUT> onRelease) {
+			this.value = value;
+			this.onRelease = onRelease;
+		}
+
+		void retain() {
+			REF_CNT.incrementAndGet(this);
+		}
+
+		void release() {
+			if (REF_CNT.decrementAndGet(this) == 0) {
+				onRelease.accept(value);
+			}
+		}
+	}
+
+	static final class Member<OUT> {
+
+		final Outbound<? super OUT> outbound;
+		final MonoSink<Void>        sink;
+		final BroadcastGroup<OUT>   parent;
+		final Queue<Shared<OUT>>    queue;
+
+		volatile boolean writing;
+		volatile boolean done;
+		Throwable        error;
+		volatile boolean cancelled;
+
+		volatile int wip;
+		@SuppressWarnings("rawtypes")
+		static final AtomicIntegerFieldUpdater<Member> WIP =
+				AtomicIntegerFieldUpdater.newUpdater(Member.class, "wip");
+
+		Member(Outbound<? super OUT> outbound, MonoSink<Void> sink, BroadcastGroup<OUT> parent) {
+			this.outbound = outbound;
+			this.sink = sink;
+			this.parent = parent;
+			this.queue = QueueSupplier.<Shared<OUT>>get(parent.maxPending).get();
+		}
+
+		/**
+		 * Called by the group dispatcher only.
+		 *
+		 * @param shared the retained shared item
+		 *
+		 * @return false if the item has been dropped and must be released by the caller
+		 */
+		boolean offer(Shared<OUT> shared) {
+			if (done || cancelled) {
+				return false;
+			}
+			int pending = queue.size();
+			switch (parent.overflow) {
+				case DROP:
+					if (writing || pending != 0) {
+						return false;
+					}
+					break;
+				case BUFFER:
+					if (pending >= parent.maxPending) {
+						return false;
+					}
+					break;
+				default:
+					if (pending >= parent.maxPending) {
+						error = Exceptions.failWithOverflow();
+						done = true;
+						parent.leave(this);
+						drain();
+						return false;
+					}
+			}
+			if (!queue.offer(shared)) {
+				return false;
+			}
+			drain();
+			return true;
+		}
+
+		void onComplete() {
+			done = true;
+			drain();
+		}
+
+		void cancel() {
+			if (!cancelled) {
+				cancelled = true;
+				parent.leave(this);
+				drain();
+			}
+		}
+
+		void clear() {
+			Shared<OUT> s;
+			while ((s = queue.poll()) != null) {
+				s.release();
+			}
+		}
+
+		void drain() {
+			if (WIP.getAndIncrement(this) != 0) {
+				return;
+			}
+			int missed = 1;
+			for (; ; ) {
+				if (cancelled) {
+					clear();
+				}
+				else if (done && error != null) {
+					terminate();
+				}
+				else if (!writing) {
+					boolean d = done;
+					List<Shared<OUT>> batch = null;
+					Shared<OUT> s;
+					while ((batch == null || batch.size() < parent.maxPending) &&
+							(s = queue.poll()) != null) {
+						if (batch == null) {
+							batch = new ArrayList<>();
+						}
+						batch.add(s);
+					}
+					if (batch != null) {
+						write(batch);
+					}
+					else if (d) {
+						terminate();
+					}
+				}
+
+				missed = WIP.addAndGet(this, -missed);
+				if (missed == 0) {
+					break;
+				}
+			}
+		}
+
+		/**
+		 * Send views of the given items, releasing them once the send terminates.
+		 */
+		void write(List<Shared<OUT>> batch) {
+			writing = true;
+			List<OUT> views = new ArrayList<>(batch.size());
+			for (Shared<OUT> s : batch) {
+				views.add(parent.view.apply(s.value));
+			}
+			Mono.defer(() -> outbound.send(Flux.fromIterable(views)))
+			    .subscribe(null, e -> {
+				    release(batch);
+				    if (!cancelled) {
+					    error = e;
+					    done = true;
+				    }
+				    writing = false;
+				    drain();
+			    }, () -> {
+				    release(batch);
+				    writing = false;
+				    drain();
+			    });
+		}
+
+		void terminate() {
+			cancelled = true;
+			parent.leave(this);
+			clear();
+			Throwable e = error;
+			if (e != null) {
+				sink.error(e);
+			}
+			else {
+				sink.success();
+			}
+		}
+
+		static <OUT> void release(List<Shared<OUT>> batch) {
+			for (Shared<OUT> s : batch) {
+				s.release();
+			}
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * A {@link Outbound} specialized for {@link ByteBuffer} streams, able to send file
+ * regions without copying them to the heap.
+ *
+ * @since 0.6
+ */
+@FunctionalInterface
+public interface ByteBufferOutbound extends Outbound<ByteBuffer> {
+
+	/**
+	 * Send a region of a file to the peer, listen for any error on write and close on
+	 * terminal signal (complete|error). Like {@link java.nio.channels.FileChannel#transferTo},
+	 * fewer bytes are sent if the file ends before the region does.
+	 * <p>
+	 * Transports able to write a file without copying should override this method, e.g.
+	 * with {@link FileRegions#transfer(Path, long, long, WritableByteChannel)}. The
+	 * default implementation does so if {@link #delegate()} is a blocking
+	 * {@link WritableByteChannel}, and otherwise sends read-only
+	 * {@link java.nio.MappedByteBuffer} chunks, mapped one at a time as requested.
+	 *
+	 * @param file the file to send
+	 * @param position the position of the first byte to send
+	 * @param count the maximum number of bytes to send
+	 *
+	 * @return A {@link Mono} to signal successful sequence write (e.g. after "flush") or
+	 * any error during write
+	 */
+	default Mono<Void> sendFile(Path file, long position, long count) {
+		Object channel = delegate();
+		if (channel instanceof WritableByteChannel && Pipes.isBlocking(channel)) {
+			return FileRegions.transfer(file, position, count, (WritableByteChannel) channel);
+		}
+		return send(FileRegions.chunks(file, position, count, FileRegions.DEFAULT_CHUNK_SIZE));
+	}
+}
@@ -0,0 +1,458 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.reactivestreams.Publisher;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.core.scheduler.TimedScheduler;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+/**
+ * A client-side pool of {@link Channel} connected to one or more endpoints, sending on
+ * the least loaded of them.
+ * <p>
+ * Each pooled channel counts its outstanding exchanges with a {@link LongAdder}. Every
+ * exchange picks two pooled channels at random and uses the one with fewer outstanding
+ * exchanges, which avoids both the head-of-line blocking of a single connection and the
+ * load blindness of round robin, without scanning the pool.
+ * <p>
+ * {@link #warmup()} connects {@code connectionsPerEndpoint} channels to every endpoint
+ * up front. A channel failing its health check, or an exchange with a transport error,
+ * is evicted and replaced by a new connection to the same endpoint. Replacements are
+ * connected asynchronously after an exponential backoff, reset once a channel of that
+ * endpoint completes an exchange, so that an endpoint handing out unhealthy channels is
+ * not reconnected in a loop. Evicted channels, and every pooled channel on
+ * {@link #close()}, are given to a disposer, by default closing {@link AutoCloseable}
+ * channels.
+ *
+ * @param <IN> the received type
+ * @param <OUT> the sent type
+ *
+ * @since 0.6
+ */
+public final class ChannelPool<IN, OUT> implements Outbound<OUT>, AutoCloseable {
+
+	/**
+	 * Default number of channels connected to each endpoint
+	 */
+	public static final int DEFAULT_CONNECTIONS_PER_ENDPOINT = 2;
+
+	/**
+	 * Create a {@link ChannelPool} with the default number of channels per endpoint.
+	 *
+	 * @param endpoints a connector per endpoint, connecting a new channel on subscribe
+	 * @param <IN> the received type
+	 * @param <OUT> the sent type
+	 *
+	 * @return a new {@link ChannelPool}, to {@link #warmup()}
+	 */
+	public static <IN, OUT> ChannelPool<IN, OUT> create(List<? extends Supplier<? extends
+			Publisher<? extends Channel<IN, OUT>>>> endpoints) {
+		return create(endpoints, DEFAULT_CONNECTIONS_PER_ENDPOINT, c -> true);
+	}
+
+	/**
+	 * Create a {@link ChannelPool} evicting channels whose exchange fails with an
+	 * {@link IOException}.
+	 *
+	 * @param endpoints a connector per endpoint, connecting a new channel on subscribe
+	 * @param connectionsPerEndpoint the number of channels connected to each endpoint
+	 * @param healthCheck the predicate a channel must match to be used, evicted otherwise
+	 * @param <IN> the received type
+	 * @param <OUT> the sent type
+	 *
+	 * @return a new {@link ChannelPool}, to {@link #warmup()}
+	 */
+	public static <IN, OUT> ChannelPool<IN, OUT> create(List<? extends Supplier<? extends
+			Publisher<? extends Channel<IN, OUT>>>> endpoints,
+			int connectionsPerEndpoint,
+			Predicate<? super Channel<IN, OUT>> healthCheck) {
+		return create(endpoints,
+				connectionsPerEndpoint,
+				healthCheck,
+				e -> e instanceof IOException);
+	}
+
+	/**
+	 * Create a {@link ChannelPool}.
+	 *
+	 * @param endpoints a connector per endpoint, connecting a new channel on subscribe
+	 * @param connectionsPerEndpoint the number of channels connected to each endpoint
+	 * @param healthCheck the predicate a channel must match to be used, evicted otherwise
+	 * @param transportError the predicate an exchange error must match for its channel
+	 * to be evicted, telling transport errors from application ones
+	 * @param <IN> the received type
+	 * @param <OUT> the sent type
+	 *
+	 * @return a new {@link ChannelPool}, to {@link #warmup()}
+	 */
+	public static <IN, OUT> ChannelPool<IN, OUT> create(List<? extends Supplier<? extends
+			Publisher<? extends Channel<IN, OUT>>>> endpoints,
+			int connectionsPerEndpoint,
+			Predicate<? super Channel<IN, OUT>> healthCheck,
+			Predicate<? super Throwable> transportError) {
+		return create(endpoints,
+				connectionsPerEndpoint,
+				healthCheck,
+				transportError,
+				ChannelPool::closeIfCloseable);
+	}
+
+	/**
+	 * Create a {@link ChannelPool}.
+	 *
+	 * @param endpoints a connector per endpoint, connecting a new channel on subscribe
+	 * @param connectionsPerEndpoint the number of channels connected to each endpoint
+	 * @param healthCheck the predicate a channel must match to be used, evicted otherwise
+	 * @param transportError the predicate an exchange error must match for its channel
+	 * to be evicted, telling transport errors from application ones
+	 * @param disposer the consumer of evicted channels and of every pooled channel on
+	 * close, e.g. disconnecting them
+	 * @param <IN> the received type
+	 * @param <OUT> the sent type
+	 *
+	 * @return a new {@link ChannelPool}, to {@link #warmup()}
+	 */
+	public static <IN, OUT> ChannelPool<IN, OUT> create(List<? extends Supplier<? extends
+			Publisher<? extends Channel<IN, OUT>>>> endpoints,
+			int connectionsPerEndpoint,
+			Predicate<? super Channel<IN, OUT>> healthCheck,
+			Predicate<? super Throwable> transportError,
+			Consumer<? super Channel<IN, OUT>> disposer) {
+		return new ChannelPool<>(endpoints,
+				connectionsPerEndpoint,
+				healthCheck,
+				transportError,
+				disposer,
+				Schedulers.timer());
+	}
+
+	static final Logger logger = Loggers.getLogger(ChannelPool.class);
+
+	static final Member[] EMPTY = new Member[0];
+
+	/**
+	 * Maximum number of unhealthy channels evicted while selecting one
+	 */
+	static final int MAX_EVICTIONS_PER_SELECT = 2;
+
+	static final long MIN_RECONNECT_DELAY_MILLIS = 10L;
+	static final long MAX_RECONNECT_DELAY_MILLIS = 10_000L;
+
+	final List<Supplier<? extends Publisher<? extends Channel<IN, OUT>>>> endpoints;
+	final int                                                              connectionsPerEndpoint;
+	final Predicate<? super Channel<IN, OUT>>                              healthCheck;
+	final Predicate<? super Throwable>                                     transportError;
+	final Consumer<? super Channel<IN, OUT>>                               disposer;
+	final TimedScheduler                                                   timer;
+
+	/**
+	 * Channels connected or connecting per endpoint, guarded by this monitor
+	 */
+	final int[] connections;
+
+	/**
+	 * Evictions per endpoint since one of its channels last completed an exchange
+	 */
+	final AtomicIntegerArray failures;
+
+	@SuppressWarnings("unchecked")
+	volatile Member<IN, OUT>[] members = EMPTY;
+
+	volatile boolean closed;
+
+	ChannelPool(List<? extends Supplier<? extends Publisher<? extends Channel<IN, OUT>>>> endpoints,
+			int connectionsPerEndpoint,
+			Predicate<? super Channel<IN, OUT>> healthCheck,
+			Predicate<? super Throwable> transportError,
+			Consumer<? super Channel<IN, OUT>> disposer,
+			TimedScheduler timer) {
+		if (endpoints.isEmpty()) {
+			throw new IllegalArgumentException("endpoints must not be empty");
+		}
+		if (connectionsPerEndpoint < 1) {
+			throw new IllegalArgumentException("connectionsPerEndpoint must be strictly " +
+					"positive, was: " + connectionsPerEndpoint);
+		}
+		this.endpoints = new ArrayList<>(endpoints);
+		this.connectionsPerEndpoint = connectionsPerEndpoint;
+		this.healthCheck = Objects.requireNonNull(healthCheck, "healthCheck");
+		this.transportError = Objects.requireNonNull(transportError, "transportError");
+		this.disposer = Objects.requireNonNull(disposer, "disposer");
+		this.timer = Objects.requireNonNull(timer, "timer");
+		this.connections = new int[endpoints.size()];
+		this.failures = new AtomicIntegerArray(endpoints.size());
+	}
+
+	/**
+	 * Connect every missing channel, completing once all are connected or failing with
+	 * the first connection error.
+	 *
+	 * @return a {@link Mono} connecting the missing channels on subscribe
+	 */
+	public Mono<Void> warmup() {
+		return Mono.defer(() -> {
+			List<Mono<Void>> connects = new ArrayList<>();
+			synchronized (this) {
+				if (closed) {
+					return Mono.error(new IllegalStateException("ChannelPool closed"));
+				}
+				for (int e = 0; e < connections.length; e++) {
+					for (; connections[e] < connectionsPerEndpoint; connections[e]++) {
+						int endpoint = e;
+						connects.add(connect(e).doOnError(x -> {
+							synchronized (this) {
+								connections[endpoint]--;
+							}
+						}));
+					}
+				}
+			}
+			return Mono.when(connects);
+		});
+	}
+
+	/**
+	 * Run an exchange, e.g. a request and its response, on the least loaded of two
+	 * random pooled channels. The channel is evicted if the exchange fails with a
+	 * transport error.
+	 *
+	 * @param exchange the exchange to run on the selected channel
+	 * @param <R> the exchange result type
+	 *
+	 * @return a {@link Mono} running the exchange on subscribe
+	 */
+	public <R> Mono<R> withChannel(Function<? super Channel<IN, OUT>, ? extends Mono<R>> exchange) {
+		Objects.requireNonNull(exchange, "exchange");
+		return Mono.defer(() -> {
+			Member<IN, OUT> m = select();
+			if (m == null) {
+				return Mono.error(new IllegalStateException("No channel available"));
+			}
+			return Mono.<R, Member<IN, OUT>>using(() -> {
+				m.outstanding.increment();
+				return m;
+			}, s -> exchange.apply(s.channel), s -> s.outstanding.decrement())
+					.doOnSuccess(r -> {
+						if (failures.get(m.endpoint) != 0) {
+							failures.set(m.endpoint, 0);
+						}
+					})
+					.doOnError(e -> {
+						if (transportError.test(e)) {
+							evict(m);
+						}
+					});
+		});
+	}
+
+	@Override
+	public Mono<Void> send(Publisher<? extends OUT> dataStream) {
+		return withChannel(c -> c.send(dataStream));
+	}
+
+	/**
+	 * @return the number of pooled channels
+	 */
+	public int size() {
+		return members.length;
+	}
+
+	/**
+	 * @return the number of outstanding exchanges over all pooled channels
+	 */
+	public long outstanding() {
+		long n = 0L;
+		for (Member<IN, OUT> m : members) {
+			n += m.outstanding.sum();
+		}
+		return n;
+	}
+
+	/**
+	 * Stop pooling and reconnecting channels, and dispose every pooled channel.
+	 */
+	@Override
+	public void close() {
+		Member<IN, OUT>[] m;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			m = members;
+			@SuppressWarnings("unchecked")
+			Member<IN, OUT>[] empty = EMPTY;
+			members = empty;
+		}
+		for (Member<IN, OUT> member : m) {
+			dispose(member.channel);
+		}
+	}
+
+	/**
+	 * @return the least loaded of two random healthy members, or null if none or too many
+	 * were unhealthy
+	 */
+	Member<IN, OUT> select() {
+		for (int evictions = 0; evictions < MAX_EVICTIONS_PER_SELECT; evictions++) {
+			Member<IN, OUT>[] m = members;
+			int n = m.length;
+			if (n == 0) {
+				return null;
+			}
+			Member<IN, OUT> a;
+			if (n == 1) {
+				a = m[0];
+			}
+			else {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				int i = random.nextInt(n);
+				int j = random.nextInt(n - 1);
+				a = m[i];
+				Member<IN, OUT> b = m[j >= i ? j + 1 : j];
+				if (b.outstanding.sum() < a.outstanding.sum()) {
+					a = b;
+				}
+			}
+			if (healthCheck.test(a.channel)) {
+				return a;
+			}
+			evict(a);
+		}
+		return null;
+	}
+
+	Mono<Void> connect(int endpoint) {
+		return Mono.<Channel<IN, OUT>>from(endpoints.get(endpoint)
+		                                            .get())
+		           .otherwiseIfEmpty(Mono.error(new IllegalStateException("Endpoint " +
+				           endpoint + " completed without a channel")))
+		           .doOnNext(c -> add(new Member<>(endpoint, c)))
+		           .then();
+	}
+
+	/**
+	 * Connect a channel to the given endpoint after a backoff growing with its failures,
+	 * retrying until connected or closed. The connection slot is already reserved.
+	 */
+	void reconnect(int endpoint) {
+		if (closed) {
+			return;
+		}
+		int attempt = Math.min(failures.getAndIncrement(endpoint), 20);
+		long delay = Math.min(MIN_RECONNECT_DELAY_MILLIS << attempt, MAX_RECONNECT_DELAY_MILLIS);
+		Mono.delayMillis(delay, timer)
+		    .publishOn(Schedulers.elastic())
+		    .then(() -> connect(endpoint))
+		    .subscribe(null, e -> {
+			    logger.error("Failed to replace an evicted channel", e);
+			    reconnect(endpoint);
+		    });
+	}
+
+	void add(Member<IN, OUT> member) {
+		synchronized (this) {
+			if (!closed) {
+				Member<IN, OUT>[] m = members;
+				int n = m.length;
+				@SuppressWarnings("unchecked")
+				Member<IN, OUT>[] b = new Member[n + 1];
+				System.arraycopy(m, 0, b, 0, n);
+				b[n] = member;
+				members = b;
+				return;
+			}
+		}
+		dispose(member.channel);
+	}
+
+	void evict(Member<IN, OUT> member) {
+		synchronized (this) {
+			Member<IN, OUT>[] m = members;
+			int n = m.length;
+			int j = -1;
+			for (int i = 0; i < n; i++) {
+				if (m[i] == member) {
+					j = i;
+					break;
+				}
+			}
+			if (j < 0) {
+				return;
+			}
+			@SuppressWarnings("unchecked")
+			Member<IN, OUT>[] b = new Member[n - 1];
+			System.arraycopy(m, 0, b, 0, j);
+			System.arraycopy(m, j + 1, b, j, n - j - 1);
+			members = b;
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Evicted channel {} of endpoint {}", member.channel, member.endpoint);
+		}
+		dispose(member.channel);
+		reconnect(member.endpoint);
+	}
+
+	void dispose(Channel<IN, OUT> channel) {
+		try {
+			disposer.accept(channel);
+		}
+		catch (Throwable e) {
+			logger.error("Failed to dispose channel " + channel, e);
+		}
+	}
+
+	static void closeIfCloseable(Channel<?, ?> channel) {
+		if (channel instanceof AutoCloseable) {
+			try {
+				((AutoCloseable) channel).close();
+			}
+			catch (Exception e) {
+				throw Exceptions.propagate(e);
+			}
+		}
+	}
+
+	static final class Member<IN, OUT> {
+
+		final int               endpoint;
+		final Channel<IN, OUT>  channel;
+		final LongAdder         outstanding;
+
+		Member(int endpoint, Channel<IN, OUT> channel) {
+			this.endpoint = endpoint;
+			this.channel = channel;
+			this.outstanding = new LongAdder();
+		}
+	}
+}
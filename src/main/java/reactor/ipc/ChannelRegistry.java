@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+import reactor.util.concurrent.QueueSupplier;
+
+/**
+ * A concurrent registry of live channels, e.g. {@link Channel}, keyed by primitive long
+ * connection ids so that ids are never boxed.
+ * <p>
+ * Entries are stored in open-addressing tables with linear probing, as a long array of
+ * ids next to an array of channels kept between half and three quarters full: about 16
+ * to 24 bytes per entry and no per-entry object, against about 50 bytes for a
+ * {@code ConcurrentHashMap<Long, Channel>} entry and its boxed key. Lookups and
+ * iteration never lock: a channel is published before its id and cleared before its id
+ * is tombstoned, a lookup checks the id of its slot again once it has read the channel,
+ * and a resized table is published as a whole. Updates are serialized on the registry.
+ * <p>
+ * {@link #register(Object)} assigns ids from a sequence, a cheap alternative to
+ * {@link reactor.ipc.util.UUIDUtils} for ids that only need to be unique within the
+ * process. Ids {@code 0} and {@link Long#MIN_VALUE} are reserved.
+ *
+ * @param <C> the channel type
+ *
+ * @since 0.6
+ */
+public final class ChannelRegistry<C> {
+
+	static final long   EMPTY            = 0L;
+	static final long   TOMBSTONE        = Long.MIN_VALUE;
+	static final int    DEFAULT_CAPACITY = 16;
+	static final double MAX_LOAD         = 0.75d;
+
+	/**
+	 * Create an empty {@link ChannelRegistry}.
+	 *
+	 * @param <C> the channel type
+	 *
+	 * @return a new {@link ChannelRegistry}
+	 */
+	public static <C> ChannelRegistry<C> create() {
+		return create(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create an empty {@link ChannelRegistry} sized for the given number of channels.
+	 *
+	 * @param expectedSize the expected number of channels
+	 * @param <C> the channel type
+	 *
+	 * @return a new {@link ChannelRegistry}
+	 */
+	public static <C> ChannelRegistry<C> create(int expectedSize) {
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException("expectedSize must be positive, " +
+					"was: " + expectedSize);
+		}
+		return new ChannelRegistry<>(tableSize(expectedSize));
+	}
+
+	final AtomicLong sequence = new AtomicLong();
+
+	volatile Table<C> table;
+
+	/**
+	 * Live entries and tombstones, updates only
+	 */
+	int size;
+	int tombstones;
+
+	ChannelRegistry(int capacity) {
+		this.table = new Table<>(capacity);
+	}
+
+	/**
+	 * @return a new id from the registry sequence, never reserved nor reused
+	 */
+	public long nextId() {
+		return sequence.incrementAndGet();
+	}
+
+	/**
+	 * Register a channel under a new id from {@link #nextId()}.
+	 *
+	 * @param channel the channel
+	 *
+	 * @return the id of the channel
+	 */
+	public long register(C channel) {
+		long id = nextId();
+		put(id, channel);
+		return id;
+	}
+
+	/**
+	 * Register a channel under the given id, replacing any channel with the same id.
+	 *
+	 * @param id the id
+	 * @param channel the channel
+	 *
+	 * @return the replaced channel or null
+	 */
+	public synchronized C put(long id, C channel) {
+		checkId(id);
+		Objects.requireNonNull(channel, "channel");
+		Table<C> t = table;
+		int mask = t.mask;
+		int free = -1;
+		for (int i = index(id, mask); ; i = (i + 1) & mask) {
+			long k = t.ids.get(i);
+			if (k == id) {
+				return t.channels.getAndSet(i, channel);
+			}
+			if (k == TOMBSTONE) {
+				if (free < 0) {
+					free = i;
+				}
+			}
+			else if (k == EMPTY) {
+				if (free < 0) {
+					free = i;
+				}
+				else {
+					tombstones--;
+				}
+				break;
+			}
+		}
+		t.channels.set(free, channel);
+		t.ids.set(free, id);
+		size++;
+		if (size + tombstones > t.capacity() * MAX_LOAD) {
+			resize();
+		}
+		return null;
+	}
+
+	/**
+	 * @param id the id
+	 *
+	 * @return the channel registered under the given id or null
+	 */
+	public C get(long id) {
+		for (; ; ) {
+			Table<C> t = table;
+			int mask = t.mask;
+			for (int i = index(id, mask); ; i = (i + 1) & mask) {
+				long k = t.ids.get(i);
+				if (k == id) {
+					C c = t.channels.get(i);
+					// the slot may have been removed and reused by another id meanwhile
+					if (t.ids.get(i) == id) {
+						return c;
+					}
+					break;
+				}
+				if (k == EMPTY) {
+					return null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Unregister the channel with the given id.
+	 *
+	 * @param id the id
+	 *
+	 * @return the removed channel or null
+	 */
+	public synchronized C remove(long id) {
+		if (id == EMPTY || id == TOMBSTONE) {
+			return null;
+		}
+		Table<C> t = table;
+		int mask = t.mask;
+		for (int i = index(id, mask); ; i = (i + 1) & mask) {
+			long k = t.ids.get(i);
+			if (k == id) {
+				C c = t.channels.getAndSet(i, null);
+				t.ids.set(i, TOMBSTONE);
+				size--;
+				tombstones++;
+				return c;
+			}
+			if (k == EMPTY) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of registered channels
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Give every registered channel to the given consumer, e.g. to broadcast, without
+	 * locking. Channels registered or removed concurrently may or may not be seen.
+	 *
+	 * @param consumer the channel consumer
+	 */
+	public void forEach(Consumer<? super C> consumer) {
+		Table<C> t = table;
+		int capacity = t.capacity();
+		for (int i = 0; i < capacity; i++) {
+			C c = t.channels.get(i);
+			if (c != null) {
+				consumer.accept(c);
+			}
+		}
+	}
+
+	/**
+	 * Unregister every channel at once, e.g. on shutdown, then give them to the given
+	 * consumer.
+	 *
+	 * @param consumer the removed channel consumer, e.g. disposing them
+	 */
+	public void removeAll(Consumer<? super C> consumer) {
+		Table<C> t;
+		synchronized (this) {
+			t = table;
+			table = new Table<>(DEFAULT_CAPACITY);
+			size = 0;
+			tombstones = 0;
+		}
+		int capacity = t.capacity();
+		for (int i = 0; i < capacity; i++) {
+			C c = t.channels.get(i);
+			if (c != null) {
+				consumer.accept(c);
+			}
+		}
+	}
+
+	/**
+	 * Rehash live entries into a table sized for them, dropping tombstones. Must be
+	 * called while holding this monitor.
+	 */
+	void resize() {
+		Table<C> t = table;
+		Table<C> n = new Table<>(tableSize(size));
+		int mask = n.mask;
+		int capacity = t.capacity();
+		for (int i = 0; i < capacity; i++) {
+			long k = t.ids.get(i);
+			C c = t.channels.get(i);
+			if (k != EMPTY && k != TOMBSTONE && c != null) {
+				int j = index(k, mask);
+				while (n.ids.get(j) != EMPTY) {
+					j = (j + 1) & mask;
+				}
+				n.channels.set(j, c);
+				n.ids.set(j, k);
+			}
+		}
+		tombstones = 0;
+		table = n;
+	}
+
+	static void checkId(long id) {
+		if (id == EMPTY || id == TOMBSTONE) {
+			throw new IllegalArgumentException("Reserved id: " + id);
+		}
+	}
+
+	/**
+	 * @return a power of two table size keeping the given number of entries at most
+	 * half full
+	 */
+	static int tableSize(int entries) {
+		return QueueSupplier.ceilingNextPowerOfTwo(Math.max(DEFAULT_CAPACITY,
+				(int) Math.min(1 << 30, entries * 2L)));
+	}
+
+	static int index(long id, int mask) {
+		long h = id * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	static final class Table<C> {
+
+		final AtomicLongArray         ids;
+		final AtomicReferenceArray<C> channels;
+		final int                     mask;
+
+		Table(int capacity) {
+			this.ids = new AtomicLongArray(capacity);
+			this.channels = new AtomicReferenceArray<>(capacity);
+			this.mask = capacity - 1;
+		}
+
+		int capacity() {
+			return mask + 1;
+		}
+	}
+}
@@ -0,0 +1,452 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.Function;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.Cancellation;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Schedulers;
+import reactor.core.scheduler.TimedScheduler;
+import reactor.util.concurrent.QueueSupplier;
+
+/**
+ * An {@link Outbound} decorator that coalesces consecutive small {@link ByteBuffer}
+ * given to {@link #send(Publisher)} into a single gathering write.
+ * <p>
+ * A pending batch is written when it holds {@code maxBatchSize} buffers,
+ * {@code maxBatchBytes} bytes, when {@code maxDelay} elapsed since its first buffer was
+ * added or when the sent {@link Publisher} terminates. Batches are written one after
+ * the other, at most two batches worth of buffers being requested upstream at any time.
+ * <p>
+ * By default batches are written with {@link GatheringByteChannel#write(ByteBuffer[])}
+ * on the {@link Outbound#delegate()} of the decorated outbound, on a
+ * {@link Schedulers#elastic()} thread as such writes block. Transports that don't expose
+ * a blocking {@link GatheringByteChannel} can supply their own batch writer.
+ *
+ * @since 0.6
+ */
+public final class CoalescingOutbound implements Outbound<ByteBuffer> {
+
+	/**
+	 * Default maximum number of buffers in a single gathering write
+	 */
+	public static final int      DEFAULT_MAX_BATCH_SIZE  = 64;
+	/**
+	 * Default maximum number of bytes in a single gathering write
+	 */
+	public static final int      DEFAULT_MAX_BATCH_BYTES = 16 * 1024;
+	/**
+	 * Default maximum time a buffer waits for its batch to fill up
+	 */
+	public static final Duration DEFAULT_MAX_DELAY       = Duration.ofMillis(1);
+
+	/**
+	 * Decorate an {@link Outbound} whose {@link Outbound#delegate()} is a
+	 * {@link GatheringByteChannel} using the default thresholds.
+	 *
+	 * @param outbound the decorated outbound
+	 *
+	 * @return a new {@link CoalescingOutbound}
+	 */
+	public static CoalescingOutbound create(Outbound<?> outbound) {
+		return create(outbound,
+				DEFAULT_MAX_BATCH_SIZE,
+				DEFAULT_MAX_BATCH_BYTES,
+				DEFAULT_MAX_DELAY);
+	}
+
+	/**
+	 * Decorate an {@link Outbound} whose {@link Outbound#delegate()} is a
+	 * {@link GatheringByteChannel}.
+	 *
+	 * @param outbound the decorated outbound
+	 * @param maxBatchSize the maximum number of buffers per write
+	 * @param maxBatchBytes the number of bytes after which a batch is written
+	 * @param maxDelay the maximum time a buffer waits for its batch, {@link Duration#ZERO}
+	 * to only flush on size thresholds and completion
+	 *
+	 * @return a new {@link CoalescingOutbound}
+	 */
+	public static CoalescingOutbound create(Outbound<?> outbound,
+			int maxBatchSize,
+			int maxBatchBytes,
+			Duration maxDelay) {
+		return create(outbound,
+				gatheringWriter(outbound),
+				maxBatchSize,
+				maxBatchBytes,
+				maxDelay);
+	}
+
+	/**
+	 * Decorate an {@link Outbound} with a custom batch writer.
+	 *
+	 * @param outbound the decorated outbound, used for {@link #delegate()}
+	 * @param writer the function writing a batch and completing when written
+	 * @param maxBatchSize the maximum number of buffers per write
+	 * @param maxBatchBytes the number of bytes after which a batch is written
+	 * @param maxDelay the maximum time a buffer waits for its batch, {@link Duration#ZERO}
+	 * to only flush on size thresholds and completion
+	 *
+	 * @return a new {@link CoalescingOutbound}
+	 */
+	public static CoalescingOutbound create(Outbound<?> outbound,
+			Function<? super ByteBuffer[], ? extends Publisher<Void>> writer,
+			int maxBatchSize,
+			int maxBatchBytes,
+			Duration maxDelay) {
+		return new CoalescingOutbound(outbound,
+				writer,
+				maxBatchSize,
+				maxBatchBytes,
+				maxDelay,
+				Schedulers.timer());
+	}
+
+	/**
+	 * Return a batch writer performing blocking gathering writes on the
+	 * {@link GatheringByteChannel} exposed by the given {@link Outbound#delegate()}, on
+	 * a {@link Schedulers#elastic()} thread so that neither the sending thread nor the
+	 * flush timer blocks.
+	 *
+	 * @param outbound the outbound to write to
+	 *
+	 * @return a batch writer
+	 * @throws IllegalArgumentException if the delegate is not a blocking
+	 * {@link GatheringByteChannel}
+	 */
+	public static Function<ByteBuffer[], Mono<Void>> gatheringWriter(Outbound<?> outbound) {
+		Object delegate = Objects.requireNonNull(outbound, "outbound").delegate();
+		if (!(delegate instanceof GatheringByteChannel) || !Pipes.isBlocking(delegate)) {
+			throw new IllegalArgumentException("Outbound delegate is not a blocking " +
+					"GatheringByteChannel: " + delegate);
+		}
+		GatheringByteChannel channel = (GatheringByteChannel) delegate;
+		return batch -> Mono.<Void>fromRunnable(() -> {
+			try {
+				int last = batch.length - 1;
+				while (batch[last].hasRemaining()) {
+					channel.write(batch);
+				}
+			}
+			catch (IOException e) {
+				throw Exceptions.propagate(e);
+			}
+		})
+		                    .subscribeOn(Schedulers.elastic());
+	}
+
+	final Outbound<?>                                               source;
+	final Function<? super ByteBuffer[], ? extends Publisher<Void>> writer;
+	final int                                                       maxBatchSize;
+	final int                                                       maxBatchBytes;
+	final long                                                      maxDelayNanos;
+	final TimedScheduler                                            timer;
+
+	CoalescingOutbound(Outbound<?> source,
+			Function<? super ByteBuffer[], ? extends Publisher<Void>> writer,
+			int maxBatchSize,
+			int maxBatchBytes,
+			Duration maxDelay,
+			TimedScheduler timer) {
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("maxBatchSize must be strictly positive, " +
+					"was: " + maxBatchSize);
+		}
+		if (maxBatchBytes < 1) {
+			throw new IllegalArgumentException("maxBatchBytes must be strictly positive, " +
+					"was: " + maxBatchBytes);
+		}
+		if (maxDelay.isNegative()) {
+			throw new IllegalArgumentException("maxDelay must be positive, was: " + maxDelay);
+		}
+		this.source = Objects.requireNonNull(source, "source");
+		this.writer = Objects.requireNonNull(writer, "writer");
+		this.maxBatchSize = maxBatchSize;
+		this.maxBatchBytes = maxBatchBytes;
+		this.maxDelayNanos = maxDelay.toNanos();
+		this.timer = timer;
+	}
+
+	@Override
+	public Object delegate() {
+		return source.delegate();
+	}
+
+	@Override
+	public Mono<Void> send(Publisher<? extends ByteBuffer> dataStream) {
+		return Flux.from(batches(dataStream))
+		           .concatMap(writer, 1)
+		           .then();
+	}
+
+	/**
+	 * Return the batches that would be written for the given sequence of buffers.
+	 *
+	 * @param dataStream the buffers to coalesce
+	 *
+	 * @return a {@link Publisher} of batches ready for a gathering write
+	 */
+	public Publisher<ByteBuffer[]> batches(Publisher<? extends ByteBuffer> dataStream) {
+		return s -> dataStream.subscribe(new CoalescingSubscriber(s, this));
+	}
+
+	static final ByteBuffer[] EMPTY = new ByteBuffer[0];
+
+	static final class CoalescingSubscriber
+			implements Subscriber<ByteBuffer>, Subscription, Runnable {
+
+		final Subscriber<? super ByteBuffer[]> actual;
+		final CoalescingOutbound               parent;
+		final Queue<ByteBuffer[]>              ready;
+
+		Subscription s;
+
+		List<ByteBuffer> batch;
+		long             batchBytes;
+		long             batchIndex;
+		Cancellation     flushTask;
+
+		volatile boolean done;
+		Throwable        error;
+		volatile boolean cancelled;
+
+		volatile long requested;
+		static final AtomicLongFieldUpdater<CoalescingSubscriber> REQUESTED =
+				AtomicLongFieldUpdater.newUpdater(CoalescingSubscriber.class, "requested");
+
+		volatile int wip;
+		static final AtomicIntegerFieldUpdater<CoalescingSubscriber> WIP =
+				AtomicIntegerFieldUpdater.newUpdater(CoalescingSubscriber.class, "wip");
+
+		CoalescingSubscriber(Subscriber<? super ByteBuffer[]> actual,
+				CoalescingOutbound parent) {
+			this.actual = actual;
+			this.parent = parent;
+			this.ready = QueueSupplier.<ByteBuffer[]>unbounded().get();
+			this.batch = new ArrayList<>(parent.maxBatchSize);
+		}
+
+		@Override
+		public void onSubscribe(Subscription s) {
+			if (Operators.validate(this.s, s)) {
+				this.s = s;
+				actual.onSubscribe(this);
+				s.request(2L * parent.maxBatchSize);
+			}
+		}
+
+		@Override
+		public void onNext(ByteBuffer buffer) {
+			if (done) {
+				Operators.onNextDropped(buffer);
+				return;
+			}
+			ByteBuffer[] flushed = null;
+			synchronized (this) {
+				List<ByteBuffer> b = batch;
+				b.add(buffer);
+				batchBytes += buffer.remaining();
+				if (b.size() >= parent.maxBatchSize || batchBytes >= parent.maxBatchBytes) {
+					flushed = takeBatch();
+				}
+				else if (b.size() == 1 && parent.maxDelayNanos > 0) {
+					flushTask = parent.timer.schedule(this,
+							parent.maxDelayNanos,
+							TimeUnit.NANOSECONDS);
+				}
+			}
+			if (flushed != null) {
+				ready.offer(flushed);
+				drain();
+			}
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			if (done) {
+				Operators.onErrorDropped(t);
+				return;
+			}
+			synchronized (this) {
+				takeBatch();
+			}
+			error = t;
+			done = true;
+			drain();
+		}
+
+		@Override
+		public void onComplete() {
+			if (done) {
+				return;
+			}
+			ByteBuffer[] flushed;
+			synchronized (this) {
+				flushed = takeBatch();
+			}
+			if (flushed.length != 0) {
+				ready.offer(flushed);
+			}
+			done = true;
+			drain();
+		}
+
+		/**
+		 * Idle flush scheduled when the first buffer of a batch is added
+		 */
+		@Override
+		public void run() {
+			ByteBuffer[] flushed;
+			synchronized (this) {
+				flushed = takeBatch();
+			}
+			if (flushed.length != 0) {
+				ready.offer(flushed);
+				drain();
+			}
+		}
+
+		@Override
+		public void request(long n) {
+			if (Operators.validate(n)) {
+				Operators.getAndAddCap(REQUESTED, this, n);
+				drain();
+			}
+		}
+
+		@Override
+		public void cancel() {
+			if (!cancelled) {
+				cancelled = true;
+				s.cancel();
+				synchronized (this) {
+					takeBatch();
+				}
+				if (WIP.getAndIncrement(this) == 0) {
+					ready.clear();
+				}
+			}
+		}
+
+		/**
+		 * Must be called while holding this monitor.
+		 *
+		 * @return the current batch, possibly empty, and start a new one
+		 */
+		ByteBuffer[] takeBatch() {
+			Cancellation task = flushTask;
+			if (task != null) {
+				flushTask = null;
+				task.dispose();
+			}
+			List<ByteBuffer> b = batch;
+			if (b.isEmpty()) {
+				return EMPTY;
+			}
+			batch = new ArrayList<>(parent.maxBatchSize);
+			batchBytes = 0L;
+			return b.toArray(new ByteBuffer[b.size()]);
+		}
+
+		void drain() {
+			if (WIP.getAndIncrement(this) != 0) {
+				return;
+			}
+			int missed = 1;
+			for (; ; ) {
+				long r = requested;
+				long e = 0L;
+				long consumed = 0L;
+
+				while (e != r) {
+					if (cancelled) {
+						ready.clear();
+						return;
+					}
+					boolean d = done;
+					ByteBuffer[] next = ready.poll();
+					if (next == null) {
+						if (d) {
+							terminate();
+							return;
+						}
+						break;
+					}
+					actual.onNext(next);
+					consumed += next.length;
+					e++;
+				}
+
+				if (e == r) {
+					if (cancelled) {
+						ready.clear();
+						return;
+					}
+					if (done && ready.isEmpty()) {
+						terminate();
+						return;
+					}
+				}
+
+				if (e != 0L) {
+					if (r != Long.MAX_VALUE) {
+						REQUESTED.addAndGet(this, -e);
+					}
+					if (!done) {
+						s.request(consumed);
+					}
+				}
+
+				missed = WIP.addAndGet(this, -missed);
+				if (missed == 0) {
+					break;
+				}
+			}
+		}
+
+		void terminate() {
+			cancelled = true;
+			Throwable e = error;
+			if (e != null) {
+				ready.clear();
+				actual.onError(e);
+			}
+			else {
+				actual.onComplete();
+			}
+		}
+	}
+}
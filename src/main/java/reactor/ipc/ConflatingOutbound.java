@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.Function;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Operators;
+import reactor.util.concurrent.QueueSupplier;
+
+/**
+ * An {@link Outbound} decorator that, when the decorated outbound cannot keep up, only
+ * keeps the latest pending item of each key, e.g. the latest price of each instrument.
+ * <p>
+ * Items given to {@link #send(Publisher)} are requested without bound and stored in a
+ * concurrent map by key, replacing any pending item of the same key. Pending items are
+ * sent as the decorated outbound requests them, in the order their key first became
+ * pending, so a key updated continuously is never starved by the others. At most
+ * {@code maxKeys} keys may be pending at once, a sequence exceeding it failing with an
+ * overflow error.
+ *
+ * @param <T> the sent type
+ *
+ * @since 0.6
+ */
+public final class ConflatingOutbound<T> implements Outbound<T> {
+
+	/**
+	 * Default maximum number of pending keys
+	 */
+	public static final int DEFAULT_MAX_KEYS = 4096;
+
+	/**
+	 * Decorate an {@link Outbound} with the default maximum number of pending keys.
+	 *
+	 * @param outbound the decorated outbound
+	 * @param keyExtractor a function extracting the conflation key of an item
+	 * @param <T> the sent type
+	 *
+	 * @return a new {@link ConflatingOutbound}
+	 */
+	public static <T> ConflatingOutbound<T> create(Outbound<T> outbound,
+			Function<? super T, ?> keyExtractor) {
+		return create(outbound, keyExtractor, DEFAULT_MAX_KEYS);
+	}
+
+	/**
+	 * Decorate an {@link Outbound}.
+	 *
+	 * @param outbound the decorated outbound
+	 * @param keyExtractor a function extracting the conflation key of an item
+	 * @param maxKeys the maximum number of pending keys
+	 * @param <T> the sent type
+	 *
+	 * @return a new {@link ConflatingOutbound}
+	 */
+	public static <T> ConflatingOutbound<T> create(Outbound<T> outbound,
+			Function<? super T, ?> keyExtractor,
+			int maxKeys) {
+		return new ConflatingOutbound<>(outbound, keyExtractor, maxKeys);
+	}
+
+	final Outbound<T>            source;
+	final Function<? super T, ?> keyExtractor;
+	final int                    maxKeys;
+
+	ConflatingOutbound(Outbound<T> source, Function<? super T, ?> keyExtractor, int maxKeys) {
+		if (maxKeys < 1) {
+			throw new IllegalArgumentException("maxKeys must be strictly positive, " +
+					"was: " + maxKeys);
+		}
+		this.source = Objects.requireNonNull(source, "source");
+		this.keyExtractor = Objects.requireNonNull(keyExtractor, "keyExtractor");
+		this.maxKeys = maxKeys;
+	}
+
+	@Override
+	public Object delegate() {
+		return source.delegate();
+	}
+
+	@Override
+	public Mono<Void> send(Publisher<? extends T> dataStream) {
+		return source.send(conflate(dataStream));
+	}
+
+	/**
+	 * Return the sequence that would be sent for the given sequence, conflated as it is
+	 * requested.
+	 *
+	 * @param dataStream the items to conflate
+	 *
+	 * @return a conflated {@link Publisher}
+	 */
+	public Publisher<T> conflate(Publisher<? extends T> dataStream) {
+		return s -> dataStream.subscribe(new ConflatingSubscriber<>(s, this));
+	}
+
+	static final class ConflatingSubscriber<T> implements Subscriber<T>, Subscription {
+
+		final Subscriber<? super T>    actual;
+		final Function<? super T, ?>   keyExtractor;
+		final int                      maxKeys;
+		final ConcurrentMap<Object, T> pending;
+		final Queue<Object>            keys;
+
+		Subscription s;
+
+		volatile boolean done;
+		Throwable        error;
+		volatile boolean cancelled;
+
+		volatile long requested;
+		@SuppressWarnings("rawtypes")
+		static final AtomicLongFieldUpdater<ConflatingSubscriber> REQUESTED =
+				AtomicLongFieldUpdater.newUpdater(ConflatingSubscriber.class, "requested");
+
+		volatile int wip;
+		@SuppressWarnings("rawtypes")
+		static final AtomicIntegerFieldUpdater<ConflatingSubscriber> WIP =
+				AtomicIntegerFieldUpdater.newUpdater(ConflatingSubscriber.class, "wip");
+
+		ConflatingSubscriber(Subscriber<? super T> actual, ConflatingOutbound<T> parent) {
+			this.actual = actual;
+			this.keyExtractor = parent.keyExtractor;
+			this.maxKeys = parent.maxKeys;
+			this.pending = new ConcurrentHashMap<>();
+			this.keys = QueueSupplier.unbounded()
+			                         .get();
+		}
+
+		@Override
+		public void onSubscribe(Subscription s) {
+			if (Operators.validate(this.s, s)) {
+				this.s = s;
+				actual.onSubscribe(this);
+				s.request(Long.MAX_VALUE);
+			}
+		}
+
+		@Override
+		public void onNext(T t) {
+			if (done) {
+				Operators.onNextDropped(t);
+				return;
+			}
+			Object key;
+			try {
+				key = Objects.requireNonNull(keyExtractor.apply(t), "key");
+			}
+			catch (Throwable e) {
+				s.cancel();
+				onError(Exceptions.unwrap(e));
+				return;
+			}
+			// only the drain loop removes keys concurrently, so the map cannot grow past
+			// the bound between this check and the put
+			if (!pending.containsKey(key) && pending.size() >= maxKeys) {
+				s.cancel();
+				onError(Exceptions.failWithOverflow());
+				return;
+			}
+			if (pending.put(key, t) == null) {
+				keys.offer(key);
+				drain();
+			}
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			if (done) {
+				Operators.onErrorDropped(t);
+				return;
+			}
+			error = t;
+			done = true;
+			drain();
+		}
+
+		@Override
+		public void onComplete() {
+			if (done) {
+				return;
+			}
+			done = true;
+			drain();
+		}
+
+		@Override
+		public void request(long n) {
+			if (Operators.validate(n)) {
+				Operators.getAndAddCap(REQUESTED, this, n);
+				drain();
+			}
+		}
+
+		@Override
+		public void cancel() {
+			if (!cancelled) {
+				cancelled = true;
+				s.cancel();
+				if (WIP.getAndIncrement(this) == 0) {
+					clear();
+				}
+			}
+		}
+
+		void clear() {
+			keys.clear();
+			pending.clear();
+		}
+
+		void drain() {
+			if (WIP.getAndIncrement(this) != 0) {
+				return;
+			}
+			int missed = 1;
+			for (; ; ) {
+				long r = requested;
+				long e = 0L;
+
+				for (; ; ) {
+					if (cancelled) {
+						clear();
+						return;
+					}
+					boolean d = done;
+					Throwable ex = error;
+					if (d && ex != null) {
+						cancelled = true;
+						clear();
+						actual.onError(ex);
+						return;
+					}
+					if (e == r) {
+						if (d && keys.isEmpty()) {
+							cancelled = true;
+							actual.onComplete();
+							return;
+						}
+						break;
+					}
+					Object key = keys.poll();
+					if (key == null) {
+						if (d) {
+							cancelled = true;
+							actual.onComplete();
+							return;
+						}
+						break;
+					}
+					actual.onNext(pending.remove(key));
+					e++;
+				}
+
+				if (e != 0L && r != Long.MAX_VALUE) {
+					REQUESTED.addAndGet(this, -e);
+				}
+
+				missed = WIP.addAndGet(this, -missed);
+				if (missed == 0) {
+					break;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Send file regions to {@link ByteBuffer} {@link Outbound}s without copying them to the
+ * heap, either with {@link FileChannel#transferTo} or as read-only
+ * {@link java.nio.MappedByteBuffer} chunks, mapped one at a time as requested so that
+ * demand is honoured.
+ *
+ * @since 0.6
+ */
+public final class FileRegions {
+
+	static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+	/**
+	 * Send a region of a file to the peer, listen for any error on write and close on
+	 * terminal signal (complete|error). Like {@link FileChannel#transferTo}, fewer bytes
+	 * are sent if the file ends before the region does.
+	 * <p>
+	 * A {@link ByteBufferOutbound} sends it with
+	 * {@link ByteBufferOutbound#sendFile(Path, long, long)}, any other {@link Outbound}
+	 * as mapped chunks.
+	 *
+	 * @param outbound the outbound to send the file region to
+	 * @param file the file to send
+	 * @param position the position of the first byte to send
+	 * @param count the maximum number of bytes to send
+	 *
+	 * @return A {@link Mono} to signal successful sequence write (e.g. after "flush") or
+	 * any error during write
+	 */
+	public static Mono<Void> send(Outbound<? super ByteBuffer> outbound,
+			Path file,
+			long position,
+			long count) {
+		Objects.requireNonNull(outbound, "outbound");
+		if (outbound instanceof ByteBufferOutbound) {
+			return ((ByteBufferOutbound) outbound).sendFile(file, position, count);
+		}
+		return outbound.send(chunks(file, position, count, DEFAULT_CHUNK_SIZE));
+	}
+
+	/**
+	 * Write a region of a file to a blocking channel with {@link FileChannel#transferTo},
+	 * on a {@link Schedulers#elastic()} thread. Fewer bytes are written if the file ends
+	 * before the region does.
+	 *
+	 * @param file the file to write
+	 * @param position the position of the first byte to write
+	 * @param count the maximum number of bytes to write
+	 * @param target the blocking channel to write to
+	 *
+	 * @return A {@link Mono} completing once the region is written or failing with any
+	 * error during write
+	 */
+	public static Mono<Void> transfer(Path file,
+			long position,
+			long count,
+			WritableByteChannel target) {
+		checkRegion(file, position, count);
+		Objects.requireNonNull(target, "target");
+		return Mono.fromCallable(() -> {
+			try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+				return transferTo(source, position, end(source, position, count), target);
+			}
+		})
+		           .subscribeOn(Schedulers.elastic())
+		           .then();
+	}
+
+	/**
+	 * Write the bytes of the given file from the given position to the given end,
+	 * blocking.
+	 *
+	 * @return the position after the last written byte
+	 */
+	static long transferTo(FileChannel source, long position, long end,
+			WritableByteChannel target) throws IOException {
+		while (position < end) {
+			long n = source.transferTo(position, end - position, target);
+			if (n <= 0L) {
+				break;
+			}
+			position += n;
+		}
+		return position;
+	}
+
+	/**
+	 * @return a {@link Flux} mapping one chunk per request, the file being opened on
+	 * subscribe and closed on termination or cancel
+	 */
+	static Flux<ByteBuffer> chunks(Path file, long position, long count, int chunkSize) {
+		checkRegion(file, position, count);
+		return Flux.using(() -> FileChannel.open(file, StandardOpenOption.READ),
+				channel -> read(channel, position, count, chunkSize),
+				FileRegions::close);
+	}
+
+	static Flux<ByteBuffer> read(FileChannel channel, long position, long count,
+			int chunkSize) {
+		long end;
+		try {
+			end = end(channel, position, count);
+		}
+		catch (IOException e) {
+			return Flux.error(e);
+		}
+		return Flux.generate(() -> position, (p, sink) -> {
+			if (p >= end) {
+				sink.complete();
+				return p;
+			}
+			long size = Math.min(chunkSize, end - p);
+			try {
+				sink.next(channel.map(FileChannel.MapMode.READ_ONLY, p, size));
+			}
+			catch (IOException e) {
+				sink.error(e);
+			}
+			return p + size;
+		});
+	}
+
+	static void checkRegion(Path file, long position, long count) {
+		Objects.requireNonNull(file, "file");
+		if (position < 0L) {
+			throw new IllegalArgumentException("position must be positive, was: " + position);
+		}
+		if (count < 0L) {
+			throw new IllegalArgumentException("count must be positive, was: " + count);
+		}
+	}
+
+	/**
+	 * @return the end of the given region, bounded by the end of the file
+	 */
+	static long end(FileChannel channel, long position, long count) throws IOException {
+		return Math.min(channel.size(), position + Math.min(count, Long.MAX_VALUE - position));
+	}
+
+	static void close(FileChannel channel) {
+		try {
+			channel.close();
+		}
+		catch (IOException e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	private FileRegions() {
+	}
+}
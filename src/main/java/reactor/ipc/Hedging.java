@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.core.scheduler.TimedScheduler;
+
+/**
+ * Hedges request/response exchanges against slow replicas: when no reply has arrived
+ * after a percentile of the recent reply latencies, the exchange is sent a second time,
+ * the first reply wins and the other attempt is cancelled.
+ * <p>
+ * The hedging delay is the configured percentile of the last exchange latencies,
+ * measured from the exchange start to its first reply whichever attempt sent it, so
+ * that hedged exchanges keep the tail in view. It is recomputed every few replies, and
+ * no exchange is hedged until enough replies have been observed. Hedges
+ * are paid from a budget: every exchange earns a fraction of a hedge, up to a small
+ * burst, so that hedging adds at most that fraction of extra load even when every
+ * replica is slow.
+ * <p>
+ * Attempts are resubscribed, so they must be cold; with {@link ChannelPool} each attempt
+ * selects its own channel and the outstanding first attempt steers the second away
+ * from the slow channel.
+ *
+ * @since 0.6
+ */
+public final class Hedging {
+
+	/**
+	 * Default percentile of the reply latencies after which exchanges are hedged
+	 */
+	public static final double DEFAULT_PERCENTILE = 0.95d;
+
+	/**
+	 * Default fraction of extra exchanges hedges may add
+	 */
+	public static final double DEFAULT_BUDGET = 0.1d;
+
+	static final int  WINDOW          = 256;
+	static final int  MIN_SAMPLES     = 32;
+	static final int  UPDATE_INTERVAL = 16;
+	static final long TOKEN           = 1000L;
+	static final long MAX_TOKENS      = 10 * TOKEN;
+
+	/**
+	 * Create a {@link Hedging} with the default percentile and budget.
+	 *
+	 * @return a new {@link Hedging}
+	 */
+	public static Hedging create() {
+		return create(DEFAULT_PERCENTILE, DEFAULT_BUDGET);
+	}
+
+	/**
+	 * Create a {@link Hedging}.
+	 *
+	 * @param percentile the percentile of the reply latencies after which exchanges are
+	 * hedged, e.g. 0.95
+	 * @param budget the fraction of extra exchanges hedges may add, e.g. 0.1
+	 *
+	 * @return a new {@link Hedging}
+	 */
+	public static Hedging create(double percentile, double budget) {
+		return new Hedging(percentile, budget, System::nanoTime, Schedulers.timer());
+	}
+
+	final double         percentile;
+	final long           earned;
+	final LongSupplier   clock;
+	final TimedScheduler timer;
+	final LongAdder      hedged;
+
+	/**
+	 * Last reply latencies in nanoseconds, guarded by this array
+	 */
+	final long[] samples;
+	long         sampleCount;
+
+	/**
+	 * Hedging delay in nanoseconds, {@link Long#MAX_VALUE} until enough replies
+	 */
+	volatile long delayNanos;
+
+	/**
+	 * Hedge budget in thousandths of a hedge
+	 */
+	volatile long tokens;
+	static final AtomicLongFieldUpdater<Hedging> TOKENS =
+			AtomicLongFieldUpdater.newUpdater(Hedging.class, "tokens");
+
+	Hedging(double percentile, double budget, LongSupplier clock, TimedScheduler timer) {
+		if (!(percentile > 0d && percentile < 1d)) {
+			throw new IllegalArgumentException("percentile must be between 0 and 1, " +
+					"was: " + percentile);
+		}
+		if (!(budget >= 0d && budget <= 1d)) {
+			throw new IllegalArgumentException("budget must be between 0 and 1, was: " + budget);
+		}
+		this.percentile = percentile;
+		this.earned = Math.round(budget * TOKEN);
+		this.clock = Objects.requireNonNull(clock, "clock");
+		this.timer = Objects.requireNonNull(timer, "timer");
+		this.hedged = new LongAdder();
+		this.samples = new long[WINDOW];
+		this.delayNanos = Long.MAX_VALUE;
+	}
+
+	/**
+	 * Hedge the given attempt, subscribing it a second time if it has not replied
+	 * within the hedging delay and the budget allows.
+	 *
+	 * @param attempt the cold exchange to hedge
+	 * @param <R> the reply type
+	 *
+	 * @return a {@link Mono} of the first reply
+	 */
+	public <R> Mono<R> hedge(Mono<R> attempt) {
+		Objects.requireNonNull(attempt, "attempt");
+		return Mono.defer(() -> {
+			deposit();
+			long start = clock.getAsLong();
+			long delay = delayNanos;
+			Mono<R> exchange;
+			if (delay == Long.MAX_VALUE) {
+				exchange = attempt;
+			}
+			else {
+				long delayMillis = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(delay + 999_999L));
+				Mono<R> backup = Mono.delayMillis(delayMillis, timer)
+				                     .then(() -> withdraw() ? attempt : Mono.<R>never());
+				exchange = Mono.first(attempt, backup);
+			}
+			return exchange.doOnSuccess(r -> record(clock.getAsLong() - start));
+		});
+	}
+
+	/**
+	 * Hedge an exchange over the given {@link ChannelPool}, each attempt on the channel
+	 * it selects.
+	 *
+	 * @param pool the pool to run the exchange on
+	 * @param exchange the exchange, e.g. a request and its response
+	 * @param <IN> the received type
+	 * @param <OUT> the sent type
+	 * @param <R> the reply type
+	 *
+	 * @return a {@link Mono} of the first reply
+	 */
+	public <IN, OUT, R> Mono<R> hedge(ChannelPool<IN, OUT> pool,
+			Function<? super Channel<IN, OUT>, ? extends Mono<R>> exchange) {
+		return hedge(pool.withChannel(exchange));
+	}
+
+	/**
+	 * @return the number of hedges sent
+	 */
+	public long hedged() {
+		return hedged.sum();
+	}
+
+	void record(long latency) {
+		synchronized (samples) {
+			samples[(int) (sampleCount++ & (WINDOW - 1))] = latency;
+			if (sampleCount >= MIN_SAMPLES && sampleCount % UPDATE_INTERVAL == 0) {
+				int n = (int) Math.min(sampleCount, WINDOW);
+				long[] sorted = Arrays.copyOf(samples, n);
+				Arrays.sort(sorted);
+				delayNanos = sorted[Math.max(0, (int) Math.ceil(percentile * n) - 1)];
+			}
+		}
+	}
+
+	void deposit() {
+		for (; ; ) {
+			long t = tokens;
+			if (t >= MAX_TOKENS || TOKENS.compareAndSet(this, t, Math.min(MAX_TOKENS, t + earned))) {
+				return;
+			}
+		}
+	}
+
+	boolean withdraw() {
+		for (; ; ) {
+			long t = tokens;
+			if (t < TOKEN) {
+				return false;
+			}
+			if (TOKENS.compareAndSet(this, t, t - TOKEN)) {
+				hedged.increment();
+				return true;
+			}
+		}
+	}
+}
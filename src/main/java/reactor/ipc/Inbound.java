@@ -16,10 +16,17 @@
 
 package reactor.ipc;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Function;
 
 import org.reactivestreams.Publisher;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.ParallelFlux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.concurrent.QueueSupplier;
 
 /**
  * A {@link Inbound} is a reactive gateway for incoming data flows.
@@ -50,6 +57,64 @@ public interface Inbound<IN>  {
 		return Flux.from(receive().as(decoder));
 	}
 
+	/**
+	 * Get the inbound publisher (incoming tcp traffic for instance) as batches of up to
+	 * {@code maxItems} items, an item waiting at most {@code maxWait} for its batch.
+	 * <p>
+	 * Transports should override this method so that a batch is whatever a single read
+	 * decoded, paying one signal per read instead of one per item. The default
+	 * implementation batches {@link #receive()}, never emitting an empty batch. A batch
+	 * waiting for demand keeps filling up to {@code maxItems}, after which reading stops
+	 * until the batch is requested.
+	 *
+	 * @param maxItems the maximum number of items per batch
+	 * @param maxWait the maximum time an item waits for its batch while batches are
+	 * requested, {@link Duration#ZERO} emitting as soon as no received item is pending
+	 *
+	 * @return A {@link Flux} to signal batches of reads and stop reading when un-requested.
+	 */
+	default Flux<List<IN>> receiveBatches(int maxItems, Duration maxWait) {
+		return Batcher.<IN, List<IN>>batch(receive(), maxItems, maxWait, ArrayList::new);
+	}
+
+	/**
+	 * Get the inbound publisher (incoming tcp traffic for instance) spread across
+	 * parallel rails by key hash, each rail running on its own
+	 * {@link Schedulers#parallel()} worker with its own bounded queue and demand. Items
+	 * of a given key always go to the same rail, in order.
+	 *
+	 * @param keyExtractor a function extracting the partitioning key of an item
+	 * @param rails the number of rails
+	 *
+	 * @return A {@link ParallelFlux} to signal reads and stop reading when un-requested.
+	 */
+	default ParallelFlux<IN> receivePartitioned(Function<? super IN, ?> keyExtractor,
+			int rails) {
+		return receivePartitioned(keyExtractor, rails, Schedulers.parallel());
+	}
+
+	/**
+	 * Get the inbound publisher (incoming tcp traffic for instance) spread across
+	 * parallel rails by key hash, each rail running on its own worker of the given
+	 * {@link Scheduler} with its own bounded queue and demand. Items of a given key
+	 * always go to the same rail, in order.
+	 *
+	 * @param keyExtractor a function extracting the partitioning key of an item
+	 * @param rails the number of rails
+	 * @param scheduler the {@link Scheduler} providing a worker per rail
+	 *
+	 * @return A {@link ParallelFlux} to signal reads and stop reading when un-requested.
+	 */
+	default ParallelFlux<IN> receivePartitioned(Function<? super IN, ?> keyExtractor,
+			int rails,
+			Scheduler scheduler) {
+		return new PartitionedInbound<>(receive(),
+				keyExtractor,
+				rails,
+				QueueSupplier.SMALL_BUFFER_SIZE,
+				scheduler);
+	}
+
 	/**
 	 * @return The underlying IO runtime connection reference (Netty Channel for instance)
 	 */
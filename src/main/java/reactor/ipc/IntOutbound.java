@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.time.Duration;
+import java.util.Objects;
+
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Mono;
+
+/**
+ * A {@link Outbound} specialized for int streams, each sent item being a batch of
+ * values written at once so that values are never boxed individually.
+ *
+ * @since 0.6
+ */
+@FunctionalInterface
+public interface IntOutbound extends Outbound<int[]> {
+
+	/**
+	 * Adapt a boxed {@link Outbound} into a {@link IntOutbound}, boxing every value of
+	 * the sent batches and emitting them one by one.
+	 *
+	 * @param outbound the boxed outbound
+	 *
+	 * @return a new {@link IntOutbound}
+	 */
+	static IntOutbound fromBoxed(Outbound<Integer> outbound) {
+		Objects.requireNonNull(outbound, "outbound");
+		return new IntOutbound() {
+			@Override
+			public Mono<Void> send(Publisher<? extends int[]> dataStream) {
+				return outbound.send(PrimitiveBatches.intValues(dataStream));
+			}
+
+			@Override
+			public Object delegate() {
+				return outbound.delegate();
+			}
+		};
+	}
+
+	/**
+	 * Send the given values as a single batch.
+	 *
+	 * @param values the values to write
+	 *
+	 * @return A {@link Mono} to signal successful sequence write (e.g. after "flush") or any error during write
+	 */
+	default Mono<Void> sendInts(int... values) {
+		return sendOne(values);
+	}
+
+	/**
+	 * Return a boxed {@link Outbound} view of this {@link IntOutbound}, batching values
+	 * sent within {@code maxDelay} up to {@code maxBatchSize}.
+	 *
+	 * @param maxBatchSize the maximum number of values per batch
+	 * @param maxDelay the maximum time a value waits for its batch
+	 *
+	 * @return a boxed {@link Outbound}
+	 */
+	default Outbound<Integer> boxed(int maxBatchSize, Duration maxDelay) {
+		PrimitiveBatches.checkBatchSize(maxBatchSize);
+		Objects.requireNonNull(maxDelay, "maxDelay");
+		IntOutbound self = this;
+		return new Outbound<Integer>() {
+			@Override
+			public Mono<Void> send(Publisher<? extends Integer> dataStream) {
+				return self.send(PrimitiveBatches.intBatches(dataStream, maxBatchSize, maxDelay));
+			}
+
+			@Override
+			public Object delegate() {
+				return self.delegate();
+			}
+		};
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.time.Duration;
+import java.util.Objects;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * A {@link Inbound} specialized for long streams, each received item being a batch of
+ * values as read by the transport so that values are never boxed individually.
+ *
+ * @since 0.6
+ */
+@FunctionalInterface
+public interface LongInbound extends Inbound<long[]> {
+
+	/**
+	 * Adapt a boxed {@link Inbound} into a {@link LongInbound}, batching values read
+	 * within {@code maxDelay} up to {@code maxBatchSize}.
+	 *
+	 * @param inbound the boxed inbound
+	 * @param maxBatchSize the maximum number of values per batch
+	 * @param maxDelay the maximum time a value waits for its batch
+	 *
+	 * @return a new {@link LongInbound}
+	 */
+	static LongInbound fromBoxed(Inbound<Long> inbound, int maxBatchSize, Duration maxDelay) {
+		PrimitiveBatches.checkBatchSize(maxBatchSize);
+		Objects.requireNonNull(inbound, "inbound");
+		Objects.requireNonNull(maxDelay, "maxDelay");
+		return new LongInbound() {
+			@Override
+			public Flux<long[]> receive() {
+				return PrimitiveBatches.longBatches(inbound.receive(), maxBatchSize, maxDelay);
+			}
+
+			@Override
+			public Object delegate() {
+				return inbound.delegate();
+			}
+		};
+	}
+
+	/**
+	 * Get the inbound values one by one, boxing each of them.
+	 *
+	 * @return A {@link Flux} of boxed values
+	 */
+	default Flux<Long> receiveBoxed() {
+		return PrimitiveBatches.longValues(receive());
+	}
+
+	/**
+	 * @return a boxed {@link Inbound} view of this {@link LongInbound}
+	 */
+	default Inbound<Long> boxed() {
+		LongInbound self = this;
+		return new Inbound<Long>() {
+			@Override
+			public Flux<Long> receive() {
+				return self.receiveBoxed();
+			}
+
+			@Override
+			public Object delegate() {
+				return self.delegate();
+			}
+		};
+	}
+}
@@ -0,0 +1,487 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Operators;
+import reactor.util.concurrent.QueueSupplier;
+
+/**
+ * A byte budget shared by the buffering of many {@link Inbound} and {@link Outbound},
+ * so that thousands of individually bounded channels cannot together exhaust memory.
+ * <p>
+ * A budgeted sequence prefetches into a bounded queue whose bytes are charged to the
+ * budget while queued. Its demand is derived from the budget left: below the high
+ * watermark it may request as much as the free budget allows, above it only up to its
+ * fair share, the budget divided by the number of budgeted sequences. A sequence with
+ * nothing queued nor requested may always request one item, so that none starves, and
+ * demand is estimated from the average item size, so the budget is a soft limit that
+ * concurrent sequences may overshoot by a few items each.
+ * <p>
+ * Usage is accounted with striped counters so that charging and releasing bytes
+ * never contend across channels.
+ *
+ * @since 0.6
+ */
+public final class MemoryBudget {
+
+	/**
+	 * Default fraction of the budget above which sequences are held to their fair share
+	 */
+	public static final double DEFAULT_HIGH_WATERMARK = 0.75d;
+
+	/**
+	 * Default number of items prefetched per budgeted sequence
+	 */
+	public static final int DEFAULT_PREFETCH = 32;
+
+	/**
+	 * Create a {@link MemoryBudget} with the default high watermark.
+	 *
+	 * @param capacity the budget in bytes
+	 *
+	 * @return a new {@link MemoryBudget}
+	 */
+	public static MemoryBudget create(long capacity) {
+		return create(capacity, DEFAULT_HIGH_WATERMARK);
+	}
+
+	/**
+	 * Create a {@link MemoryBudget}.
+	 *
+	 * @param capacity the budget in bytes
+	 * @param highWatermark the fraction of the budget above which sequences are held to
+	 * their fair share
+	 *
+	 * @return a new {@link MemoryBudget}
+	 */
+	public static MemoryBudget create(long capacity, double highWatermark) {
+		return new MemoryBudget(capacity, highWatermark);
+	}
+
+	/**
+	 * Return the process-wide {@link MemoryBudget}, its capacity given in bytes by the
+	 * {@code reactor.ipc.memoryBudget} system property, a quarter of the maximum heap by
+	 * default.
+	 *
+	 * @return the process-wide {@link MemoryBudget}
+	 */
+	public static MemoryBudget global() {
+		return GlobalHolder.GLOBAL;
+	}
+
+	final long      capacity;
+	final long      highWatermark;
+	final LongAdder used;
+	final LongAdder accounts;
+	final LongAdder throttled;
+
+	MemoryBudget(long capacity, double highWatermark) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be strictly positive, " +
+					"was: " + capacity);
+		}
+		if (highWatermark <= 0d || highWatermark > 1d) {
+			throw new IllegalArgumentException("highWatermark must be in (0, 1], " +
+					"was: " + highWatermark);
+		}
+		this.capacity = capacity;
+		this.highWatermark = (long) (capacity * highWatermark);
+		this.used = new LongAdder();
+		this.accounts = new LongAdder();
+		this.throttled = new LongAdder();
+	}
+
+	/**
+	 * @return the budget in bytes
+	 */
+	public long capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the bytes currently charged
+	 */
+	public long used() {
+		return used.sum();
+	}
+
+	/**
+	 * @return the number of budgeted sequences currently subscribed
+	 */
+	public long accounts() {
+		return accounts.sum();
+	}
+
+	/**
+	 * @return the number of times a sequence requested less than it could hold because
+	 * of the budget
+	 */
+	public long throttled() {
+		return throttled.sum();
+	}
+
+	/**
+	 * @return the fair share in bytes of each budgeted sequence
+	 */
+	public long fairShare() {
+		return capacity / Math.max(1L, accounts.sum());
+	}
+
+	/**
+	 * Budget the buffers received by the given {@link Inbound}.
+	 *
+	 * @param inbound the inbound to budget
+	 *
+	 * @return a budgeted {@link Inbound}
+	 */
+	public Inbound<ByteBuffer> budget(Inbound<ByteBuffer> inbound) {
+		Objects.requireNonNull(inbound, "inbound");
+		return new Inbound<ByteBuffer>() {
+			@Override
+			public Flux<ByteBuffer> receive() {
+				return budget(inbound.receive(), ByteBuffer::remaining);
+			}
+
+			@Override
+			public Object delegate() {
+				return inbound.delegate();
+			}
+		};
+	}
+
+	/**
+	 * Budget the buffers sent by the given {@link Outbound}.
+	 *
+	 * @param outbound the outbound to budget
+	 *
+	 * @return a budgeted {@link Outbound}
+	 */
+	public Outbound<ByteBuffer> budget(Outbound<ByteBuffer> outbound) {
+		Objects.requireNonNull(outbound, "outbound");
+		return new Outbound<ByteBuffer>() {
+			@Override
+			public Mono<Void> send(Publisher<? extends ByteBuffer> dataStream) {
+				return outbound.send(budget(dataStream, ByteBuffer::remaining));
+			}
+
+			@Override
+			public Object delegate() {
+				return outbound.delegate();
+			}
+		};
+	}
+
+	/**
+	 * Budget the given sequence with the default prefetch.
+	 *
+	 * @param source the sequence to budget
+	 * @param sizer the size in bytes of an item, constant while it is queued
+	 * @param <T> the item type
+	 *
+	 * @return a budgeted {@link Flux}
+	 */
+	public <T> Flux<T> budget(Publisher<? extends T> source, ToLongFunction<? super T> sizer) {
+		return budget(source, sizer, DEFAULT_PREFETCH);
+	}
+
+	/**
+	 * Budget the given sequence.
+	 *
+	 * @param source the sequence to budget
+	 * @param sizer the size in bytes of an item, constant while it is queued
+	 * @param prefetch the maximum number of items queued
+	 * @param <T> the item type
+	 *
+	 * @return a budgeted {@link Flux}
+	 */
+	public <T> Flux<T> budget(Publisher<? extends T> source,
+			ToLongFunction<? super T> sizer,
+			int prefetch) {
+		Objects.requireNonNull(source, "source");
+		Objects.requireNonNull(sizer, "sizer");
+		if (prefetch < 1) {
+			throw new IllegalArgumentException("prefetch must be strictly positive, " +
+					"was: " + prefetch);
+		}
+		return Flux.from(s -> source.subscribe(new BudgetSubscriber<>(s,
+				this,
+				sizer,
+				prefetch)));
+	}
+
+	/**
+	 * @return the bytes the given account may still charge
+	 */
+	long allowance(long accountUsed) {
+		long u = used.sum();
+		if (u < highWatermark) {
+			return capacity - u;
+		}
+		return Math.max(0L, fairShare() - accountUsed);
+	}
+
+	static final class GlobalHolder {
+
+		static final MemoryBudget GLOBAL = create(Long.getLong("reactor.ipc.memoryBudget",
+				Runtime.getRuntime()
+				       .maxMemory() / 4));
+	}
+
+	static final class BudgetSubscriber<T> implements Subscriber<T>, Subscription {
+
+		final Subscriber<? super T>     actual;
+		final MemoryBudget              budget;
+		final ToLongFunction<? super T> sizer;
+		final int                       prefetch;
+		final Queue<T>                  queue;
+
+		Subscription s;
+
+		volatile boolean done;
+		Throwable        error;
+		volatile boolean cancelled;
+
+		/**
+		 * Running average item size, 0 until the first item is received
+		 */
+		volatile long averageSize;
+
+		/**
+		 * Bytes queued and charged to the budget
+		 */
+		volatile long charged;
+		@SuppressWarnings("rawtypes")
+		static final AtomicLongFieldUpdater<BudgetSubscriber> CHARGED =
+				AtomicLongFieldUpdater.newUpdater(BudgetSubscriber.class, "charged");
+
+		/**
+		 * Items requested upstream and not yet received
+		 */
+		volatile long outstanding;
+		@SuppressWarnings("rawtypes")
+		static final AtomicLongFieldUpdater<BudgetSubscriber> OUTSTANDING =
+				AtomicLongFieldUpdater.newUpdater(BudgetSubscriber.class, "outstanding");
+
+		volatile long requested;
+		@SuppressWarnings("rawtypes")
+		static final AtomicLongFieldUpdater<BudgetSubscriber> REQUESTED =
+				AtomicLongFieldUpdater.newUpdater(BudgetSubscriber.class, "requested");
+
+		volatile int wip;
+		@SuppressWarnings("rawtypes")
+		static final AtomicIntegerFieldUpdater<BudgetSubscriber> WIP =
+				AtomicIntegerFieldUpdater.newUpdater(BudgetSubscriber.class, "wip");
+
+		BudgetSubscriber(Subscriber<? super T> actual,
+				MemoryBudget budget,
+				ToLongFunction<? super T> sizer,
+				int prefetch) {
+			this.actual = actual;
+			this.budget = budget;
+			this.sizer = sizer;
+			this.prefetch = prefetch;
+			this.queue = QueueSupplier.<T>get(prefetch).get();
+		}
+
+		@Override
+		public void onSubscribe(Subscription s) {
+			if (Operators.validate(this.s, s)) {
+				this.s = s;
+				budget.accounts.increment();
+				actual.onSubscribe(this);
+				drain();
+			}
+		}
+
+		@Override
+		public void onNext(T t) {
+			if (done) {
+				Operators.onNextDropped(t);
+				return;
+			}
+			long size = sizer.applyAsLong(t);
+			charge(size);
+			long a = averageSize;
+			averageSize = Math.max(1L, a == 0L ? size : (a * 7 + size) >> 3);
+			OUTSTANDING.decrementAndGet(this);
+			if (!queue.offer(t)) {
+				charge(-size);
+				s.cancel();
+				onError(Exceptions.failWithOverflow());
+				return;
+			}
+			drain();
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			if (done) {
+				Operators.onErrorDropped(t);
+				return;
+			}
+			error = t;
+			done = true;
+			drain();
+		}
+
+		@Override
+		public void onComplete() {
+			if (done) {
+				return;
+			}
+			done = true;
+			drain();
+		}
+
+		@Override
+		public void request(long n) {
+			if (Operators.validate(n)) {
+				Operators.getAndAddCap(REQUESTED, this, n);
+				drain();
+			}
+		}
+
+		@Override
+		public void cancel() {
+			if (!cancelled) {
+				cancelled = true;
+				s.cancel();
+				if (WIP.getAndIncrement(this) == 0) {
+					release();
+				}
+			}
+		}
+
+		void charge(long size) {
+			budget.used.add(size);
+			CHARGED.addAndGet(this, size);
+		}
+
+		/**
+		 * Discard the queue and close this account, drain only
+		 */
+		void release() {
+			queue.clear();
+			budget.used.add(-CHARGED.getAndSet(this, 0L));
+			budget.accounts.decrement();
+		}
+
+		void drain() {
+			if (WIP.getAndIncrement(this) != 0) {
+				return;
+			}
+			int missed = 1;
+			for (; ; ) {
+				long r = requested;
+				long e = 0L;
+
+				for (; ; ) {
+					if (cancelled) {
+						release();
+						return;
+					}
+					boolean d = done;
+					if (d && error != null) {
+						terminate();
+						return;
+					}
+					T t = e != r ? queue.poll() : null;
+					if (t == null) {
+						if (d && queue.isEmpty()) {
+							terminate();
+							return;
+						}
+						break;
+					}
+					charge(-sizer.applyAsLong(t));
+					actual.onNext(t);
+					e++;
+				}
+
+				if (e != 0L && r != Long.MAX_VALUE) {
+					REQUESTED.addAndGet(this, -e);
+				}
+
+				if (!done) {
+					replenish();
+				}
+
+				missed = WIP.addAndGet(this, -missed);
+				if (missed == 0) {
+					break;
+				}
+			}
+		}
+
+		/**
+		 * Request as many items as both the queue and the budget can take, drain only
+		 */
+		void replenish() {
+			long o = outstanding;
+			long room = prefetch - o - queue.size();
+			if (room <= 0L) {
+				return;
+			}
+			long c = charged;
+			long a = averageSize;
+			long n;
+			if (a == 0L) {
+				// learn the item size before requesting more than one
+				n = o == 0L ? 1L : 0L;
+			}
+			else {
+				n = Math.min(room, budget.allowance(c) / a);
+			}
+			if (n < room && a != 0L) {
+				budget.throttled.increment();
+				if (n == 0L && o == 0L && c == 0L) {
+					n = 1L;
+				}
+			}
+			if (n > 0L) {
+				OUTSTANDING.addAndGet(this, n);
+				s.request(n);
+			}
+		}
+
+		void terminate() {
+			cancelled = true;
+			Throwable e = error;
+			release();
+			if (e != null) {
+				actual.onError(e);
+			}
+			else {
+				actual.onComplete();
+			}
+		}
+	}
+}
@@ -100,6 +100,26 @@ public interface Outbound<OUT>  {
 		return send(just(dataStream));
 	}
 
+	/**
+	 * Send prioritized data streams to the peer, interleaved on this channel, listen for
+	 * any error on write and close on terminal signal (complete|error). A ready control
+	 * item is always written next, while interactive and bulk items are interleaved by
+	 * weighted round robin, so that heartbeats and control messages are never queued
+	 * behind a large bulk transfer. See {@link PriorityMerge}.
+	 *
+	 * @param control the dataStream publishing control OUT items, e.g. heartbeats
+	 * @param interactive the dataStream publishing interactive OUT items
+	 * @param bulk the dataStream publishing bulk OUT items
+	 *
+	 * @return A {@link Mono} to signal successful sequence write (e.g. after "flush") or
+	 * any error during write
+	 */
+	default Mono<Void> sendPrioritized(Publisher<? extends OUT> control,
+			Publisher<? extends OUT> interactive,
+			Publisher<? extends OUT> bulk) {
+		return send(PriorityMerge.merge(control, interactive, bulk));
+	}
+
 	/**
 	 * Send data to the peer, listen for any error on write and close on terminal signal
 	 * (complete|error).Each individual {@link Publisher} completion will flush
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Function;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Operators;
+import reactor.core.publisher.ParallelFlux;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.concurrent.QueueSupplier;
+
+/**
+ * Spread a sequence across rails by key hash, each rail draining its own bounded queue on
+ * its own {@link Scheduler.Worker} with its own demand, see
+ * {@link Inbound#receivePartitioned}.
+ * <p>
+ * Items of a given key always go to the same rail, in order. At most {@code prefetch}
+ * items are requested from the source and not yet consumed by a rail, whatever their
+ * distribution, so a stalled rail eventually stalls the source rather than buffering.
+ *
+ * @since 0.6
+ */
+final class PartitionedInbound<T> extends ParallelFlux<T> {
+
+	final Publisher<? extends T>           source;
+	final Function<? super T, ?>           keyExtractor;
+	final int                              rails;
+	final int                              prefetch;
+	final Scheduler                        scheduler;
+
+	PartitionedInbound(Publisher<? extends T> source,
+			Function<? super T, ?> keyExtractor,
+			int rails,
+			int prefetch,
+			Scheduler scheduler) {
+		if (rails < 1) {
+			throw new IllegalArgumentException("rails must be strictly positive, was: " + rails);
+		}
+		if (prefetch < 1) {
+			throw new IllegalArgumentException("prefetch must be strictly positive, " +
+					"was: " + prefetch);
+		}
+		this.source = Objects.requireNonNull(source, "source");
+		this.keyExtractor = Objects.requireNonNull(keyExtractor, "keyExtractor");
+		this.scheduler = Objects.requireNonNull(scheduler, "scheduler");
+		this.rails = rails;
+		this.prefetch = prefetch;
+	}
+
+	@Override
+	public int parallelism() {
+		return rails;
+	}
+
+	@Override
+	public boolean isOrdered() {
+		return false;
+	}
+
+	@Override
+	public long getPrefetch() {
+		return prefetch;
+	}
+
+	@Override
+	public void subscribe(Subscriber<? super T>[] subscribers) {
+		if (!validate(subscribers)) {
+			return;
+		}
+		Dispatcher<T> parent = new Dispatcher<>(subscribers, keyExtractor, prefetch, scheduler);
+		for (int i = 0; i < subscribers.length; i++) {
+			subscribers[i].onSubscribe(parent.rails[i]);
+		}
+		source.subscribe(parent);
+	}
+
+	/**
+	 * @return the rail of the given key among the given number of rails
+	 */
+	static int rail(Object key, int rails) {
+		int h = key == null ? 0 : key.hashCode();
+		h ^= h >>> 16;
+		return (h & Integer.MAX_VALUE) % rails;
+	}
+
+	static final class Dispatcher<T> implements Subscriber<T> {
+
+		final Rail<T>[]              rails;
+		final Function<? super T, ?> keyExtractor;
+		final int                    prefetch;
+		final int                    limit;
+
+		volatile Subscription s;
+		@SuppressWarnings("rawtypes")
+		static final AtomicReferenceFieldUpdater<Dispatcher, Subscription> S =
+				AtomicReferenceFieldUpdater.newUpdater(Dispatcher.class,
+						Subscription.class,
+						"s");
+
+		volatile boolean   done;
+		volatile Throwable error;
+
+		volatile int consumed;
+		@SuppressWarnings("rawtypes")
+		static final AtomicIntegerFieldUpdater<Dispatcher> CONSUMED =
+				AtomicIntegerFieldUpdater.newUpdater(Dispatcher.class, "consumed");
+
+		volatile int cancelledRails;
+		@SuppressWarnings("rawtypes")
+		static final AtomicIntegerFieldUpdater<Dispatcher> CANCELLED_RAILS =
+				AtomicIntegerFieldUpdater.newUpdater(Dispatcher.class, "cancelledRails");
+
+		@SuppressWarnings("unchecked")
+		Dispatcher(Subscriber<? super T>[] subscribers,
+				Function<? super T, ?> keyExtractor,
+				int prefetch,
+				Scheduler scheduler) {
+			this.keyExtractor = keyExtractor;
+			this.prefetch = prefetch;
+			this.limit = prefetch - (prefetch >> 2);
+			this.rails = new Rail[subscribers.length];
+			for (int i = 0; i < subscribers.length; i++) {
+				rails[i] = new Rail<>(this, subscribers[i], prefetch, scheduler.createWorker());
+			}
+		}
+
+		@Override
+		public void onSubscribe(Subscription s) {
+			if (Operators.setOnce(S, this, s)) {
+				s.request(prefetch);
+			}
+			else {
+				s.cancel();
+			}
+		}
+
+		@Override
+		public void onNext(T t) {
+			if (done) {
+				Operators.onNextDropped(t);
+				return;
+			}
+			Rail<T> rail;
+			try {
+				rail = rails[rail(keyExtractor.apply(t), rails.length)];
+			}
+			catch (Throwable e) {
+				s.cancel();
+				onError(Exceptions.unwrap(e));
+				return;
+			}
+			if (rail.cancelled) {
+				consumed(1);
+				return;
+			}
+			if (!rail.queue.offer(t)) {
+				s.cancel();
+				onError(Exceptions.failWithOverflow());
+				return;
+			}
+			rail.schedule();
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			if (done) {
+				Operators.onErrorDropped(t);
+				return;
+			}
+			error = t;
+			done = true;
+			scheduleAll();
+		}
+
+		@Override
+		public void onComplete() {
+			if (done) {
+				return;
+			}
+			done = true;
+			scheduleAll();
+		}
+
+		void scheduleAll() {
+			for (Rail<T> rail : rails) {
+				rail.schedule();
+			}
+		}
+
+		/**
+		 * Replenish the source once {@code limit} items have been consumed by any rail.
+		 */
+		void consumed(int n) {
+			for (int i = 0; i < n; i++) {
+				if (CONSUMED.incrementAndGet(this) == limit) {
+					CONSUMED.addAndGet(this, -limit);
+					s.request(limit);
+				}
+			}
+		}
+
+		void railCancelled() {
+			if (CANCELLED_RAILS.incrementAndGet(this) == rails.length) {
+				Operators.terminate(S, this);
+			}
+		}
+	}
+
+	static final class Rail<T> implements Subscription, Runnable {
+
+		final Dispatcher<T>          parent;
+		final Subscriber<? super T>  actual;
+		final Queue<T>               queue;
+		final Scheduler.Worker       worker;
+
+		volatile boolean cancelled;
+
+		volatile long requested;
+		@SuppressWarnings("rawtypes")
+		static final AtomicLongFieldUpdater<Rail> REQUESTED =
+				AtomicLongFieldUpdater.newUpdater(Rail.class, "requested");
+
+		volatile int wip;
+		@SuppressWarnings("rawtypes")
+		static final AtomicIntegerFieldUpdater<Rail> WIP =
+				AtomicIntegerFieldUpdater.newUpdater(Rail.class, "wip");
+
+		Rail(Dispatcher<T> parent,
+				Subscriber<? super T> actual,
+				int capacity,
+				Scheduler.Worker worker) {
+			this.parent = parent;
+			this.actual = actual;
+			this.queue = QueueSupplier.<T>get(capacity).get();
+			this.worker = worker;
+		}
+
+		@Override
+		public void request(long n) {
+			if (Operators.validate(n)) {
+				Operators.getAndAddCap(REQUESTED, this, n);
+				schedule();
+			}
+		}
+
+		@Override
+		public void cancel() {
+			if (!cancelled) {
+				cancelled = true;
+				parent.railCancelled();
+				schedule();
+			}
+		}
+
+		void schedule() {
+			if (WIP.getAndIncrement(this) == 0 && worker.schedule(this) == Scheduler.REJECTED) {
+				// the worker is shut down once cancelled, release what raced with it inline
+				discard();
+			}
+		}
+
+		void discard() {
+			int missed = 1;
+			for (; ; ) {
+				parent.consumed(clear());
+				missed = WIP.addAndGet(this, -missed);
+				if (missed == 0) {
+					return;
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			int missed = 1;
+			for (; ; ) {
+				long r = requested;
+				long e = 0L;
+				for (; ; ) {
+					if (cancelled) {
+						parent.consumed(clear());
+						worker.shutdown();
+						break;
+					}
+					boolean d = parent.done;
+					T t = e != r ? queue.poll() : null;
+					if (t == null) {
+						if (d && queue.isEmpty()) {
+							Throwable ex = parent.error;
+							if (ex != null) {
+								actual.onError(ex);
+							}
+							else {
+								actual.onComplete();
+							}
+							worker.shutdown();
+							return;
+						}
+						break;
+					}
+					actual.onNext(t);
+					e++;
+					parent.consumed(1);
+				}
+				if (e != 0L && r != Long.MAX_VALUE) {
+					REQUESTED.addAndGet(this, -e);
+				}
+				missed = WIP.addAndGet(this, -missed);
+				if (missed == 0) {
+					return;
+				}
+			}
+		}
+
+		int clear() {
+			int n = 0;
+			while (queue.poll() != null) {
+				n++;
+			}
+			return n;
+		}
+	}
+}
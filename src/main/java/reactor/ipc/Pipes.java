@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Forward everything received by an {@link Inbound} to an {@link Outbound}, e.g. in a
+ * proxy.
+ * <p>
+ * Received items are handed over to {@link Outbound#send(Publisher)} as is, without
+ * copying, so their ownership moves to the outbound transport. Items are sent in
+ * successive flush windows, each one completing, and thus flushing, after
+ * {@code maxFlushSize} items or {@code maxFlushDelay} after its first item. Windows are
+ * batched on demand only, the next window being sent once the previous send completes,
+ * so that upstream demand stays bounded by a few windows and backpressure holds end to
+ * end. An outbound cancelling a window fails the pipe.
+ * <p>
+ * When the inbound {@link Inbound#delegate()} is a {@link FileChannel} and the outbound
+ * one a blocking {@link WritableByteChannel}, or the outbound delegate a
+ * {@link FileChannel} and the inbound one a blocking {@link ReadableByteChannel}, bytes
+ * are moved with {@link FileChannel#transferTo} or {@link FileChannel#transferFrom}
+ * instead, bypassing {@link Inbound#receive()} altogether, on a
+ * {@link Schedulers#elastic()} thread.
+ *
+ * @since 0.6
+ */
+public final class Pipes {
+
+	/**
+	 * Default maximum number of items sent between flushes
+	 */
+	public static final int DEFAULT_MAX_FLUSH_SIZE = 32;
+
+	/**
+	 * Default maximum delay between the first item of a flush window and its flush
+	 */
+	public static final Duration DEFAULT_MAX_FLUSH_DELAY = Duration.ofMillis(1);
+
+	static final long TRANSFER_CHUNK = 8L * 1024 * 1024;
+
+	/**
+	 * Forward the given inbound to the given outbound with the default flush batching.
+	 *
+	 * @param inbound the source
+	 * @param outbound the target
+	 * @param <T> the forwarded type
+	 *
+	 * @return a {@link Mono} completing when the inbound completes and every item has
+	 * been sent, forwarding any error
+	 */
+	public static <T> Mono<Void> pipe(Inbound<T> inbound, Outbound<T> outbound) {
+		return pipe(inbound, outbound, DEFAULT_MAX_FLUSH_SIZE, DEFAULT_MAX_FLUSH_DELAY);
+	}
+
+	/**
+	 * Forward the given inbound to the given outbound.
+	 *
+	 * @param inbound the source
+	 * @param outbound the target
+	 * @param maxFlushSize the maximum number of items sent between flushes
+	 * @param maxFlushDelay the maximum delay between the first item of a flush window and
+	 * its flush, {@link Duration#ZERO} flushing as soon as no received item is pending
+	 * @param <T> the forwarded type
+	 *
+	 * @return a {@link Mono} completing when the inbound completes and every item has
+	 * been sent, forwarding any error
+	 */
+	public static <T> Mono<Void> pipe(Inbound<T> inbound,
+			Outbound<T> outbound,
+			int maxFlushSize,
+			Duration maxFlushDelay) {
+		Objects.requireNonNull(inbound, "inbound");
+		Objects.requireNonNull(outbound, "outbound");
+		if (maxFlushSize < 1) {
+			throw new IllegalArgumentException("maxFlushSize must be strictly positive, " +
+					"was: " + maxFlushSize);
+		}
+		if (maxFlushDelay.isNegative()) {
+			throw new IllegalArgumentException("maxFlushDelay must be positive, was: " +
+					maxFlushDelay);
+		}
+
+		Object source = inbound.delegate();
+		Object target = outbound.delegate();
+		if (source instanceof FileChannel && target instanceof WritableByteChannel &&
+				isBlocking(target)) {
+			return transferTo((FileChannel) source, (WritableByteChannel) target);
+		}
+		if (target instanceof FileChannel && source instanceof ReadableByteChannel &&
+				isBlocking(source)) {
+			return transferFrom((ReadableByteChannel) source, (FileChannel) target);
+		}
+
+		return Batcher.<T, List<T>>batch(inbound.receive(),
+				maxFlushSize,
+				maxFlushDelay,
+				ArrayList::new)
+				.concatMap(window -> sendWindow(outbound, window), 1)
+				.then();
+	}
+
+	/**
+	 * @return a {@link Mono} sending the given window, failing if the outbound cancels
+	 * it
+	 */
+	static <T> Mono<Void> sendWindow(Outbound<T> outbound, List<T> window) {
+		AtomicBoolean cancelled = new AtomicBoolean();
+		return outbound.send(Flux.fromIterable(window)
+		                         .doOnCancel(() -> cancelled.set(true)))
+		               .then(() -> cancelled.get() ?
+				               Mono.error(new CancellationException("Outbound cancelled the pipe")) :
+				               Mono.empty());
+	}
+
+	static boolean isBlocking(Object channel) {
+		return !(channel instanceof SelectableChannel) ||
+				((SelectableChannel) channel).isBlocking();
+	}
+
+	static Mono<Void> transferTo(FileChannel source, WritableByteChannel target) {
+		return Mono.fromCallable(() -> {
+			long position = FileRegions.transferTo(source,
+					source.position(),
+					source.size(),
+					target);
+			source.position(position);
+			return position;
+		})
+		           .subscribeOn(Schedulers.elastic())
+		           .then();
+	}
+
+	static Mono<Void> transferFrom(ReadableByteChannel source, FileChannel target) {
+		return Mono.fromCallable(() -> {
+			long position = target.position();
+			for (; ; ) {
+				long n = target.transferFrom(source, position, TRANSFER_CHUNK);
+				if (n <= 0L) {
+					break;
+				}
+				position += n;
+			}
+			target.position(position);
+			return position;
+		})
+		           .subscribeOn(Schedulers.elastic())
+		           .then();
+	}
+
+	private Pipes() {
+	}
+}
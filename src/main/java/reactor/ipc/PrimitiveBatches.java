@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.time.Duration;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+
+/**
+ * Conversions between boxed sequences and primitive array batches used by
+ * {@link LongInbound}, {@link LongOutbound}, {@link IntInbound} and {@link IntOutbound}.
+ */
+final class PrimitiveBatches {
+
+	static Flux<long[]> longBatches(Publisher<? extends Long> values, int maxBatchSize, Duration maxDelay) {
+		checkBatchSize(maxBatchSize);
+		return Batcher.batch(values, maxBatchSize, maxDelay, () -> new LongBatch(maxBatchSize))
+		              .map(LongBatch::toLongArray);
+	}
+
+	static Flux<Long> longValues(Publisher<? extends long[]> batches) {
+		return Flux.<long[]>from(batches)
+		           .concatMap(b -> Flux.range(0, b.length)
+		                               .map(i -> b[i]));
+	}
+
+	static Flux<int[]> intBatches(Publisher<? extends Integer> values, int maxBatchSize, Duration maxDelay) {
+		checkBatchSize(maxBatchSize);
+		return Batcher.batch(values, maxBatchSize, maxDelay, () -> new IntBatch(maxBatchSize))
+		              .map(IntBatch::toIntArray);
+	}
+
+	static Flux<Integer> intValues(Publisher<? extends int[]> batches) {
+		return Flux.<int[]>from(batches)
+		           .concatMap(b -> Flux.range(0, b.length)
+		                               .map(i -> b[i]));
+	}
+
+	static void checkBatchSize(int maxBatchSize) {
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("maxBatchSize must be strictly positive, " +
+					"was: " + maxBatchSize);
+		}
+	}
+
+	/**
+	 * An add-only collection unboxing {@link Long} into a primitive array
+	 */
+	static final class LongBatch extends AbstractCollection<Long> {
+
+		final long[] values;
+		int size;
+
+		LongBatch(int capacity) {
+			this.values = new long[capacity];
+		}
+
+		@Override
+		public boolean add(Long value) {
+			values[size++] = value;
+			return true;
+		}
+
+		@Override
+		public Iterator<Long> iterator() {
+			return Arrays.stream(values, 0, size)
+			             .iterator();
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		long[] toLongArray() {
+			return size == values.length ? values : Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * An add-only collection unboxing {@link Integer} into a primitive array
+	 */
+	static final class IntBatch extends AbstractCollection<Integer> {
+
+		final int[] values;
+		int size;
+
+		IntBatch(int capacity) {
+			this.values = new int[capacity];
+		}
+
+		@Override
+		public boolean add(Integer value) {
+			values[size++] = value;
+			return true;
+		}
+
+		@Override
+		public Iterator<Integer> iterator() {
+			return Arrays.stream(values, 0, size)
+			             .iterator();
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		int[] toIntArray() {
+			return size == values.length ? values : Arrays.copyOf(values, size);
+		}
+	}
+
+	private PrimitiveBatches() {
+	}
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Operators;
+import reactor.util.concurrent.QueueSupplier;
+
+/**
+ * Merge several prioritized sources into one sequence to send on a single channel, see
+ * {@link Outbound#sendPrioritized}.
+ * <p>
+ * The control source strictly preempts the others: whenever one of its items is ready,
+ * it is emitted next. The other sources are interleaved by weighted round robin, a source
+ * emitting up to its weight in a row before yielding to the next source with a ready
+ * item, so that a bulk transfer never delays an interactive item by more than its weight.
+ * Each source is prefetched with a small bounded queue, keeping backpressure per source.
+ * <p>
+ * The merged sequence completes when every source completes, and fails as soon as one
+ * source fails, cancelling the others.
+ *
+ * @since 0.6
+ */
+public final class PriorityMerge {
+
+	/**
+	 * Default number of items prefetched per source
+	 */
+	public static final int DEFAULT_PREFETCH = 32;
+
+	/**
+	 * Default weight of the interactive source against the bulk source
+	 */
+	public static final int DEFAULT_INTERACTIVE_WEIGHT = 4;
+
+	/**
+	 * Merge a control, an interactive and a bulk source, the interactive one with
+	 * {@link #DEFAULT_INTERACTIVE_WEIGHT} and the bulk one with a weight of 1.
+	 *
+	 * @param control the strictly preempting source
+	 * @param interactive the interactive source
+	 * @param bulk the bulk source
+	 * @param <T> the merged type
+	 *
+	 * @return the merged sequence
+	 */
+	public static <T> Flux<T> merge(Publisher<? extends T> control,
+			Publisher<? extends T> interactive,
+			Publisher<? extends T> bulk) {
+		return merge(control,
+				new int[]{DEFAULT_INTERACTIVE_WEIGHT, 1},
+				DEFAULT_PREFETCH,
+				interactive,
+				bulk);
+	}
+
+	/**
+	 * Merge a control source with weighted sources.
+	 *
+	 * @param control the strictly preempting source
+	 * @param weights the weight of each source, i.e. how many items it may emit in a row
+	 * @param prefetch the number of items prefetched per source
+	 * @param sources the weighted sources, from the highest priority
+	 * @param <T> the merged type
+	 *
+	 * @return the merged sequence
+	 */
+	@SafeVarargs
+	public static <T> Flux<T> merge(Publisher<? extends T> control,
+			int[] weights,
+			int prefetch,
+			Publisher<? extends T>... sources) {
+		Objects.requireNonNull(control, "control");
+		if (weights.length != sources.length) {
+			throw new IllegalArgumentException("Expected " + sources.length + " weights, " +
+					"was: " + weights.length);
+		}
+		for (int w : weights) {
+			if (w < 1) {
+				throw new IllegalArgumentException("weight must be strictly positive, " +
+						"was: " + w);
+			}
+		}
+		if (prefetch < 1) {
+			throw new IllegalArgumentException("prefetch must be strictly positive, " +
+					"was: " + prefetch);
+		}
+		Publisher<? extends T>[] all = newArray(sources.length + 1);
+		all[0] = control;
+		for (int i = 0; i < sources.length; i++) {
+			all[i + 1] = Objects.requireNonNull(sources[i], "source");
+		}
+		int[] allWeights = new int[weights.length + 1];
+		System.arraycopy(weights, 0, allWeights, 1, weights.length);
+		return Flux.from(s -> {
+			MergeSubscription<T> parent = new MergeSubscription<>(s, allWeights, prefetch);
+			s.onSubscribe(parent);
+			parent.subscribe(all);
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	static <T> Publisher<? extends T>[] newArray(int n) {
+		return new Publisher[n];
+	}
+
+	static final class MergeSubscription<T> implements Subscription {
+
+		final Subscriber<? super T> actual;
+		final Inner<T>[]            inners;
+
+		/**
+		 * Weighted round robin state, drain only
+		 */
+		int cursor = 1;
+		int credit;
+
+		volatile boolean cancelled;
+
+		volatile Throwable error;
+		@SuppressWarnings("rawtypes")
+		static final AtomicReferenceFieldUpdater<MergeSubscription, Throwable> ERROR =
+				AtomicReferenceFieldUpdater.newUpdater(MergeSubscription.class,
+						Throwable.class,
+						"error");
+
+		volatile long requested;
+		@SuppressWarnings("rawtypes")
+		static final AtomicLongFieldUpdater<MergeSubscription> REQUESTED =
+				AtomicLongFieldUpdater.newUpdater(MergeSubscription.class, "requested");
+
+		volatile int wip;
+		@SuppressWarnings("rawtypes")
+		static final AtomicIntegerFieldUpdater<MergeSubscription> WIP =
+				AtomicIntegerFieldUpdater.newUpdater(MergeSubscription.class, "wip");
+
+		@SuppressWarnings("unchecked")
+		MergeSubscription(Subscriber<? super T> actual, int[] weights, int prefetch) {
+			this.actual = actual;
+			this.inners = new Inner[weights.length];
+			for (int i = 0; i < weights.length; i++) {
+				inners[i] = new Inner<>(this, weights[i], prefetch);
+			}
+			this.credit = inners.length > 1 ? weights[1] : 0;
+		}
+
+		void subscribe(Publisher<? extends T>[] sources) {
+			for (int i = 0; i < sources.length && !cancelled && error == null; i++) {
+				sources[i].subscribe(inners[i]);
+			}
+		}
+
+		@Override
+		public void request(long n) {
+			if (Operators.validate(n)) {
+				Operators.getAndAddCap(REQUESTED, this, n);
+				drain();
+			}
+		}
+
+		@Override
+		public void cancel() {
+			if (!cancelled) {
+				cancelled = true;
+				cancelAll();
+				if (WIP.getAndIncrement(this) == 0) {
+					clearAll();
+				}
+			}
+		}
+
+		void cancelAll() {
+			for (Inner<T> inner : inners) {
+				inner.cancel();
+			}
+		}
+
+		void clearAll() {
+			for (Inner<T> inner : inners) {
+				inner.queue.clear();
+			}
+		}
+
+		void onError(Throwable t) {
+			if (ERROR.compareAndSet(this, null, t)) {
+				cancelAll();
+				drain();
+			}
+			else {
+				Operators.onErrorDropped(t);
+			}
+		}
+
+		/**
+		 * @return the next ready item by priority, or null if none
+		 */
+		T poll() {
+			T t = inners[0].poll();
+			if (t != null) {
+				return t;
+			}
+			int n = inners.length;
+			for (int i = 1; i < n; i++) {
+				Inner<T> inner = inners[cursor];
+				if (credit > 0) {
+					t = inner.poll();
+					if (t != null) {
+						credit--;
+						return t;
+					}
+				}
+				cursor = cursor + 1 == n ? 1 : cursor + 1;
+				credit = inners[cursor].weight;
+			}
+			if (n > 1) {
+				t = inners[cursor].poll();
+				if (t != null) {
+					credit--;
+				}
+			}
+			return t;
+		}
+
+		boolean isTerminated() {
+			for (Inner<T> inner : inners) {
+				if (!inner.done || !inner.queue.isEmpty()) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		void drain() {
+			if (WIP.getAndIncrement(this) != 0) {
+				return;
+			}
+			int missed = 1;
+			for (; ; ) {
+				long r = requested;
+				long e = 0L;
+				for (; ; ) {
+					if (cancelled) {
+						clearAll();
+						return;
+					}
+					Throwable ex = error;
+					if (ex != null) {
+						clearAll();
+						actual.onError(ex);
+						return;
+					}
+					if (e == r) {
+						if (isTerminated()) {
+							actual.onComplete();
+							return;
+						}
+						break;
+					}
+					T t = poll();
+					if (t == null) {
+						if (isTerminated()) {
+							actual.onComplete();
+							return;
+						}
+						break;
+					}
+					actual.onNext(t);
+					e++;
+				}
+				if (e != 0L && r != Long.MAX_VALUE) {
+					REQUESTED.addAndGet(this, -e);
+				}
+				missed = WIP.addAndGet(this, -missed);
+				if (missed == 0) {
+					return;
+				}
+			}
+		}
+	}
+
+	static final class Inner<T> implements Subscriber<T> {
+
+		final MergeSubscription<T> parent;
+		final int                  weight;
+		final int                  prefetch;
+		final int                  limit;
+		final Queue<T>             queue;
+
+		volatile Subscription s;
+		@SuppressWarnings("rawtypes")
+		static final AtomicReferenceFieldUpdater<Inner, Subscription> S =
+				AtomicReferenceFieldUpdater.newUpdater(Inner.class, Subscription.class, "s");
+
+		volatile boolean done;
+
+		/**
+		 * Items polled since the last request, drain only
+		 */
+		int consumed;
+
+		Inner(MergeSubscription<T> parent, int weight, int prefetch) {
+			this.parent = parent;
+			this.weight = weight;
+			this.prefetch = prefetch;
+			this.limit = prefetch - (prefetch >> 2);
+			this.queue = QueueSupplier.<T>get(prefetch).get();
+		}
+
+		@Override
+		public void onSubscribe(Subscription s) {
+			if (Operators.setOnce(S, this, s)) {
+				s.request(prefetch);
+			}
+			else {
+				s.cancel();
+			}
+		}
+
+		@Override
+		public void onNext(T t) {
+			if (!queue.offer(t)) {
+				onError(Exceptions.failWithOverflow());
+				return;
+			}
+			parent.drain();
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			done = true;
+			parent.onError(t);
+		}
+
+		@Override
+		public void onComplete() {
+			done = true;
+			parent.drain();
+		}
+
+		T poll() {
+			T t = queue.poll();
+			if (t != null && ++consumed == limit) {
+				consumed = 0;
+				s.request(limit);
+			}
+			return t;
+		}
+
+		void cancel() {
+			Operators.terminate(S, this);
+		}
+	}
+
+	private PriorityMerge() {
+	}
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.Cancellation;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Schedulers;
+import reactor.core.scheduler.TimedScheduler;
+
+/**
+ * A lock-free token bucket limiting the rate of {@link Outbound} and {@link Inbound}
+ * sequences, in items or in bytes per second.
+ * <p>
+ * The whole bucket is a single atomic long, the theoretical time at which it would be
+ * full again, so that acquiring permits is a single compare-and-set and a
+ * {@link RateLimiter} can be shared to cap a group of channels together.
+ * <p>
+ * Limited sequences never sleep nor schedule per item: items are requested upstream
+ * only as permits are granted, and a single timer is armed when the bucket runs dry.
+ * When limiting bytes, the size of a buffer is only known once received, so buffers are
+ * requested one at a time while the bucket is not empty and their size is debited on
+ * arrival, possibly overdrawing the bucket.
+ *
+ * @since 0.6
+ */
+public final class RateLimiter {
+
+	/**
+	 * Create a {@link RateLimiter}, its bucket initially full.
+	 *
+	 * @param permitsPerSecond the sustained rate, in items or bytes per second
+	 * @param burst the capacity of the bucket, i.e. the permits grantable at once
+	 *
+	 * @return a new {@link RateLimiter}
+	 */
+	public static RateLimiter create(long permitsPerSecond, long burst) {
+		return new RateLimiter(permitsPerSecond, burst, System::nanoTime, Schedulers.timer());
+	}
+
+	final double         nanosPerPermit;
+	final long           burstNanos;
+	final long           refill;
+	final LongSupplier   clock;
+	final TimedScheduler timer;
+
+	/**
+	 * Theoretical time at which the bucket is full again, in {@link #clock} nanoseconds
+	 */
+	volatile long full;
+	static final AtomicLongFieldUpdater<RateLimiter> FULL =
+			AtomicLongFieldUpdater.newUpdater(RateLimiter.class, "full");
+
+	RateLimiter(long permitsPerSecond, long burst, LongSupplier clock, TimedScheduler timer) {
+		if (permitsPerSecond < 1) {
+			throw new IllegalArgumentException("permitsPerSecond must be strictly " +
+					"positive, was: " + permitsPerSecond);
+		}
+		if (burst < 1) {
+			throw new IllegalArgumentException("burst must be strictly positive, was: " + burst);
+		}
+		this.nanosPerPermit = (double) TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+		this.burstNanos = (long) Math.ceil(burst * nanosPerPermit);
+		this.refill = Math.max(1L, burst / 4);
+		this.clock = Objects.requireNonNull(clock, "clock");
+		this.timer = Objects.requireNonNull(timer, "timer");
+		this.full = clock.getAsLong();
+	}
+
+	/**
+	 * @return the number of permits currently available
+	 */
+	public long available() {
+		long now = clock.getAsLong();
+		return permits(now + burstNanos - Math.max(full, now));
+	}
+
+	/**
+	 * Acquire up to {@code n} permits without waiting.
+	 *
+	 * @param n the maximum number of permits to acquire
+	 *
+	 * @return the number of permits acquired, possibly 0
+	 */
+	public long tryAcquire(long n) {
+		for (; ; ) {
+			long now = clock.getAsLong();
+			long f = full;
+			long base = Math.max(f, now);
+			long granted = Math.min(n, permits(now + burstNanos - base));
+			if (granted <= 0L) {
+				return 0L;
+			}
+			if (FULL.compareAndSet(this, f, base + nanos(granted))) {
+				return granted;
+			}
+		}
+	}
+
+	/**
+	 * Acquire {@code n} permits unconditionally, possibly overdrawing the bucket, e.g.
+	 * for a buffer already received.
+	 *
+	 * @param n the number of permits to acquire
+	 */
+	public void acquire(long n) {
+		for (; ; ) {
+			long now = clock.getAsLong();
+			long f = full;
+			if (FULL.compareAndSet(this, f, Math.max(f, now) + nanos(n))) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Limit the items sent by the given {@link Outbound}.
+	 *
+	 * @param outbound the outbound to limit
+	 * @param <T> the sent type
+	 *
+	 * @return a limited {@link Outbound}
+	 */
+	public <T> Outbound<T> limitOutbound(Outbound<T> outbound) {
+		return limitOutbound(outbound, null);
+	}
+
+	/**
+	 * Limit the bytes sent by the given {@link Outbound}.
+	 *
+	 * @param outbound the outbound to limit
+	 *
+	 * @return a limited {@link Outbound}
+	 */
+	public Outbound<ByteBuffer> limitOutboundBytes(Outbound<ByteBuffer> outbound) {
+		return limitOutbound(outbound, ByteBuffer::remaining);
+	}
+
+	/**
+	 * Limit the items received by the given {@link Inbound}.
+	 *
+	 * @param inbound the inbound to limit
+	 * @param <T> the received type
+	 *
+	 * @return a limited {@link Inbound}
+	 */
+	public <T> Inbound<T> limitInbound(Inbound<T> inbound) {
+		return limitInbound(inbound, null);
+	}
+
+	/**
+	 * Limit the bytes received by the given {@link Inbound}.
+	 *
+	 * @param inbound the inbound to limit
+	 *
+	 * @return a limited {@link Inbound}
+	 */
+	public Inbound<ByteBuffer> limitInboundBytes(Inbound<ByteBuffer> inbound) {
+		return limitInbound(inbound, ByteBuffer::remaining);
+	}
+
+	/**
+	 * Limit the given sequence, each item acquiring one permit.
+	 *
+	 * @param source the sequence to limit
+	 * @param <T> the item type
+	 *
+	 * @return a limited {@link Flux}
+	 */
+	public <T> Flux<T> limit(Publisher<? extends T> source) {
+		return limit(source, null);
+	}
+
+	/**
+	 * Limit the given sequence, each item acquiring the number of permits given by the
+	 * weigher once received.
+	 *
+	 * @param source the sequence to limit
+	 * @param weigher the number of permits of an item, null for one per item requested
+	 * in advance
+	 * @param <T> the item type
+	 *
+	 * @return a limited {@link Flux}
+	 */
+	public <T> Flux<T> limit(Publisher<? extends T> source,
+			ToLongFunction<? super T> weigher) {
+		Objects.requireNonNull(source, "source");
+		return Flux.from(s -> source.subscribe(new LimitSubscriber<>(s, this, weigher)));
+	}
+
+	<T> Outbound<T> limitOutbound(Outbound<T> outbound, ToLongFunction<? super T> weigher) {
+		Objects.requireNonNull(outbound, "outbound");
+		return new Outbound<T>() {
+			@Override
+			public Mono<Void> send(Publisher<? extends T> dataStream) {
+				return outbound.send(limit(dataStream, weigher));
+			}
+
+			@Override
+			public Object delegate() {
+				return outbound.delegate();
+			}
+		};
+	}
+
+	<T> Inbound<T> limitInbound(Inbound<T> inbound, ToLongFunction<? super T> weigher) {
+		Objects.requireNonNull(inbound, "inbound");
+		return new Inbound<T>() {
+			@Override
+			public Flux<T> receive() {
+				return limit(inbound.receive(), weigher);
+			}
+
+			@Override
+			public Object delegate() {
+				return inbound.delegate();
+			}
+		};
+	}
+
+	/**
+	 * @return the nanoseconds until the given number of permits is available
+	 */
+	long nanosUntil(long n) {
+		long now = clock.getAsLong();
+		return Math.max(0L, Math.max(full, now) + nanos(n) - burstNanos - now);
+	}
+
+	long permits(long nanos) {
+		return nanos <= 0L ? 0L : (long) (nanos / nanosPerPermit);
+	}
+
+	long nanos(long permits) {
+		return (long) Math.ceil(permits * nanosPerPermit);
+	}
+
+	static final class LimitSubscriber<T> implements Subscriber<T>, Subscription, Runnable {
+
+		final Subscriber<? super T>     actual;
+		final RateLimiter               limiter;
+		final ToLongFunction<? super T> weigher;
+
+		Subscription s;
+
+		volatile boolean cancelled;
+
+		volatile Cancellation retry;
+
+		/**
+		 * Items requested downstream and not yet received
+		 */
+		volatile long requested;
+		@SuppressWarnings("rawtypes")
+		static final AtomicLongFieldUpdater<LimitSubscriber> REQUESTED =
+				AtomicLongFieldUpdater.newUpdater(LimitSubscriber.class, "requested");
+
+		/**
+		 * Items requested upstream and not yet received
+		 */
+		volatile long outstanding;
+		@SuppressWarnings("rawtypes")
+		static final AtomicLongFieldUpdater<LimitSubscriber> OUTSTANDING =
+				AtomicLongFieldUpdater.newUpdater(LimitSubscriber.class, "outstanding");
+
+		volatile int wip;
+		@SuppressWarnings("rawtypes")
+		static final AtomicIntegerFieldUpdater<LimitSubscriber> WIP =
+				AtomicIntegerFieldUpdater.newUpdater(LimitSubscriber.class, "wip");
+
+		volatile int retryPending;
+		@SuppressWarnings("rawtypes")
+		static final AtomicIntegerFieldUpdater<LimitSubscriber> RETRY_PENDING =
+				AtomicIntegerFieldUpdater.newUpdater(LimitSubscriber.class, "retryPending");
+
+		LimitSubscriber(Subscriber<? super T> actual,
+				RateLimiter limiter,
+				ToLongFunction<? super T> weigher) {
+			this.actual = actual;
+			this.limiter = limiter;
+			this.weigher = weigher;
+		}
+
+		@Override
+		public void onSubscribe(Subscription s) {
+			if (Operators.validate(this.s, s)) {
+				this.s = s;
+				actual.onSubscribe(this);
+				drain();
+			}
+		}
+
+		@Override
+		public void onNext(T t) {
+			if (weigher != null) {
+				limiter.acquire(weigher.applyAsLong(t));
+			}
+			if (requested != Long.MAX_VALUE) {
+				REQUESTED.decrementAndGet(this);
+			}
+			OUTSTANDING.decrementAndGet(this);
+			actual.onNext(t);
+			drain();
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			disposeRetry();
+			actual.onError(t);
+		}
+
+		@Override
+		public void onComplete() {
+			disposeRetry();
+			actual.onComplete();
+		}
+
+		@Override
+		public void request(long n) {
+			if (Operators.validate(n)) {
+				Operators.getAndAddCap(REQUESTED, this, n);
+				drain();
+			}
+		}
+
+		@Override
+		public void cancel() {
+			if (!cancelled) {
+				cancelled = true;
+				s.cancel();
+				disposeRetry();
+			}
+		}
+
+		/**
+		 * Timer armed when the bucket ran dry
+		 */
+		@Override
+		public void run() {
+			retryPending = 0;
+			drain();
+		}
+
+		void drain() {
+			if (WIP.getAndIncrement(this) != 0) {
+				return;
+			}
+			int missed = 1;
+			for (; ; ) {
+				if (cancelled) {
+					return;
+				}
+				long o = outstanding;
+				long need = weigher == null ? requested - o : (o == 0L ? Math.min(1L,
+						requested) : 0L);
+				if (need > 0L) {
+					long granted = weigher == null ? limiter.tryAcquire(need) :
+							(limiter.available() > 0L ? 1L : 0L);
+					if (granted != 0L) {
+						OUTSTANDING.addAndGet(this, granted);
+						s.request(granted);
+					}
+					if (granted == 0L && o == 0L) {
+						scheduleRetry(weigher == null ? Math.min(need, limiter.refill) : 1L);
+					}
+				}
+
+				missed = WIP.addAndGet(this, -missed);
+				if (missed == 0) {
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Arm a single timer for when the given number of permits is available, nothing
+		 * being outstanding to trigger a drain on arrival
+		 */
+		void scheduleRetry(long permits) {
+			if (RETRY_PENDING.compareAndSet(this, 0, 1)) {
+				retry = limiter.timer.schedule(this,
+						Math.max(1L, limiter.nanosUntil(permits)),
+						TimeUnit.NANOSECONDS);
+			}
+		}
+
+		void disposeRetry() {
+			Cancellation c = retry;
+			if (c != null) {
+				c.dispose();
+			}
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A bounded off-heap ring of sequence-numbered records used by
+ * {@link ResumableSession}. Not thread-safe.
+ * <p>
+ * Records are stored contiguously as their int length followed by their bytes, their
+ * sequence being implied by their order. A record that would cross the end of the ring
+ * is written at its start instead, the skipped tail being marked with a negative length
+ * when there is room for one.
+ */
+final class ReplayRing {
+
+	static final int PADDING = -1;
+
+	final ByteBuffer buffer;
+	final int        capacity;
+
+	/**
+	 * Sequence of the oldest retained record
+	 */
+	long firstSeq = 1L;
+	/**
+	 * Sequence of the next offered record
+	 */
+	long nextSeq  = 1L;
+
+	/**
+	 * Sequence of the record written at the start of an empty ring instead of after the
+	 * previous record
+	 */
+	long resetSeq;
+
+	int head;
+	int tail;
+	int used;
+
+	ReplayRing(int capacity) {
+		if (capacity < 2 * Integer.BYTES) {
+			throw new IllegalArgumentException("capacity too small: " + capacity);
+		}
+		this.capacity = capacity;
+		this.buffer = ByteBuffer.allocateDirect(capacity);
+	}
+
+	/**
+	 * Store a copy of the remaining bytes of the given buffer with the next sequence.
+	 *
+	 * @return false if not enough space is released yet
+	 * @throws IllegalArgumentException if the record can never fit
+	 */
+	boolean offer(ByteBuffer record) {
+		int length = record.remaining();
+		int size = Integer.BYTES + length;
+		if (size > capacity) {
+			throw new IllegalArgumentException("Record of " + length + " bytes larger than " +
+					"the replay capacity");
+		}
+		if (used == 0 && tail != 0) {
+			resetSeq = nextSeq;
+			head = tail = 0;
+		}
+		int waste = tail + size > capacity ? capacity - tail : 0;
+		if (used + waste + size > capacity) {
+			return false;
+		}
+		if (waste != 0) {
+			if (waste >= Integer.BYTES) {
+				buffer.putInt(tail, PADDING);
+			}
+			tail = 0;
+			used += waste;
+		}
+		ByteBuffer b = buffer.duplicate();
+		b.position(tail + Integer.BYTES);
+		b.put(record.duplicate());
+		buffer.putInt(tail, length);
+		tail = wrap(tail + size);
+		used += size;
+		nextSeq++;
+		return true;
+	}
+
+	/**
+	 * Release every record up to the given sequence included.
+	 */
+	void release(long seq) {
+		while (firstSeq <= seq && firstSeq < nextSeq) {
+			int offset = resolve(firstSeq, head);
+			used -= offset == head ? 0 : capacity - head;
+			int size = Integer.BYTES + buffer.getInt(offset);
+			head = wrap(offset + size);
+			used -= size;
+			firstSeq++;
+		}
+	}
+
+	/**
+	 * @return the offset of the given retained sequence
+	 */
+	int offsetOf(long seq) {
+		if (seq < firstSeq || seq > nextSeq) {
+			throw new IllegalStateException("Sequence " + seq + " not retained, " +
+					"available from " + firstSeq + " to " + (nextSeq - 1));
+		}
+		int offset = head;
+		for (long s = firstSeq; s < seq; s++) {
+			offset = next(s, offset);
+		}
+		return offset;
+	}
+
+	/**
+	 * @return the offset of the record following the given one
+	 */
+	int next(long seq, int offset) {
+		offset = resolve(seq, offset);
+		return wrap(offset + Integer.BYTES + buffer.getInt(offset));
+	}
+
+	/**
+	 * Copy the given record after {@code header} bytes of a new heap buffer.
+	 *
+	 * @return the new buffer, ready to be read from its header
+	 */
+	ByteBuffer read(long seq, int offset, int header) {
+		offset = resolve(seq, offset);
+		int length = buffer.getInt(offset);
+		ByteBuffer b = buffer.duplicate();
+		b.limit(offset + Integer.BYTES + length)
+		 .position(offset + Integer.BYTES);
+		ByteBuffer copy = ByteBuffer.allocate(header + length);
+		copy.position(header);
+		copy.put(b)
+		    .clear();
+		return copy;
+	}
+
+	/**
+	 * @return the actual offset of a record from the offset following its predecessor
+	 */
+	int resolve(long seq, int offset) {
+		return seq == resetSeq ? 0 : normalize(offset);
+	}
+
+	int normalize(int offset) {
+		if (capacity - offset < Integer.BYTES || buffer.getInt(offset) == PADDING) {
+			return 0;
+		}
+		return offset;
+	}
+
+	int wrap(int offset) {
+		return offset == capacity ? 0 : offset;
+	}
+}
@@ -0,0 +1,496 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.Cancellation;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.Operators;
+import reactor.core.publisher.SynchronousSink;
+import reactor.core.scheduler.Schedulers;
+import reactor.ipc.util.UUIDUtils;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+/**
+ * A session outliving the {@link Channel} connections it is attached to, resuming its
+ * streams from where the peer left them after a reconnect.
+ * <p>
+ * Every sent buffer is numbered and copied to a bounded off-heap replay ring, then
+ * written to the currently attached channel as a data frame made of a type byte, the
+ * sequence and the payload. The peer acknowledges received sequences with ack frames,
+ * sent at least every {@value #ACK_INTERVAL} frames or {@value #ACK_DELAY_MILLIS}ms,
+ * which release their replay space. When the ring is full, {@link #send(Publisher)}
+ * stops requesting until acknowledgements free enough space.
+ * <p>
+ * After a reconnect, both ends exchange their session {@link #id()} and
+ * {@link #lastReceived()} sequence in their own handshake, then call
+ * {@link #attach(Channel, long)} with the peer's last received sequence: unacknowledged
+ * frames are replayed from there and duplicates are dropped on receive. Resuming fails
+ * if the peer is behind the oldest retained frame, calling for a cold restart.
+ *
+ * @since 0.6
+ */
+public final class ResumableSession {
+
+	/**
+	 * Default replay ring capacity in bytes
+	 */
+	public static final int DEFAULT_REPLAY_CAPACITY = 4 * 1024 * 1024;
+
+	/**
+	 * Maximum number of received frames before acknowledging
+	 */
+	public static final int ACK_INTERVAL = 32;
+
+	/**
+	 * Maximum delay in milliseconds before acknowledging a received frame
+	 */
+	public static final long ACK_DELAY_MILLIS = 10L;
+
+	static final byte DATA = 0;
+	static final byte ACK  = 1;
+
+	static final int HEADER_SIZE = 1 + Long.BYTES;
+
+	/**
+	 * Create a {@link ResumableSession} with a new time-based id and the default replay
+	 * capacity.
+	 *
+	 * @return a new {@link ResumableSession}
+	 */
+	public static ResumableSession create() {
+		return create(UUIDUtils.create(), DEFAULT_REPLAY_CAPACITY);
+	}
+
+	/**
+	 * Create a {@link ResumableSession}.
+	 *
+	 * @param id the session id
+	 * @param replayCapacity the replay ring capacity in bytes, bounding a sent buffer size
+	 *
+	 * @return a new {@link ResumableSession}
+	 */
+	public static ResumableSession create(UUID id, int replayCapacity) {
+		return new ResumableSession(id, new ReplayRing(replayCapacity));
+	}
+
+	static final Logger log = Loggers.getLogger(ResumableSession.class);
+
+	final UUID                        id;
+	final ReplayRing                  ring;
+	final ArrayDeque<SendSubscriber>  waiting;
+
+	Outgoing current;
+
+	volatile long lastReceived;
+
+	volatile int ackScheduled;
+	static final AtomicIntegerFieldUpdater<ResumableSession> ACK_SCHEDULED =
+			AtomicIntegerFieldUpdater.newUpdater(ResumableSession.class, "ackScheduled");
+
+	ResumableSession(UUID id, ReplayRing ring) {
+		this.id = Objects.requireNonNull(id, "id");
+		this.ring = ring;
+		this.waiting = new ArrayDeque<>();
+	}
+
+	/**
+	 * @return the session id
+	 */
+	public UUID id() {
+		return id;
+	}
+
+	/**
+	 * @return the last sequence received in order from the peer, 0 if none
+	 */
+	public long lastReceived() {
+		return lastReceived;
+	}
+
+	/**
+	 * @return the last sequence assigned to a sent buffer, 0 if none
+	 */
+	public synchronized long lastSent() {
+		return ring.nextSeq - 1L;
+	}
+
+	/**
+	 * Number and store the given buffers for delivery over the current and following
+	 * attached channels.
+	 *
+	 * @param dataStream the buffers to send
+	 *
+	 * @return a {@link Mono} completing once every buffer is stored for replay
+	 */
+	public Mono<Void> send(Publisher<? extends ByteBuffer> dataStream) {
+		return Mono.create(sink -> {
+			SendSubscriber s = new SendSubscriber(this, sink);
+			sink.setCancellation(s::cancel);
+			dataStream.subscribe(s);
+		});
+	}
+
+	/**
+	 * Attach a new connection, replaying every frame the peer didn't receive and
+	 * detaching any previous connection.
+	 *
+	 * @param channel the new connection
+	 * @param peerLastReceived the last sequence the peer received, 0 if none
+	 *
+	 * @return the received payloads, starting the connection on subscribe and
+	 * terminating with its inbound
+	 */
+	public Flux<ByteBuffer> attach(Channel<ByteBuffer, ByteBuffer> channel,
+			long peerLastReceived) {
+		Objects.requireNonNull(channel, "channel");
+		return Flux.defer(() -> {
+			acknowledge(peerLastReceived);
+			Outgoing out;
+			Outgoing previous;
+			synchronized (this) {
+				long seq = peerLastReceived + 1L;
+				out = new Outgoing(this, seq, ring.offsetOf(seq));
+				previous = current;
+				current = out;
+			}
+			if (previous != null) {
+				previous.detach();
+			}
+			Cancellation sending = channel.send(out)
+			                              .subscribe(null,
+					                              e -> log.debug("Session {} send failed", id, e),
+					                              null);
+			return channel.receive()
+			              .handle(this::onFrame)
+			              .doAfterTerminate(sending::dispose)
+			              .doOnCancel(sending::dispose);
+		});
+	}
+
+	void onFrame(ByteBuffer frame, SynchronousSink<ByteBuffer> sink) {
+		if (frame.remaining() < HEADER_SIZE) {
+			sink.error(new IllegalArgumentException("Incomplete session frame"));
+			return;
+		}
+		int p = frame.position();
+		byte type = frame.get(p);
+		long seq = frame.getLong(p + 1);
+		if (type == ACK) {
+			acknowledge(seq);
+			return;
+		}
+		if (type != DATA) {
+			sink.error(new IllegalArgumentException("Unknown session frame type: " + type));
+			return;
+		}
+		long last = lastReceived;
+		if (seq <= last) {
+			return;
+		}
+		if (seq != last + 1L) {
+			sink.error(new IllegalStateException("Session " + id + " missed frames " +
+					(last + 1L) + " to " + (seq - 1L)));
+			return;
+		}
+		lastReceived = seq;
+		ByteBuffer payload = frame.duplicate();
+		payload.position(p + HEADER_SIZE);
+		sink.next(payload.slice());
+
+		if (seq % ACK_INTERVAL == 0L) {
+			signal();
+		}
+		else if (ACK_SCHEDULED.compareAndSet(this, 0, 1)) {
+			Schedulers.timer()
+			          .schedule(() -> {
+				          ackScheduled = 0;
+				          signal();
+			          }, ACK_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Release the replay space up to the given sequence and resume waiting senders.
+	 */
+	void acknowledge(long seq) {
+		List<SendSubscriber> resumed = null;
+		synchronized (this) {
+			ring.release(seq);
+			SendSubscriber w;
+			while ((w = waiting.peek()) != null && ring.offer(w.pending)) {
+				waiting.poll();
+				w.pending = null;
+				if (resumed == null) {
+					resumed = new ArrayList<>();
+				}
+				resumed.add(w);
+			}
+		}
+		if (resumed != null) {
+			signal();
+			for (SendSubscriber w : resumed) {
+				w.resume();
+			}
+		}
+	}
+
+	void signal() {
+		Outgoing o;
+		synchronized (this) {
+			o = current;
+		}
+		if (o != null) {
+			o.drain();
+		}
+	}
+
+	/**
+	 * Subscriber storing sent buffers, one at a time
+	 */
+	static final class SendSubscriber implements Subscriber<ByteBuffer> {
+
+		final ResumableSession session;
+		final MonoSink<Void>   sink;
+
+		Subscription s;
+
+		/**
+		 * Buffer waiting for replay space, guarded by the session
+		 */
+		ByteBuffer pending;
+		boolean    done;
+
+		SendSubscriber(ResumableSession session, MonoSink<Void> sink) {
+			this.session = session;
+			this.sink = sink;
+		}
+
+		@Override
+		public void onSubscribe(Subscription s) {
+			if (Operators.validate(this.s, s)) {
+				this.s = s;
+				s.request(1);
+			}
+		}
+
+		@Override
+		public void onNext(ByteBuffer buffer) {
+			boolean stored;
+			try {
+				synchronized (session) {
+					stored = session.ring.offer(buffer);
+					if (!stored) {
+						pending = buffer;
+						session.waiting.add(this);
+					}
+				}
+			}
+			catch (IllegalArgumentException e) {
+				s.cancel();
+				onError(e);
+				return;
+			}
+			if (stored) {
+				session.signal();
+				s.request(1);
+			}
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			sink.error(t);
+		}
+
+		@Override
+		public void onComplete() {
+			synchronized (session) {
+				done = true;
+				if (pending != null) {
+					return;
+				}
+			}
+			sink.success();
+		}
+
+		void resume() {
+			boolean d;
+			synchronized (session) {
+				d = done;
+			}
+			if (d) {
+				sink.success();
+			}
+			else {
+				s.request(1);
+			}
+		}
+
+		void cancel() {
+			Subscription a = s;
+			if (a != null) {
+				a.cancel();
+			}
+			synchronized (session) {
+				session.waiting.remove(this);
+				pending = null;
+			}
+		}
+	}
+
+	/**
+	 * Frames sent over one attached connection
+	 */
+	static final class Outgoing implements Publisher<ByteBuffer>, Subscription {
+
+		final ResumableSession session;
+
+		volatile Subscriber<? super ByteBuffer> actual;
+
+		/**
+		 * Next sequence to send and its ring offset, guarded by the session
+		 */
+		long seq;
+		int  offset;
+
+		/**
+		 * Drain only
+		 */
+		long emitted;
+		long ackSent;
+
+		volatile boolean cancelled;
+		volatile boolean detached;
+
+		volatile long requested;
+		static final AtomicLongFieldUpdater<Outgoing> REQUESTED =
+				AtomicLongFieldUpdater.newUpdater(Outgoing.class, "requested");
+
+		volatile int wip;
+		static final AtomicIntegerFieldUpdater<Outgoing> WIP =
+				AtomicIntegerFieldUpdater.newUpdater(Outgoing.class, "wip");
+
+		Outgoing(ResumableSession session, long seq, int offset) {
+			this.session = session;
+			this.seq = seq;
+			this.offset = offset;
+			this.ackSent = session.lastReceived;
+		}
+
+		@Override
+		public void subscribe(Subscriber<? super ByteBuffer> s) {
+			if (actual != null) {
+				Operators.error(s, Exceptions.duplicateOnSubscribeException());
+				return;
+			}
+			actual = s;
+			s.onSubscribe(this);
+			drain();
+		}
+
+		@Override
+		public void request(long n) {
+			if (Operators.validate(n)) {
+				Operators.getAndAddCap(REQUESTED, this, n);
+				drain();
+			}
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+		}
+
+		void detach() {
+			detached = true;
+			drain();
+		}
+
+		void drain() {
+			if (WIP.getAndIncrement(this) != 0) {
+				return;
+			}
+			int missed = 1;
+			for (; ; ) {
+				Subscriber<? super ByteBuffer> a = actual;
+				if (a != null && !cancelled) {
+					if (detached) {
+						cancelled = true;
+						a.onComplete();
+						return;
+					}
+					long r = requested;
+					long e = emitted;
+					while (e != r) {
+						ByteBuffer frame = null;
+						long received = session.lastReceived;
+						if (received > ackSent) {
+							ackSent = received;
+							frame = ByteBuffer.allocate(HEADER_SIZE);
+							frame.put(0, ACK)
+							     .putLong(1, received);
+						}
+						else {
+							synchronized (session) {
+								ReplayRing ring = session.ring;
+								if (seq < ring.firstSeq) {
+									cancelled = true;
+									a.onError(new IllegalStateException("Sequence " + seq +
+											" released before being sent"));
+									return;
+								}
+								if (seq < ring.nextSeq) {
+									frame = ring.read(seq, offset, HEADER_SIZE);
+									offset = ring.next(seq, offset);
+									frame.put(0, DATA)
+									     .putLong(1, seq++);
+								}
+							}
+						}
+						if (frame == null) {
+							break;
+						}
+						a.onNext(frame);
+						e++;
+					}
+					emitted = e;
+				}
+
+				missed = WIP.addAndGet(this, -missed);
+				if (missed == 0) {
+					return;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Operators;
+import reactor.util.concurrent.QueueSupplier;
+
+/**
+ * An {@link Inbound} decorator shedding load with the CoDel queue management algorithm,
+ * so that the latency of accepted items stays bounded under overload instead of every
+ * item queueing until it times out.
+ * <p>
+ * Received items are prefetched into a bounded queue, each stamped with its enqueue
+ * time. When an item is dequeued for a subscriber and the time it spent queued stayed
+ * above {@code target} for at least {@code interval}, items are dropped at dequeue and
+ * given to the drop callback, at a rate increasing with the square root of the drops
+ * until the queue time goes back under {@code target}. Drop decisions are taken by the
+ * draining thread alone and never lock.
+ *
+ * @param <T> the received type
+ *
+ * @since 0.6
+ */
+public final class SheddingInbound<T> implements Inbound<T> {
+
+	/**
+	 * Default acceptable queue time
+	 */
+	public static final Duration DEFAULT_TARGET   = Duration.ofMillis(5);
+	/**
+	 * Default time the queue time must stay above target before dropping
+	 */
+	public static final Duration DEFAULT_INTERVAL = Duration.ofMillis(100);
+
+	/**
+	 * Decorate an {@link Inbound} with the default target and interval.
+	 *
+	 * @param inbound the decorated inbound
+	 * @param onDrop the callback receiving dropped items, e.g. to reject them
+	 * @param <T> the received type
+	 *
+	 * @return a new {@link SheddingInbound}
+	 */
+	public static <T> SheddingInbound<T> create(Inbound<T> inbound, Consumer<? super T> onDrop) {
+		return create(inbound, DEFAULT_TARGET, DEFAULT_INTERVAL, onDrop);
+	}
+
+	/**
+	 * Decorate an {@link Inbound}.
+	 *
+	 * @param inbound the decorated inbound
+	 * @param target the acceptable queue time
+	 * @param interval the time the queue time must stay above target before dropping
+	 * @param onDrop the callback receiving dropped items, e.g. to reject them
+	 * @param <T> the received type
+	 *
+	 * @return a new {@link SheddingInbound}
+	 */
+	public static <T> SheddingInbound<T> create(Inbound<T> inbound,
+			Duration target,
+			Duration interval,
+			Consumer<? super T> onDrop) {
+		return new SheddingInbound<>(inbound,
+				target,
+				interval,
+				QueueSupplier.SMALL_BUFFER_SIZE,
+				onDrop,
+				System::nanoTime);
+	}
+
+	final Inbound<T>          source;
+	final long                targetNanos;
+	final long                intervalNanos;
+	final int                 prefetch;
+	final Consumer<? super T> onDrop;
+	final LongSupplier        clock;
+
+	SheddingInbound(Inbound<T> source,
+			Duration target,
+			Duration interval,
+			int prefetch,
+			Consumer<? super T> onDrop,
+			LongSupplier clock) {
+		if (target.isNegative() || target.isZero()) {
+			throw new IllegalArgumentException("target must be strictly positive, " +
+					"was: " + target);
+		}
+		if (interval.isNegative() || interval.isZero()) {
+			throw new IllegalArgumentException("interval must be strictly positive, " +
+					"was: " + interval);
+		}
+		if (prefetch < 1) {
+			throw new IllegalArgumentException("prefetch must be strictly positive, " +
+					"was: " + prefetch);
+		}
+		this.source = Objects.requireNonNull(source, "source");
+		this.onDrop = Objects.requireNonNull(onDrop, "onDrop");
+		this.clock = Objects.requireNonNull(clock, "clock");
+		this.targetNanos = target.toNanos();
+		this.intervalNanos = interval.toNanos();
+		this.prefetch = QueueSupplier.ceilingNextPowerOfTwo(prefetch);
+	}
+
+	@Override
+	public Flux<T> receive() {
+		return Flux.from(s -> source.receive()
+		                            .subscribe(new SheddingSubscriber<>(s, this)));
+	}
+
+	@Override
+	public Object delegate() {
+		return source.delegate();
+	}
+
+	static final class SheddingSubscriber<T> implements Subscriber<T>, Subscription {
+
+		final Subscriber<? super T> actual;
+		final SheddingInbound<T>    parent;
+		final Queue<T>              queue;
+		/**
+		 * Enqueue time of each queued item, indexed like the queue slots
+		 */
+		final long[]                stamps;
+		final int                   mask;
+		final int                   limit;
+
+		Subscription s;
+
+		/**
+		 * Stamp index, onNext only
+		 */
+		long produced;
+
+		/**
+		 * Stamp index, items dequeued since the last request and CoDel state, drain only
+		 */
+		long    consumedIndex;
+		int     consumed;
+		boolean dropping;
+		long    firstAboveTime;
+		long    dropNext;
+		long    count;
+
+		volatile boolean done;
+		Throwable        error;
+		volatile boolean cancelled;
+
+		volatile long requested;
+		@SuppressWarnings("rawtypes")
+		static final AtomicLongFieldUpdater<SheddingSubscriber> REQUESTED =
+				AtomicLongFieldUpdater.newUpdater(SheddingSubscriber.class, "requested");
+
+		volatile int wip;
+		@SuppressWarnings("rawtypes")
+		static final AtomicIntegerFieldUpdater<SheddingSubscriber> WIP =
+				AtomicIntegerFieldUpdater.newUpdater(SheddingSubscriber.class, "wip");
+
+		SheddingSubscriber(Subscriber<? super T> actual, SheddingInbound<T> parent) {
+			this.actual = actual;
+			this.parent = parent;
+			this.queue = QueueSupplier.<T>get(parent.prefetch).get();
+			this.stamps = new long[parent.prefetch];
+			this.mask = parent.prefetch - 1;
+			this.limit = parent.prefetch - (parent.prefetch >> 2);
+		}
+
+		@Override
+		public void onSubscribe(Subscription s) {
+			if (Operators.validate(this.s, s)) {
+				this.s = s;
+				actual.onSubscribe(this);
+				s.request(parent.prefetch);
+			}
+		}
+
+		@Override
+		public void onNext(T t) {
+			if (done) {
+				Operators.onNextDropped(t);
+				return;
+			}
+			// the stamp is published by the queue offer
+			stamps[(int) (produced++ & mask)] = parent.clock.getAsLong();
+			if (!queue.offer(t)) {
+				s.cancel();
+				onError(Exceptions.failWithOverflow());
+				return;
+			}
+			drain();
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			if (done) {
+				Operators.onErrorDropped(t);
+				return;
+			}
+			error = t;
+			done = true;
+			drain();
+		}
+
+		@Override
+		public void onComplete() {
+			if (done) {
+				return;
+			}
+			done = true;
+			drain();
+		}
+
+		@Override
+		public void request(long n) {
+			if (Operators.validate(n)) {
+				Operators.getAndAddCap(REQUESTED, this, n);
+				drain();
+			}
+		}
+
+		@Override
+		public void cancel() {
+			if (!cancelled) {
+				cancelled = true;
+				s.cancel();
+				if (WIP.getAndIncrement(this) == 0) {
+					queue.clear();
+				}
+			}
+		}
+
+		/**
+		 * Decide whether to drop the item being dequeued, following the CoDel control
+		 * law.
+		 *
+		 * @param sojourn the time the item spent queued
+		 * @param now the dequeue time
+		 *
+		 * @return true if the item must be dropped
+		 */
+		boolean shouldDrop(long sojourn, long now) {
+			boolean above;
+			if (sojourn < parent.targetNanos) {
+				firstAboveTime = 0L;
+				above = false;
+			}
+			else if (firstAboveTime == 0L) {
+				firstAboveTime = now + parent.intervalNanos;
+				above = false;
+			}
+			else {
+				above = now - firstAboveTime >= 0L;
+			}
+
+			if (dropping) {
+				if (!above) {
+					dropping = false;
+					return false;
+				}
+				if (now - dropNext >= 0L) {
+					count++;
+					dropNext = controlLaw(dropNext);
+					return true;
+				}
+				return false;
+			}
+			if (above) {
+				dropping = true;
+				// resume near the previous drop rate if dropping stopped recently
+				count = count > 2 && now - dropNext < 16 * parent.intervalNanos ?
+						count - 2 : 1;
+				dropNext = controlLaw(now);
+				return true;
+			}
+			return false;
+		}
+
+		long controlLaw(long t) {
+			return t + (long) (parent.intervalNanos / Math.sqrt(count));
+		}
+
+		void drain() {
+			if (WIP.getAndIncrement(this) != 0) {
+				return;
+			}
+			int missed = 1;
+			for (; ; ) {
+				long r = requested;
+				long e = 0L;
+
+				while (e != r) {
+					if (cancelled) {
+						queue.clear();
+						return;
+					}
+					boolean d = done;
+					T t = queue.poll();
+					if (t == null) {
+						if (d) {
+							terminate();
+							return;
+						}
+						break;
+					}
+					long stamp = stamps[(int) (consumedIndex++ & mask)];
+					long now = parent.clock.getAsLong();
+					if (++consumed == limit) {
+						consumed = 0;
+						s.request(limit);
+					}
+					if (shouldDrop(now - stamp, now)) {
+						try {
+							parent.onDrop.accept(t);
+						}
+						catch (Throwable ex) {
+							s.cancel();
+							queue.clear();
+							cancelled = true;
+							actual.onError(Exceptions.unwrap(ex));
+							return;
+						}
+						continue;
+					}
+					actual.onNext(t);
+					e++;
+				}
+
+				if (e == r) {
+					if (cancelled) {
+						queue.clear();
+						return;
+					}
+					if (done && queue.isEmpty()) {
+						terminate();
+						return;
+					}
+				}
+
+				if (e != 0L && r != Long.MAX_VALUE) {
+					REQUESTED.addAndGet(this, -e);
+				}
+
+				missed = WIP.addAndGet(this, -missed);
+				if (missed == 0) {
+					break;
+				}
+			}
+		}
+
+		void terminate() {
+			cancelled = true;
+			Throwable e = error;
+			if (e != null) {
+				queue.clear();
+				actual.onError(e);
+			}
+			else {
+				actual.onComplete();
+			}
+		}
+	}
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A persistent FIFO of byte records stored in fixed-size memory-mapped segment files,
+ * used by {@link SpillingOutbound}. Not thread-safe.
+ * <p>
+ * Every record is its length plus one, followed by its bytes, and is always followed by
+ * a zero so that a reopened segment is scanned up to its last complete record. The read
+ * position is only persisted by {@link #ack()}, which also recycles fully read
+ * segments, so records polled but not acknowledged are read again after
+ * {@link #rewind()} or a restart.
+ */
+final class SpillLog implements Closeable {
+
+	static final String SUFFIX       = ".spill";
+	static final String OFFSET_FILE  = "spill.offset";
+	static final int    RECORD_END   = 0;
+	static final int    SEGMENT_END  = -1;
+	static final int    OFFSET_BYTES = Long.BYTES + Integer.BYTES;
+
+	final Path                 directory;
+	final int                  segmentSize;
+	final ArrayDeque<Segment>  segments;
+	final ArrayDeque<Segment>  consumed;
+	final FileChannel          offsetChannel;
+	final MappedByteBuffer     offsets;
+
+	Segment spare;
+	long    count;
+	long    unacknowledged;
+	boolean closed;
+
+	SpillLog(Path directory, int segmentSize) throws IOException {
+		if (segmentSize < 3 * Integer.BYTES) {
+			throw new IllegalArgumentException("segmentSize too small: " + segmentSize);
+		}
+		this.directory = Files.createDirectories(directory);
+		this.segmentSize = segmentSize;
+		this.segments = new ArrayDeque<>();
+		this.consumed = new ArrayDeque<>();
+		this.offsetChannel = FileChannel.open(directory.resolve(OFFSET_FILE),
+				StandardOpenOption.CREATE,
+				StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		this.offsets = offsetChannel.map(FileChannel.MapMode.READ_WRITE, 0, OFFSET_BYTES);
+
+		long readIndex = offsets.getLong(0);
+		int readPosition = offsets.getInt(Long.BYTES);
+		for (long index : segmentIndexes()) {
+			if (index < readIndex) {
+				Files.delete(segmentPath(index));
+				continue;
+			}
+			Segment s = open(index);
+			s.writePosition = scan(s, 0, false);
+			s.readPosition = index == readIndex ? Math.min(readPosition, s.writePosition) : 0;
+			count += scan(s, s.readPosition, true);
+			segments.add(s);
+		}
+		if (segments.isEmpty()) {
+			segments.add(open(readIndex));
+		}
+	}
+
+	/**
+	 * @return the number of records not yet polled
+	 */
+	long count() {
+		return count;
+	}
+
+	boolean isEmpty() {
+		return count == 0L;
+	}
+
+	/**
+	 * Append a copy of the remaining bytes of the given buffer.
+	 */
+	void append(ByteBuffer record) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("Spill log closed");
+		}
+		int length = record.remaining();
+		if (length > segmentSize - 2 * Integer.BYTES) {
+			throw new IllegalArgumentException("Record of " + length + " bytes larger " +
+					"than a segment");
+		}
+		Segment w = segments.getLast();
+		int position = w.writePosition;
+		if (position + 2 * Integer.BYTES + length > segmentSize) {
+			w.buffer.putInt(position, SEGMENT_END);
+			w = next(w.index + 1);
+			position = 0;
+		}
+		ByteBuffer b = w.buffer.duplicate();
+		b.position(position + Integer.BYTES);
+		b.put(record.duplicate());
+		w.buffer.putInt(position + Integer.BYTES + length, RECORD_END);
+		w.buffer.putInt(position, length + 1);
+		w.writePosition = position + Integer.BYTES + length;
+		count++;
+	}
+
+	/**
+	 * @return a heap copy of the oldest record not yet polled, or null if none or closed
+	 */
+	ByteBuffer poll() {
+		if (closed) {
+			return null;
+		}
+		Segment r = segments.getFirst();
+		while (r.readPosition == r.writePosition) {
+			if (segments.size() == 1) {
+				return null;
+			}
+			consumed.add(segments.pollFirst());
+			r = segments.getFirst();
+		}
+		int length = r.buffer.getInt(r.readPosition) - 1;
+		ByteBuffer b = r.buffer.duplicate();
+		b.limit(r.readPosition + Integer.BYTES + length)
+		 .position(r.readPosition + Integer.BYTES);
+		ByteBuffer copy = ByteBuffer.allocate(length);
+		copy.put(b)
+		    .flip();
+		r.readPosition += Integer.BYTES + length;
+		count--;
+		unacknowledged++;
+		return copy;
+	}
+
+	/**
+	 * Persist the read position and recycle every fully read segment.
+	 */
+	void ack() throws IOException {
+		if (closed) {
+			return;
+		}
+		Segment r = segments.getFirst();
+		offsets.putInt(Long.BYTES, r.readPosition);
+		offsets.putLong(0, r.index);
+		unacknowledged = 0L;
+		Segment s;
+		while ((s = consumed.poll()) != null) {
+			if (spare == null) {
+				spare = s;
+			}
+			else {
+				s.close();
+				Files.delete(segmentPath(s.index));
+			}
+		}
+	}
+
+	/**
+	 * Move the read position back to the last acknowledged one, so that every record
+	 * polled since is polled again.
+	 */
+	void rewind() {
+		if (closed) {
+			return;
+		}
+		Segment s;
+		while ((s = consumed.pollLast()) != null) {
+			segments.addFirst(s);
+		}
+		long readIndex = offsets.getLong(0);
+		int readPosition = offsets.getInt(Long.BYTES);
+		for (Segment r : segments) {
+			r.readPosition = r.index == readIndex ? readPosition : 0;
+		}
+		count += unacknowledged;
+		unacknowledged = 0L;
+	}
+
+	/**
+	 * Flush every written record and the read position to the storage device.
+	 */
+	void force() {
+		for (Segment s : segments) {
+			s.buffer.force();
+		}
+		offsets.force();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		force();
+		for (Segment s : segments) {
+			s.close();
+		}
+		for (Segment s : consumed) {
+			s.close();
+		}
+		if (spare != null) {
+			spare.close();
+			Files.delete(segmentPath(spare.index));
+			spare = null;
+		}
+		offsetChannel.close();
+	}
+
+	Segment next(long index) throws IOException {
+		Segment s = spare;
+		if (s != null) {
+			spare = null;
+			Files.move(segmentPath(s.index), segmentPath(index));
+			s = new Segment(index, s.channel, s.buffer);
+		}
+		else {
+			s = open(index);
+		}
+		s.buffer.putInt(0, RECORD_END);
+		segments.add(s);
+		return s;
+	}
+
+	Segment open(long index) throws IOException {
+		FileChannel channel = FileChannel.open(segmentPath(index),
+				StandardOpenOption.CREATE,
+				StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		return new Segment(index,
+				channel,
+				channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+	}
+
+	/**
+	 * @return the position after the last complete record from the given position, or
+	 * the number of records if counting
+	 */
+	int scan(Segment s, int position, boolean counting) {
+		int records = 0;
+		while (position <= segmentSize - Integer.BYTES) {
+			int length = s.buffer.getInt(position) - 1;
+			if (length < 0 || length > segmentSize - position - 2 * Integer.BYTES) {
+				break;
+			}
+			position += Integer.BYTES + length;
+			records++;
+		}
+		return counting ? records : position;
+	}
+
+	Path segmentPath(long index) {
+		return directory.resolve(String.format("%020d", index) + SUFFIX);
+	}
+
+	List<Long> segmentIndexes() throws IOException {
+		List<Long> indexes = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+			for (Path f : files) {
+				String name = f.getFileName()
+				               .toString();
+				indexes.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+			}
+		}
+		Collections.sort(indexes);
+		return indexes;
+	}
+
+	static final class Segment {
+
+		final long             index;
+		final FileChannel      channel;
+		final MappedByteBuffer buffer;
+
+		int readPosition;
+		int writePosition;
+
+		Segment(long index, FileChannel channel, MappedByteBuffer buffer) {
+			this.index = index;
+			this.channel = channel;
+			this.buffer = buffer;
+		}
+
+		void close() throws IOException {
+			channel.close();
+		}
+	}
+}
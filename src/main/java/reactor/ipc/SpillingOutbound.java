@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import org.reactivestreams.Publisher;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+/**
+ * An {@link Outbound} accepting buffers at any rate and spilling to disk whatever its
+ * target {@link Outbound} cannot take yet, instead of buffering it on the heap.
+ * <p>
+ * Buffers are written by one target {@link Outbound#send(Publisher)} of up to 32
+ * buffers at a time. While nothing is spilled, sent buffers are handed over directly:
+ * the first one is written at once and the ones sent while it is being written are
+ * batched for the next write. Only once a full batch is waiting, the target not keeping
+ * up, are the batch and the following buffers copied to a segmented memory-mapped log,
+ * the next writes replaying them in order. Replayed buffers are only
+ * acknowledged once their write completes, and segments are recycled once all of their
+ * buffers are acknowledged. Unacknowledged buffers survive a process restart: a new
+ * {@link SpillingOutbound} on the same directory replays them first.
+ * <p>
+ * {@link #send(Publisher)} completes once every buffer has been batched or spilled. If a
+ * write fails, its replayed buffers are rewound, or its directly handed over buffers
+ * spilled to a separate log replayed first, so that at most two batches are ever held on
+ * the heap. Buffers keep being spilled until {@link #resume()} writes them again.
+ *
+ * @since 0.6
+ */
+public final class SpillingOutbound implements Outbound<ByteBuffer>, AutoCloseable {
+
+	/**
+	 * Default size of a spill segment file
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * Maximum number of buffers written by a single target send
+	 */
+	static final int MAX_WRITE_SIZE = 32;
+
+	/**
+	 * Sub-directory of the log of directly handed over buffers whose write failed
+	 */
+	static final String RETRY_DIRECTORY = "retry";
+
+	/**
+	 * Create a {@link SpillingOutbound} with the default segment size.
+	 *
+	 * @param target the target {@link Outbound}
+	 * @param directory the directory of the spill segments, created if missing
+	 *
+	 * @return a new {@link SpillingOutbound}, already replaying any spilled buffer
+	 */
+	public static SpillingOutbound create(Outbound<ByteBuffer> target, Path directory) {
+		return create(target, directory, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Create a {@link SpillingOutbound}.
+	 *
+	 * @param target the target {@link Outbound}
+	 * @param directory the directory of the spill segments, created if missing
+	 * @param segmentSize the size of a spill segment file, bounding the size of a buffer
+	 *
+	 * @return a new {@link SpillingOutbound}, already replaying any spilled buffer
+	 */
+	public static SpillingOutbound create(Outbound<ByteBuffer> target,
+			Path directory,
+			int segmentSize) {
+		Objects.requireNonNull(target, "target");
+		Objects.requireNonNull(directory, "directory");
+		SpillLog log;
+		SpillLog retry;
+		try {
+			log = new SpillLog(directory, segmentSize);
+			retry = new SpillLog(directory.resolve(RETRY_DIRECTORY), segmentSize);
+		}
+		catch (IOException e) {
+			throw Exceptions.propagate(e);
+		}
+		SpillingOutbound outbound = new SpillingOutbound(target, log, retry);
+		outbound.drain();
+		return outbound;
+	}
+
+	static final Logger logger = Loggers.getLogger(SpillingOutbound.class);
+
+	final Outbound<ByteBuffer> target;
+	final SpillLog             log;
+	final SpillLog             retry;
+
+	/**
+	 * Buffers sent while nothing is spilled, handed over by the next write, guarded by
+	 * the log
+	 */
+	List<ByteBuffer> batch = new ArrayList<>();
+
+	volatile boolean writing;
+	volatile boolean failed;
+	volatile boolean closed;
+
+	volatile int wip;
+	static final AtomicIntegerFieldUpdater<SpillingOutbound> WIP =
+			AtomicIntegerFieldUpdater.newUpdater(SpillingOutbound.class, "wip");
+
+	SpillingOutbound(Outbound<ByteBuffer> target, SpillLog log, SpillLog retry) {
+		this.target = target;
+		this.log = log;
+		this.retry = retry;
+	}
+
+	@Override
+	public Object delegate() {
+		return target.delegate();
+	}
+
+	@Override
+	public Mono<Void> send(Publisher<? extends ByteBuffer> dataStream) {
+		return Flux.from(dataStream)
+		           .doOnNext(this::offer)
+		           .then();
+	}
+
+	/**
+	 * @return the number of batched or spilled buffers waiting to be written to the target
+	 */
+	public long pending() {
+		synchronized (log) {
+			return retry.count() + log.count() + batch.size();
+		}
+	}
+
+	/**
+	 * Write again to the target if a previous write failed.
+	 */
+	public void resume() {
+		if (closed || !failed) {
+			return;
+		}
+		failed = false;
+		drain();
+	}
+
+	/**
+	 * Stop replaying and close the spill logs, spilling any batched buffer and keeping any
+	 * unacknowledged one for a later {@link SpillingOutbound} on the same directory.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		synchronized (log) {
+			try {
+				spillBatch();
+				log.close();
+				retry.close();
+			}
+			catch (IOException e) {
+				throw Exceptions.propagate(e);
+			}
+		}
+	}
+
+	void offer(ByteBuffer buffer) {
+		if (closed) {
+			throw new IllegalStateException("SpillingOutbound closed");
+		}
+		synchronized (log) {
+			try {
+				if (failed || !retry.isEmpty() || !log.isEmpty()) {
+					log.append(buffer);
+				}
+				else if (batch.size() < MAX_WRITE_SIZE) {
+					batch.add(buffer);
+				}
+				else {
+					// the target is not keeping up, spill in order from the batch on
+					spillBatch();
+					log.append(buffer);
+				}
+			}
+			catch (IOException e) {
+				throw Exceptions.propagate(e);
+			}
+		}
+		drain();
+	}
+
+	/**
+	 * Append the batched buffers to the log, guarded by the log.
+	 */
+	void spillBatch() throws IOException {
+		for (ByteBuffer b : batch) {
+			log.append(b);
+		}
+		batch.clear();
+	}
+
+	void drain() {
+		if (WIP.getAndIncrement(this) == 0) {
+			drainLoop();
+		}
+	}
+
+	void drainLoop() {
+		int missed = 1;
+		for (; ; ) {
+			List<ByteBuffer> buffers = null;
+			SpillLog source = null;
+			synchronized (log) {
+				if (!writing && !failed && !closed) {
+					source = !retry.isEmpty() ? retry : !log.isEmpty() ? log : null;
+					if (source != null) {
+						buffers = new ArrayList<>();
+						ByteBuffer next;
+						while (buffers.size() < MAX_WRITE_SIZE && (next = source.poll()) != null) {
+							buffers.add(next);
+						}
+					}
+					else if (!batch.isEmpty()) {
+						buffers = batch;
+						batch = new ArrayList<>();
+					}
+					writing = buffers != null;
+				}
+			}
+			if (buffers != null) {
+				write(buffers, source);
+			}
+
+			missed = WIP.addAndGet(this, -missed);
+			if (missed == 0) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Write the given buffers, replayed from the given log or handed over directly if
+	 * null.
+	 */
+	void write(List<ByteBuffer> buffers, SpillLog source) {
+		Mono.defer(() -> target.send(Flux.fromIterable(buffers)))
+		    .subscribe(null, e -> onWriteError(buffers, source, e), () -> onWritten(source));
+	}
+
+	void onWritten(SpillLog source) {
+		if (source != null) {
+			synchronized (log) {
+				try {
+					source.ack();
+				}
+				catch (IOException e) {
+					logger.error("Failed to acknowledge spilled buffers", e);
+				}
+			}
+		}
+		writing = false;
+		drain();
+	}
+
+	void onWriteError(List<ByteBuffer> buffers, SpillLog source, Throwable e) {
+		logger.error("Spill target failed, spilling until resumed", e);
+		synchronized (log) {
+			try {
+				if (source != null) {
+					source.rewind();
+				}
+				else if (!closed) {
+					// handed over while nothing was spilled, so older than any spilled buffer
+					for (ByteBuffer b : buffers) {
+						retry.append(b);
+					}
+				}
+				if (!closed) {
+					spillBatch();
+				}
+			}
+			catch (IOException ex) {
+				logger.error("Failed to spill buffers of a failed write", ex);
+			}
+		}
+		failed = true;
+		writing = false;
+	}
+}
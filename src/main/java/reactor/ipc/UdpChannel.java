@@ -0,0 +1,677 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Operators;
+
+/**
+ * A {@link Channel} of datagrams over an NIO {@link DatagramChannel}, in unicast or
+ * multicast mode, for low-latency one-to-many distribution within a host or a rack
+ * without a media driver.
+ * <p>
+ * Every sent buffer is one datagram. A single receiving thread per channel reads
+ * datagrams in batches into preallocated direct buffers and emits them to the single
+ * {@link #receive()} subscriber: an emitted buffer is only valid until
+ * {@code onNext} returns and must be copied to be retained. As with any datagram
+ * socket, datagrams arriving without demand are dropped and datagrams larger than the
+ * maximum size are truncated.
+ * <p>
+ * In reliable mode every datagram carries the random session id of its sending channel
+ * and a sequence number, and the last sent datagrams are kept in a ring of direct
+ * buffers. A receiver detecting a gap from a
+ * sender buffers the datagrams that follow it, in order, and sends a negative
+ * acknowledgement back to that sender, which retransmits the missing datagrams still
+ * in its ring. The acknowledgement is repeated while the gap lasts, and a gap outlasting
+ * the receiving window is skipped. Loss is only detected when a later datagram arrives,
+ * since there are no heartbeats. A sender seen with a new session id, e.g. restarted on
+ * the same address, is tracked anew from its first sequence, and senders idle for
+ * {@link #DEFAULT_SOURCE_EXPIRY} are forgotten.
+ * <p>
+ * In multicast mode the channel joins the group on a socket bound to the group port and
+ * sends from a second socket bound to an ephemeral port, to which acknowledgements and
+ * retransmissions are addressed.
+ *
+ * @since 0.6
+ */
+public final class UdpChannel implements Channel<ByteBuffer, ByteBuffer>, Closeable {
+
+	/**
+	 * Default maximum datagram size in bytes, including the reliable mode header
+	 */
+	public static final int DEFAULT_MAX_DATAGRAM_SIZE = 2048;
+
+	/**
+	 * Default number of datagrams read per batch
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 32;
+
+	/**
+	 * Default number of datagrams kept for retransmission and reordering in reliable mode
+	 */
+	public static final int DEFAULT_WINDOW = 256;
+
+	/**
+	 * Default idle time after which the reliable mode state of a sender is dropped
+	 */
+	public static final Duration DEFAULT_SOURCE_EXPIRY = Duration.ofSeconds(30);
+
+	static final byte DATA = 0;
+	static final byte NAK  = 1;
+
+	/**
+	 * Reliable mode headers: type, session and sequence, or type, session, first
+	 * sequence and count
+	 */
+	static final int DATA_HEADER = 13;
+	static final int NAK_SIZE    = 17;
+
+	/**
+	 * Delay before acknowledging the same gap again
+	 */
+	static final long NAK_INTERVAL_MILLIS = 10L;
+
+	/**
+	 * Attempts to send a datagram while the socket buffer is full before dropping it
+	 */
+	static final int SEND_SPINS = 1024;
+
+	/**
+	 * Open a unicast {@link UdpChannel} without reliability.
+	 *
+	 * @param local the local address to receive on
+	 * @param remote the remote address to send to
+	 *
+	 * @return a new {@link UdpChannel}
+	 * @throws IOException if the socket cannot be opened
+	 */
+	public static UdpChannel unicast(InetSocketAddress local, InetSocketAddress remote)
+			throws IOException {
+		return unicast(local, remote, false);
+	}
+
+	/**
+	 * Open a unicast {@link UdpChannel}.
+	 *
+	 * @param local the local address to receive on
+	 * @param remote the remote address to send to
+	 * @param reliable true to sequence and retransmit lost datagrams
+	 *
+	 * @return a new {@link UdpChannel}
+	 * @throws IOException if the socket cannot be opened
+	 */
+	public static UdpChannel unicast(InetSocketAddress local,
+			InetSocketAddress remote,
+			boolean reliable) throws IOException {
+		Objects.requireNonNull(remote, "remote");
+		DatagramChannel channel = DatagramChannel.open();
+		try {
+			channel.bind(local);
+			return new UdpChannel(channel, channel, remote, reliable,
+					DEFAULT_MAX_DATAGRAM_SIZE, DEFAULT_BATCH_SIZE, DEFAULT_WINDOW,
+					DEFAULT_SOURCE_EXPIRY).start();
+		}
+		catch (IOException | RuntimeException e) {
+			closeQuietly(channel);
+			throw e;
+		}
+	}
+
+	/**
+	 * Open a multicast {@link UdpChannel} without reliability.
+	 *
+	 * @param group the multicast group address and port
+	 * @param networkInterface the network interface to join the group on
+	 *
+	 * @return a new {@link UdpChannel}
+	 * @throws IOException if the sockets cannot be opened or the group joined
+	 */
+	public static UdpChannel multicast(InetSocketAddress group,
+			NetworkInterface networkInterface) throws IOException {
+		return multicast(group, networkInterface, false);
+	}
+
+	/**
+	 * Open a multicast {@link UdpChannel}.
+	 *
+	 * @param group the multicast group address and port
+	 * @param networkInterface the network interface to join the group on
+	 * @param reliable true to sequence and retransmit lost datagrams
+	 *
+	 * @return a new {@link UdpChannel}
+	 * @throws IOException if the sockets cannot be opened or the group joined
+	 */
+	public static UdpChannel multicast(InetSocketAddress group,
+			NetworkInterface networkInterface,
+			boolean reliable) throws IOException {
+		Objects.requireNonNull(networkInterface, "networkInterface");
+		if (!group.getAddress()
+		          .isMulticastAddress()) {
+			throw new IllegalArgumentException("Not a multicast group: " + group);
+		}
+		ProtocolFamily family = group.getAddress() instanceof Inet6Address ?
+				StandardProtocolFamily.INET6 : StandardProtocolFamily.INET;
+		DatagramChannel inbound = DatagramChannel.open(family);
+		DatagramChannel outbound = null;
+		try {
+			inbound.setOption(StandardSocketOptions.SO_REUSEADDR, true)
+			       .bind(new InetSocketAddress(group.getPort()))
+			       .join(group.getAddress(), networkInterface);
+			outbound = DatagramChannel.open(family)
+			                          .setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface)
+			                          .setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true)
+			                          .bind(null);
+			return new UdpChannel(inbound, outbound, group, reliable,
+					DEFAULT_MAX_DATAGRAM_SIZE, DEFAULT_BATCH_SIZE, DEFAULT_WINDOW,
+					DEFAULT_SOURCE_EXPIRY).start();
+		}
+		catch (IOException | RuntimeException e) {
+			closeQuietly(inbound);
+			closeQuietly(outbound);
+			throw e;
+		}
+	}
+
+	final DatagramChannel inbound;
+	final DatagramChannel outbound;
+	final SocketAddress   target;
+	final boolean         reliable;
+	final int             maxDatagramSize;
+	final int             window;
+	final long            sourceExpiryNanos;
+	final int             session;
+	final Selector        selector;
+	final Thread          receiver;
+	final LongAdder       dropped;
+
+	/**
+	 * Receiving thread state: the batch buffers, their senders and the reliable mode
+	 * per-sender reordering state, the latter also sized by tests
+	 */
+	final ByteBuffer[]                batch;
+	final SocketAddress[]             senders;
+	final Map<SocketAddress, Source>  sources;
+	final ByteBuffer                  nak;
+
+	/**
+	 * Reliable mode sent datagrams, guarded by this array
+	 */
+	final ByteBuffer[] retransmits;
+	final long[]       retransmitSequences;
+	long               nextSequence;
+
+	volatile Subscriber<? super ByteBuffer> actual;
+	@SuppressWarnings("rawtypes")
+	static final AtomicReferenceFieldUpdater<UdpChannel, Subscriber> ACTUAL =
+			AtomicReferenceFieldUpdater.newUpdater(UdpChannel.class, Subscriber.class, "actual");
+
+	volatile long requested;
+	static final AtomicLongFieldUpdater<UdpChannel> REQUESTED =
+			AtomicLongFieldUpdater.newUpdater(UdpChannel.class, "requested");
+
+	volatile boolean   closed;
+	volatile boolean   done;
+	volatile Throwable error;
+
+	UdpChannel(DatagramChannel inbound,
+			DatagramChannel outbound,
+			SocketAddress target,
+			boolean reliable,
+			int maxDatagramSize,
+			int batchSize,
+			int window,
+			Duration sourceExpiry) throws IOException {
+		if (maxDatagramSize <= NAK_SIZE) {
+			throw new IllegalArgumentException("maxDatagramSize must be greater than " +
+					NAK_SIZE + ", was: " + maxDatagramSize);
+		}
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be strictly positive, " +
+					"was: " + batchSize);
+		}
+		if (window < 1) {
+			throw new IllegalArgumentException("window must be strictly positive, was: " + window);
+		}
+		this.inbound = inbound;
+		this.outbound = outbound;
+		this.target = target;
+		this.reliable = reliable;
+		this.maxDatagramSize = maxDatagramSize;
+		this.window = window;
+		this.sourceExpiryNanos = sourceExpiry.toNanos();
+		// distinguishes this channel from a previous one sending from the same address
+		this.session = ThreadLocalRandom.current()
+		                                .nextInt();
+		this.dropped = new LongAdder();
+		this.batch = new ByteBuffer[batchSize];
+		this.senders = new SocketAddress[batchSize];
+		for (int i = 0; i < batchSize; i++) {
+			batch[i] = ByteBuffer.allocateDirect(maxDatagramSize);
+		}
+		this.sources = new ConcurrentHashMap<>();
+		this.nak = ByteBuffer.allocateDirect(NAK_SIZE);
+		int capacity = Integer.highestOneBit(window - 1) << 1;
+		this.retransmits = new ByteBuffer[reliable ? Math.max(1, capacity) : 0];
+		this.retransmitSequences = new long[retransmits.length];
+
+		inbound.configureBlocking(false);
+		outbound.configureBlocking(false);
+		this.selector = Selector.open();
+		try {
+			inbound.register(selector, SelectionKey.OP_READ);
+			if (outbound != inbound) {
+				outbound.register(selector, SelectionKey.OP_READ);
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			closeQuietly(selector);
+			throw e;
+		}
+		this.receiver = new Thread(this::run, "udp-" + inbound.getLocalAddress());
+		this.receiver.setDaemon(true);
+	}
+
+	@Override
+	public Flux<ByteBuffer> receive() {
+		return Flux.from(s -> {
+			if (!ACTUAL.compareAndSet(this, null, s)) {
+				Operators.error(s, new IllegalStateException(
+						"UdpChannel allows only a single Subscriber"));
+				return;
+			}
+			s.onSubscribe(new Subscription() {
+				@Override
+				public void request(long n) {
+					if (Operators.validate(n) && Operators.getAndAddCap(REQUESTED,
+							UdpChannel.this,
+							n) == 0L) {
+						selector.wakeup();
+					}
+				}
+
+				@Override
+				public void cancel() {
+					REQUESTED.set(UdpChannel.this, 0L);
+					ACTUAL.compareAndSet(UdpChannel.this, s, null);
+				}
+			});
+			if (done) {
+				terminate();
+			}
+		});
+	}
+
+	@Override
+	public Mono<Void> send(Publisher<? extends ByteBuffer> dataStream) {
+		return Flux.<ByteBuffer>from(dataStream)
+		           .doOnNext(this::write)
+		           .then();
+	}
+
+	@Override
+	public Object delegate() {
+		return inbound;
+	}
+
+	/**
+	 * @return the local address datagrams are received on
+	 */
+	public InetSocketAddress localAddress() {
+		try {
+			return (InetSocketAddress) inbound.getLocalAddress();
+		}
+		catch (IOException e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	/**
+	 * @return the number of datagrams dropped, sent with a full socket buffer, received
+	 * without demand, or in reliable mode skipped or received with a full window
+	 */
+	public long dropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Close the sockets and complete the {@link #receive()} subscriber.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		selector.wakeup();
+	}
+
+	UdpChannel start() {
+		receiver.start();
+		return this;
+	}
+
+	void write(ByteBuffer buffer) {
+		if (closed) {
+			throw new IllegalStateException("UdpChannel closed");
+		}
+		int size = buffer.remaining() + (reliable ? DATA_HEADER : 0);
+		if (size > maxDatagramSize) {
+			throw new IllegalArgumentException("Datagram of " + size + " bytes exceeds " +
+					"maxDatagramSize: " + maxDatagramSize);
+		}
+		try {
+			if (!reliable) {
+				write(buffer.duplicate(), target);
+				return;
+			}
+			synchronized (retransmits) {
+				long sequence = nextSequence++;
+				int i = (int) sequence & (retransmits.length - 1);
+				ByteBuffer frame = retransmits[i];
+				if (frame == null) {
+					frame = ByteBuffer.allocateDirect(maxDatagramSize);
+					retransmits[i] = frame;
+				}
+				frame.clear();
+				frame.put(DATA)
+				     .putInt(session)
+				     .putLong(sequence)
+				     .put(buffer.duplicate())
+				     .flip();
+				retransmitSequences[i] = sequence;
+				write(frame.duplicate(), target);
+			}
+		}
+		catch (IOException e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	void write(ByteBuffer datagram, SocketAddress to) throws IOException {
+		for (int spins = 0; outbound.send(datagram, to) == 0; spins++) {
+			if (spins == SEND_SPINS) {
+				dropped.increment();
+				return;
+			}
+			Thread.yield();
+		}
+	}
+
+	void run() {
+		try {
+			while (!closed) {
+				selector.select(reliable ? NAK_INTERVAL_MILLIS : 0L);
+				Set<SelectionKey> keys = selector.selectedKeys();
+				for (SelectionKey key : keys) {
+					read((DatagramChannel) key.channel());
+				}
+				keys.clear();
+				if (reliable) {
+					long now = System.nanoTime();
+					for (Iterator<Source> i = sources.values()
+					                                 .iterator(); i.hasNext(); ) {
+						Source s = i.next();
+						if (now - s.lastSeen >= sourceExpiryNanos) {
+							dropped.add(s.pending.size());
+							i.remove();
+							continue;
+						}
+						drain(s);
+						nak(s);
+					}
+				}
+			}
+		}
+		catch (Throwable e) {
+			if (!closed) {
+				error = e;
+			}
+		}
+		finally {
+			closeQuietly(selector);
+			closeQuietly(inbound);
+			closeQuietly(outbound);
+			done = true;
+			terminate();
+		}
+	}
+
+	void read(DatagramChannel channel) throws IOException {
+		for (; ; ) {
+			int n = 0;
+			for (; n < batch.length; n++) {
+				ByteBuffer b = batch[n];
+				b.clear();
+				SocketAddress sender = channel.receive(b);
+				if (sender == null) {
+					break;
+				}
+				b.flip();
+				senders[n] = sender;
+			}
+			for (int i = 0; i < n; i++) {
+				if (reliable) {
+					onFrame(batch[i], senders[i]);
+				}
+				else if (!deliver(batch[i])) {
+					dropped.increment();
+				}
+				senders[i] = null;
+			}
+			if (n < batch.length) {
+				return;
+			}
+		}
+	}
+
+	void onFrame(ByteBuffer frame, SocketAddress sender) throws IOException {
+		byte type = frame.hasRemaining() ? frame.get() : -1;
+		if (type == NAK && frame.remaining() >= NAK_SIZE - 1) {
+			if (frame.getInt() == session) {
+				retransmit(frame.getLong(), frame.getInt(), sender);
+			}
+			return;
+		}
+		if (type != DATA || frame.remaining() < DATA_HEADER - 1) {
+			dropped.increment();
+			return;
+		}
+		int senderSession = frame.getInt();
+		long sequence = frame.getLong();
+		Source s = sources.get(sender);
+		if (s == null || s.session != senderSession) {
+			if (s != null) {
+				dropped.add(s.pending.size());
+			}
+			s = new Source(sender, senderSession, sequence);
+			sources.put(sender, s);
+		}
+		s.lastSeen = System.nanoTime();
+		if (sequence < s.expected || s.pending.containsKey(sequence)) {
+			return;
+		}
+		if (sequence == s.expected && deliver(frame)) {
+			s.expected++;
+			drain(s);
+			nak(s);
+			return;
+		}
+		// out of order, or in order without demand, kept until deliverable
+		if (s.pending.size() >= window) {
+			skip(s);
+			if (s.pending.size() >= window) {
+				dropped.increment();
+				nak(s);
+				return;
+			}
+		}
+		ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+		copy.put(frame)
+		    .flip();
+		s.pending.put(sequence, copy);
+		nak(s);
+	}
+
+	/**
+	 * Acknowledge negatively the gap before the first pending datagram of the given
+	 * sender, once and then every {@link #NAK_INTERVAL_MILLIS} while it lasts.
+	 */
+	void nak(Source s) throws IOException {
+		if (s.pending.isEmpty()) {
+			return;
+		}
+		long missing = s.pending.firstKey() - s.expected;
+		long now = System.nanoTime();
+		if (missing > 0L && (s.naked != s.expected || now - s.nakTime >= TimeUnit.MILLISECONDS.toNanos(
+				NAK_INTERVAL_MILLIS))) {
+			s.naked = s.expected;
+			s.nakTime = now;
+			nak.clear();
+			nak.put(NAK)
+			   .putInt(s.session)
+			   .putLong(s.expected)
+			   .putInt((int) Math.min(missing, window))
+			   .flip();
+			outbound.send(nak, s.address);
+		}
+	}
+
+	void retransmit(long from, int count, SocketAddress to) throws IOException {
+		synchronized (retransmits) {
+			long end = Math.min(nextSequence, from + Math.min(count, retransmits.length));
+			for (long sequence = from; sequence < end; sequence++) {
+				int i = (int) sequence & (retransmits.length - 1);
+				ByteBuffer frame = retransmits[i];
+				if (frame != null && retransmitSequences[i] == sequence) {
+					write(frame.duplicate(), to);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Give up on the gap before the first pending datagram of the given sender.
+	 */
+	void skip(Source s) {
+		long first = s.pending.firstKey();
+		if (first > s.expected) {
+			dropped.add(first - s.expected);
+			s.expected = first;
+			drain(s);
+		}
+	}
+
+	void drain(Source s) {
+		while (!s.pending.isEmpty() && s.pending.firstKey() == s.expected) {
+			if (!deliver(s.pending.firstEntry()
+			                      .getValue())) {
+				return;
+			}
+			s.pending.pollFirstEntry();
+			s.expected++;
+		}
+	}
+
+	boolean deliver(ByteBuffer datagram) {
+		@SuppressWarnings("unchecked")
+		Subscriber<? super ByteBuffer> a = actual;
+		if (a == null) {
+			return false;
+		}
+		for (; ; ) {
+			long r = requested;
+			if (r == 0L) {
+				return false;
+			}
+			if (r == Long.MAX_VALUE || REQUESTED.compareAndSet(this, r, r - 1)) {
+				break;
+			}
+		}
+		a.onNext(datagram);
+		return true;
+	}
+
+	void terminate() {
+		@SuppressWarnings("unchecked")
+		Subscriber<? super ByteBuffer> a = ACTUAL.getAndSet(this, null);
+		if (a != null) {
+			Throwable e = error;
+			if (e != null) {
+				a.onError(e);
+			}
+			else {
+				a.onComplete();
+			}
+		}
+	}
+
+	static void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			}
+			catch (IOException ignored) {
+			}
+		}
+	}
+
+	static final class Source {
+
+		final SocketAddress             address;
+		final int                       session;
+		final TreeMap<Long, ByteBuffer> pending = new TreeMap<>();
+
+		long expected;
+		long naked = -1L;
+		long nakTime;
+		long lastSeen;
+
+		Source(SocketAddress address, int session, long expected) {
+			this.address = address;
+			this.session = session;
+			this.expected = expected;
+		}
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc.codec;
+
+import java.nio.Buffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Objects;
+
+/**
+ * A batch of structured records laid out column by column, each column being a
+ * primitive buffer with one value per row.
+ * <p>
+ * Batches created with {@link #of(Object...)} wrap the given arrays without copying.
+ * Batches decoded by {@link ColumnarCodec} are views over the received frame, so reading
+ * a value never allocates a row object.
+ *
+ * @since 0.6
+ */
+public final class ColumnarBatch {
+
+	/**
+	 * A column value type
+	 */
+	public enum Type {
+		INT(Integer.BYTES),
+		LONG(Long.BYTES),
+		DOUBLE(Double.BYTES);
+
+		final int width;
+
+		Type(int width) {
+			this.width = width;
+		}
+
+		/**
+		 * @return the size in bytes of a single value
+		 */
+		public int width() {
+			return width;
+		}
+	}
+
+	/**
+	 * Create a batch wrapping the given column arrays without copying them.
+	 *
+	 * @param columns the {@code int[]}, {@code long[]} or {@code double[]} columns, all of
+	 * the same length
+	 *
+	 * @return a new {@link ColumnarBatch}
+	 * @throws IllegalArgumentException if a column is not a supported primitive array or
+	 * the columns have different lengths
+	 */
+	public static ColumnarBatch of(Object... columns) {
+		Objects.requireNonNull(columns, "columns");
+		Type[] types = new Type[columns.length];
+		Buffer[] buffers = new Buffer[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			Object c = columns[i];
+			if (c instanceof int[]) {
+				types[i] = Type.INT;
+				buffers[i] = IntBuffer.wrap((int[]) c);
+			}
+			else if (c instanceof long[]) {
+				types[i] = Type.LONG;
+				buffers[i] = LongBuffer.wrap((long[]) c);
+			}
+			else if (c instanceof double[]) {
+				types[i] = Type.DOUBLE;
+				buffers[i] = DoubleBuffer.wrap((double[]) c);
+			}
+			else {
+				throw new IllegalArgumentException("Unsupported column type at " + i + ": " + c);
+			}
+		}
+		return new ColumnarBatch(types, buffers);
+	}
+
+	final Type[]   types;
+	final Buffer[] columns;
+	final int      rowCount;
+
+	ColumnarBatch(Type[] types, Buffer[] columns) {
+		int rows = columns.length == 0 ? 0 : columns[0].remaining();
+		for (int i = 1; i < columns.length; i++) {
+			if (columns[i].remaining() != rows) {
+				throw new IllegalArgumentException("Column " + i + " has " +
+						columns[i].remaining() + " rows, expected " + rows);
+			}
+		}
+		this.types = types;
+		this.columns = columns;
+		this.rowCount = rows;
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	public int rowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * @return the number of columns
+	 */
+	public int columnCount() {
+		return types.length;
+	}
+
+	/**
+	 * @param column the column index
+	 *
+	 * @return the value type of the given column
+	 */
+	public Type type(int column) {
+		return types[column];
+	}
+
+	/**
+	 * @param column an {@link Type#INT} column index
+	 * @param row the row index
+	 *
+	 * @return the value at the given position
+	 */
+	public int getInt(int column, int row) {
+		IntBuffer c = intColumn(column);
+		return c.get(c.position() + row);
+	}
+
+	/**
+	 * @param column a {@link Type#LONG} column index
+	 * @param row the row index
+	 *
+	 * @return the value at the given position
+	 */
+	public long getLong(int column, int row) {
+		LongBuffer c = longColumn(column);
+		return c.get(c.position() + row);
+	}
+
+	/**
+	 * @param column a {@link Type#DOUBLE} column index
+	 * @param row the row index
+	 *
+	 * @return the value at the given position
+	 */
+	public double getDouble(int column, int row) {
+		DoubleBuffer c = doubleColumn(column);
+		return c.get(c.position() + row);
+	}
+
+	/**
+	 * @param column an {@link Type#INT} column index
+	 *
+	 * @return the given column, to be considered read-only
+	 */
+	public IntBuffer intColumn(int column) {
+		checkType(column, Type.INT);
+		return (IntBuffer) columns[column];
+	}
+
+	/**
+	 * @param column a {@link Type#LONG} column index
+	 *
+	 * @return the given column, to be considered read-only
+	 */
+	public LongBuffer longColumn(int column) {
+		checkType(column, Type.LONG);
+		return (LongBuffer) columns[column];
+	}
+
+	/**
+	 * @param column a {@link Type#DOUBLE} column index
+	 *
+	 * @return the given column, to be considered read-only
+	 */
+	public DoubleBuffer doubleColumn(int column) {
+		checkType(column, Type.DOUBLE);
+		return (DoubleBuffer) columns[column];
+	}
+
+	void checkType(int column, Type expected) {
+		if (types[column] != expected) {
+			throw new IllegalArgumentException("Column " + column + " is " +
+					types[column] + ", not " + expected);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ColumnarBatch{rows=" + rowCount + ", columns=" + types.length + "}";
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc.codec;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+
+/**
+ * Encode and decode {@link ColumnarBatch} as single frames, to be used with
+ * {@code outbound.map(batches, ColumnarCodec.encoder())} and
+ * {@code inbound.receive(ColumnarCodec.decoder())}.
+ * <p>
+ * A frame holds its total length, the row count, the column count and types, then every
+ * column as contiguous big-endian values, each column starting on an 8 byte boundary.
+ * Every received buffer must hold one or more complete frames. Decoded batches are
+ * views over the received buffer, which must not be reused until they are consumed.
+ *
+ * @since 0.6
+ */
+public final class ColumnarCodec {
+
+	static final int HEADER_SIZE = 3 * Integer.BYTES;
+
+	/**
+	 * @return an encoding function for {@link reactor.ipc.Outbound#map}
+	 */
+	public static Function<Flux<? extends ColumnarBatch>, Publisher<ByteBuffer>> encoder() {
+		return batches -> batches.map(ColumnarCodec::encode);
+	}
+
+	/**
+	 * @return a decoding function for {@link reactor.ipc.Inbound#receive(Function)}
+	 */
+	public static Function<Flux<ByteBuffer>, Publisher<ColumnarBatch>> decoder() {
+		return frames -> frames.flatMapIterable(ColumnarCodec::decodeAll);
+	}
+
+	/**
+	 * Encode a batch into a new frame.
+	 *
+	 * @param batch the batch to encode
+	 *
+	 * @return a frame ready to be read
+	 */
+	public static ByteBuffer encode(ColumnarBatch batch) {
+		int rows = batch.rowCount;
+		int columns = batch.types.length;
+		int offset = align(HEADER_SIZE + columns);
+		int length = offset;
+		for (ColumnarBatch.Type type : batch.types) {
+			length = align(length + rows * type.width);
+		}
+
+		ByteBuffer frame = ByteBuffer.allocate(length);
+		frame.putInt(length)
+		     .putInt(rows)
+		     .putInt(columns);
+		for (ColumnarBatch.Type type : batch.types) {
+			frame.put((byte) type.ordinal());
+		}
+
+		for (int i = 0; i < columns; i++) {
+			frame.position(offset);
+			Buffer column = batch.columns[i];
+			switch (batch.types[i]) {
+				case INT:
+					frame.asIntBuffer()
+					     .put(((IntBuffer) column).duplicate());
+					break;
+				case LONG:
+					frame.asLongBuffer()
+					     .put(((LongBuffer) column).duplicate());
+					break;
+				default:
+					frame.asDoubleBuffer()
+					     .put(((DoubleBuffer) column).duplicate());
+			}
+			offset = align(offset + rows * batch.types[i].width);
+		}
+		frame.clear();
+		return frame;
+	}
+
+	/**
+	 * Decode the next frame of the given buffer, advancing its position past the frame.
+	 *
+	 * @param buffer a buffer positioned at a frame start
+	 *
+	 * @return a batch viewing the frame columns
+	 * @throws IllegalArgumentException if the buffer doesn't hold a complete valid frame
+	 */
+	public static ColumnarBatch decode(ByteBuffer buffer) {
+		int start = buffer.position();
+		if (buffer.remaining() < HEADER_SIZE) {
+			throw new IllegalArgumentException("Incomplete columnar frame header");
+		}
+		int length = buffer.getInt(start);
+		int rows = buffer.getInt(start + Integer.BYTES);
+		int columns = buffer.getInt(start + 2 * Integer.BYTES);
+		// sizes are checked in long arithmetic, so that a malformed header cannot wrap
+		if (length > buffer.remaining() || rows < 0 || columns < 0 ||
+				HEADER_SIZE + (long) columns > length) {
+			throw new IllegalArgumentException("Invalid or incomplete columnar frame of " +
+					length + " bytes, " + buffer.remaining() + " available");
+		}
+
+		ColumnarBatch.Type[] values = ColumnarBatch.Type.values();
+		ColumnarBatch.Type[] types = new ColumnarBatch.Type[columns];
+		Buffer[] views = new Buffer[columns];
+		int offset = align(HEADER_SIZE + columns);
+		for (int i = 0; i < columns; i++) {
+			int t = buffer.get(start + HEADER_SIZE + i);
+			if (t < 0 || t >= values.length) {
+				throw new IllegalArgumentException("Unknown column type " + t);
+			}
+			types[i] = values[t];
+			long columnSize = (long) rows * types[i].width;
+			if (offset + columnSize > length) {
+				throw new IllegalArgumentException("Truncated column " + i);
+			}
+			int size = (int) columnSize;
+			ByteBuffer slice = buffer.duplicate();
+			slice.limit(start + offset + size)
+			     .position(start + offset);
+			slice = slice.slice();
+			switch (types[i]) {
+				case INT:
+					views[i] = slice.asIntBuffer();
+					break;
+				case LONG:
+					views[i] = slice.asLongBuffer();
+					break;
+				default:
+					views[i] = slice.asDoubleBuffer();
+			}
+			offset = align(offset + size);
+		}
+		buffer.position(start + length);
+		return new ColumnarBatch(types, views);
+	}
+
+	/**
+	 * Decode every frame of the given buffer.
+	 *
+	 * @param buffer a buffer holding complete frames
+	 *
+	 * @return the decoded batches
+	 */
+	public static List<ColumnarBatch> decodeAll(ByteBuffer buffer) {
+		ByteBuffer frames = buffer.duplicate();
+		List<ColumnarBatch> batches = new ArrayList<>(1);
+		while (frames.hasRemaining()) {
+			batches.add(decode(frames));
+		}
+		return batches;
+	}
+
+	static int align(int offset) {
+		return (offset + 7) & ~7;
+	}
+
+	private ColumnarCodec() {
+	}
+}
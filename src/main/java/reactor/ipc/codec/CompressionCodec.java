@@ -0,0 +1,365 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc.codec;
+
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+
+/**
+ * A message compression stage, to be used with
+ * {@code outbound.map(buffers, codec.encoder())} and
+ * {@code inbound.receive(codec.decoder())}.
+ * <p>
+ * Every buffer is encoded as one frame made of a method byte, the uncompressed length
+ * and the payload. Buffers smaller than the threshold, or that wouldn't shrink, are
+ * copied uncompressed into their frame and decoded without copying. Frames announcing
+ * more than the maximum frame length are rejected before anything is allocated. The
+ * compressor or decompressor state and its
+ * scratch arrays are created once per subscribed sequence, i.e. per channel, and reused
+ * for every message.
+ * <p>
+ * Deflate compresses each message independently, optionally against a preset dictionary
+ * shared by both ends, which greatly improves the ratio of small similar messages. The
+ * LZ4 block codec trades ratio for speed.
+ *
+ * @since 0.6
+ */
+public final class CompressionCodec {
+
+	/**
+	 * Default size under which a message is not compressed
+	 */
+	public static final int DEFAULT_THRESHOLD = 256;
+
+	/**
+	 * Default maximum uncompressed length of a received frame
+	 */
+	public static final int DEFAULT_MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+	static final byte STORED  = 0;
+	static final byte DEFLATE = 1;
+	static final byte LZ4     = 2;
+
+	static final int HEADER_SIZE = 1 + Integer.BYTES;
+
+	/**
+	 * Create a Deflate {@link CompressionCodec} with the default level and threshold.
+	 *
+	 * @return a new {@link CompressionCodec}
+	 */
+	public static CompressionCodec deflate() {
+		return deflate(Deflater.DEFAULT_COMPRESSION, DEFAULT_THRESHOLD, null);
+	}
+
+	/**
+	 * Create a Deflate {@link CompressionCodec}.
+	 *
+	 * @param level the {@link Deflater} compression level
+	 * @param threshold the size under which a message is not compressed
+	 * @param dictionary an optional preset dictionary, identical on both ends
+	 *
+	 * @return a new {@link CompressionCodec}
+	 */
+	public static CompressionCodec deflate(int level, int threshold, byte[] dictionary) {
+		return deflate(level, threshold, dictionary, DEFAULT_MAX_FRAME_LENGTH);
+	}
+
+	/**
+	 * Create a Deflate {@link CompressionCodec}.
+	 *
+	 * @param level the {@link Deflater} compression level
+	 * @param threshold the size under which a message is not compressed
+	 * @param dictionary an optional preset dictionary, identical on both ends
+	 * @param maxFrameLength the maximum uncompressed length of a received frame
+	 *
+	 * @return a new {@link CompressionCodec}
+	 */
+	public static CompressionCodec deflate(int level,
+			int threshold,
+			byte[] dictionary,
+			int maxFrameLength) {
+		if (level != Deflater.DEFAULT_COMPRESSION &&
+				(level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+			throw new IllegalArgumentException("Invalid compression level: " + level);
+		}
+		return new CompressionCodec(DEFLATE, level, threshold, dictionary, maxFrameLength);
+	}
+
+	/**
+	 * Create an LZ4 block {@link CompressionCodec} with the default threshold.
+	 *
+	 * @return a new {@link CompressionCodec}
+	 */
+	public static CompressionCodec lz4() {
+		return lz4(DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * Create an LZ4 block {@link CompressionCodec}.
+	 *
+	 * @param threshold the size under which a message is not compressed
+	 *
+	 * @return a new {@link CompressionCodec}
+	 */
+	public static CompressionCodec lz4(int threshold) {
+		return lz4(threshold, DEFAULT_MAX_FRAME_LENGTH);
+	}
+
+	/**
+	 * Create an LZ4 block {@link CompressionCodec}.
+	 *
+	 * @param threshold the size under which a message is not compressed
+	 * @param maxFrameLength the maximum uncompressed length of a received frame
+	 *
+	 * @return a new {@link CompressionCodec}
+	 */
+	public static CompressionCodec lz4(int threshold, int maxFrameLength) {
+		return new CompressionCodec(LZ4, 0, threshold, null, maxFrameLength);
+	}
+
+	final byte   method;
+	final int    level;
+	final int    threshold;
+	final byte[] dictionary;
+	final int    maxFrameLength;
+
+	CompressionCodec(byte method,
+			int level,
+			int threshold,
+			byte[] dictionary,
+			int maxFrameLength) {
+		if (threshold < 0) {
+			throw new IllegalArgumentException("threshold must be positive, was: " + threshold);
+		}
+		if (maxFrameLength < 1) {
+			throw new IllegalArgumentException("maxFrameLength must be strictly positive, " +
+					"was: " + maxFrameLength);
+		}
+		this.method = method;
+		this.level = level;
+		this.threshold = threshold;
+		this.dictionary = dictionary == null ? null : dictionary.clone();
+		this.maxFrameLength = maxFrameLength;
+	}
+
+	/**
+	 * @return an encoding function for {@link reactor.ipc.Outbound#map}
+	 */
+	public Function<Flux<? extends ByteBuffer>, Publisher<ByteBuffer>> encoder() {
+		return buffers -> Flux.using(Compressor::new,
+				c -> buffers.map(c::compress),
+				Compressor::end);
+	}
+
+	/**
+	 * @return a decoding function for {@link reactor.ipc.Inbound#receive(Function)}
+	 */
+	public Function<Flux<ByteBuffer>, Publisher<ByteBuffer>> decoder() {
+		return frames -> Flux.using(Decompressor::new,
+				d -> frames.map(d::decompress),
+				Decompressor::end);
+	}
+
+	/**
+	 * Per-sequence compression state
+	 */
+	final class Compressor {
+
+		final Deflater deflater;
+		final int[]    table;
+
+		byte[] input  = new byte[0];
+		byte[] output = new byte[0];
+
+		Compressor() {
+			if (method == DEFLATE) {
+				this.deflater = new Deflater(level);
+				this.table = null;
+			}
+			else {
+				this.deflater = null;
+				this.table = Lz4Block.newTable();
+			}
+		}
+
+		ByteBuffer compress(ByteBuffer buffer) {
+			int length = buffer.remaining();
+			if (length < threshold || length == 0) {
+				return frame(STORED, length, buffer);
+			}
+
+			byte[] src;
+			int srcOff;
+			if (buffer.hasArray()) {
+				src = buffer.array();
+				srcOff = buffer.arrayOffset() + buffer.position();
+			}
+			else {
+				if (input.length < length) {
+					input = new byte[length];
+				}
+				buffer.duplicate()
+				      .get(input, 0, length);
+				src = input;
+				srcOff = 0;
+			}
+
+			int n;
+			if (deflater != null) {
+				if (output.length < length) {
+					output = new byte[length];
+				}
+				deflater.reset();
+				if (dictionary != null) {
+					deflater.setDictionary(dictionary);
+				}
+				deflater.setInput(src, srcOff, length);
+				deflater.finish();
+				n = deflater.deflate(output, 0, length);
+				if (!deflater.finished()) {
+					n = length;
+				}
+			}
+			else {
+				int max = Lz4Block.maxCompressedLength(length);
+				if (output.length < max) {
+					output = new byte[max];
+				}
+				n = Lz4Block.compress(src, srcOff, length, output, 0, table);
+			}
+
+			if (n >= length) {
+				return frame(STORED, length, buffer);
+			}
+			return frame(method, length, ByteBuffer.wrap(output, 0, n));
+		}
+
+		void end() {
+			if (deflater != null) {
+				deflater.end();
+			}
+		}
+	}
+
+	/**
+	 * Per-sequence decompression state
+	 */
+	final class Decompressor {
+
+		final Inflater inflater;
+
+		byte[] input = new byte[0];
+
+		Decompressor() {
+			this.inflater = method == DEFLATE ? new Inflater() : null;
+		}
+
+		ByteBuffer decompress(ByteBuffer frame) {
+			if (frame.remaining() < HEADER_SIZE) {
+				throw new IllegalArgumentException("Incomplete compressed frame header");
+			}
+			int start = frame.position();
+			byte m = frame.get(start);
+			int length = frame.getInt(start + 1);
+			if (length > maxFrameLength) {
+				throw new IllegalArgumentException("Frame length " + length + " exceeds " +
+						"maxFrameLength " + maxFrameLength);
+			}
+			ByteBuffer payload = frame.duplicate();
+			payload.position(start + HEADER_SIZE);
+			if (m == STORED) {
+				if (payload.remaining() != length) {
+					throw new IllegalArgumentException("Invalid stored frame length: " + length);
+				}
+				return payload.slice();
+			}
+			if (m != method || length < 0) {
+				throw new IllegalArgumentException("Unexpected compressed frame: method " + m +
+						", length " + length);
+			}
+
+			byte[] src;
+			int srcOff;
+			int srcLen = payload.remaining();
+			if (payload.hasArray()) {
+				src = payload.array();
+				srcOff = payload.arrayOffset() + payload.position();
+			}
+			else {
+				if (input.length < srcLen) {
+					input = new byte[srcLen];
+				}
+				payload.get(input, 0, srcLen);
+				src = input;
+				srcOff = 0;
+			}
+
+			byte[] output = new byte[length];
+			if (inflater != null) {
+				inflate(src, srcOff, srcLen, output);
+			}
+			else {
+				Lz4Block.decompress(src, srcOff, srcLen, output, 0, length);
+			}
+			return ByteBuffer.wrap(output);
+		}
+
+		void inflate(byte[] src, int srcOff, int srcLen, byte[] output) {
+			inflater.reset();
+			inflater.setInput(src, srcOff, srcLen);
+			try {
+				int n = inflater.inflate(output);
+				if (n == 0 && inflater.needsDictionary()) {
+					if (dictionary == null) {
+						throw new IllegalArgumentException("Compressed frame requires a " +
+								"dictionary");
+					}
+					inflater.setDictionary(dictionary);
+					n = inflater.inflate(output);
+				}
+				if (n != output.length || !inflater.finished()) {
+					throw new IllegalArgumentException("Invalid compressed frame length: " +
+							output.length);
+				}
+			}
+			catch (DataFormatException e) {
+				throw new IllegalArgumentException("Malformed compressed frame", e);
+			}
+		}
+
+		void end() {
+			if (inflater != null) {
+				inflater.end();
+			}
+		}
+	}
+
+	static ByteBuffer frame(byte method, int length, ByteBuffer payload) {
+		ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + payload.remaining());
+		frame.put(method)
+		     .putInt(length)
+		     .put(payload.duplicate())
+		     .flip();
+		return frame;
+	}
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Objects;
+import java.util.function.Function;
+
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+
+/**
+ * A handle over a received frame whose header fields are parsed only when accessed,
+ * to be used with {@code inbound.receive(LazyFrame.decoder())}.
+ * <p>
+ * A frame holds a field count, then every header field prefixed by its length, then the
+ * body up to the end of the buffer. Decoding a frame only wraps the received buffer:
+ * fields are located on access by skipping the length prefixes, resuming from the last
+ * located field so that reading them in order costs a single pass, then read or compared
+ * in place, and the body is never touched unless {@link #body()} is called. A router can
+ * match {@link #fieldEquals(int, byte[])} and forward {@link #frame()} unchanged.
+ * <p>
+ * A handle is a view over the received buffer, which must not be reused until the
+ * handle is consumed.
+ *
+ * @since 0.6
+ */
+public final class LazyFrame {
+
+	/**
+	 * @return a decoding function for {@link reactor.ipc.Inbound#receive(Function)}
+	 */
+	public static Function<Flux<ByteBuffer>, Publisher<LazyFrame>> decoder() {
+		return frames -> frames.map(LazyFrame::wrap);
+	}
+
+	/**
+	 * @return an encoding function for {@link reactor.ipc.Outbound#map}, forwarding
+	 * every handle frame unchanged
+	 */
+	public static Function<Flux<? extends LazyFrame>, Publisher<ByteBuffer>> encoder() {
+		return frames -> frames.map(LazyFrame::frame);
+	}
+
+	/**
+	 * Wrap a buffer positioned at a frame start, without parsing it.
+	 *
+	 * @param frame the frame buffer
+	 *
+	 * @return a new {@link LazyFrame}
+	 */
+	public static LazyFrame wrap(ByteBuffer frame) {
+		return new LazyFrame(Objects.requireNonNull(frame, "frame"));
+	}
+
+	/**
+	 * Encode a frame from the given body and header fields.
+	 *
+	 * @param body the frame body
+	 * @param fields the header fields
+	 *
+	 * @return a new frame ready to be read
+	 */
+	public static ByteBuffer encode(ByteBuffer body, ByteBuffer... fields) {
+		if (fields.length > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many fields: " + fields.length);
+		}
+		int length = Short.BYTES + body.remaining();
+		for (ByteBuffer f : fields) {
+			length += Integer.BYTES + f.remaining();
+		}
+		ByteBuffer frame = ByteBuffer.allocate(length);
+		frame.putShort((short) fields.length);
+		for (ByteBuffer f : fields) {
+			frame.putInt(f.remaining())
+			     .put(f.duplicate());
+		}
+		frame.put(body.duplicate())
+		     .flip();
+		return frame;
+	}
+
+	final ByteBuffer frame;
+	final int        start;
+
+	int bodyOffset = -1;
+
+	/**
+	 * Index and offset of the last located field, to skip from
+	 */
+	int lastIndex = -1;
+	int lastOffset;
+
+	LazyFrame(ByteBuffer frame) {
+		this.frame = frame;
+		this.start = frame.position();
+	}
+
+	/**
+	 * @return the number of header fields
+	 * @throws IllegalArgumentException if the frame is malformed
+	 */
+	public int fieldCount() {
+		if (frame.limit() - start < Short.BYTES) {
+			throw new IllegalArgumentException("Incomplete frame header");
+		}
+		int count = frame.getShort(start);
+		if (count < 0) {
+			throw new IllegalArgumentException("Invalid field count: " + count);
+		}
+		return count;
+	}
+
+	/**
+	 * @param index the field index
+	 *
+	 * @return the length in bytes of the given field
+	 * @throws IllegalArgumentException if the frame is malformed
+	 */
+	public int fieldLength(int index) {
+		return frame.getInt(fieldOffset(index));
+	}
+
+	/**
+	 * @param index the field index
+	 *
+	 * @return a view of the given field
+	 * @throws IllegalArgumentException if the frame is malformed
+	 */
+	public ByteBuffer field(int index) {
+		int offset = fieldOffset(index);
+		return slice(offset + Integer.BYTES, frame.getInt(offset));
+	}
+
+	/**
+	 * @param index the field index
+	 * @param charset the field charset
+	 *
+	 * @return the given field decoded as a {@link String}
+	 * @throws IllegalArgumentException if the frame is malformed
+	 */
+	public String fieldAsString(int index, Charset charset) {
+		return charset.decode(field(index))
+		              .toString();
+	}
+
+	/**
+	 * Compare a field with the given bytes in place.
+	 *
+	 * @param index the field index
+	 * @param value the expected field content
+	 *
+	 * @return true if the field content is equal to the given bytes
+	 * @throws IllegalArgumentException if the frame is malformed
+	 */
+	public boolean fieldEquals(int index, byte[] value) {
+		int offset = fieldOffset(index);
+		if (frame.getInt(offset) != value.length) {
+			return false;
+		}
+		offset += Integer.BYTES;
+		for (int i = 0; i < value.length; i++) {
+			if (frame.get(offset + i) != value[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return a view of the body
+	 * @throws IllegalArgumentException if the frame is malformed
+	 */
+	public ByteBuffer body() {
+		int offset = bodyOffset;
+		if (offset < 0) {
+			int count = fieldCount();
+			offset = count == 0 ? start + Short.BYTES : next(fieldOffset(count - 1), count - 1);
+			bodyOffset = offset;
+		}
+		return slice(offset, frame.limit() - offset);
+	}
+
+	/**
+	 * @return a view of the whole frame, to forward it unchanged
+	 */
+	public ByteBuffer frame() {
+		return frame.duplicate();
+	}
+
+	/**
+	 * @return the offset of the given field, whose bounds are checked
+	 */
+	int fieldOffset(int index) {
+		int count = fieldCount();
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("Field " + index + " of " + count);
+		}
+		int i = 0;
+		int offset = start + Short.BYTES;
+		if (lastIndex >= 0 && lastIndex <= index) {
+			i = lastIndex;
+			offset = lastOffset;
+		}
+		for (; i < index; i++) {
+			offset = next(offset, i);
+		}
+		next(offset, index);
+		lastIndex = index;
+		lastOffset = offset;
+		return offset;
+	}
+
+	/**
+	 * @return the offset following the given field
+	 * @throws IllegalArgumentException if the field exceeds the frame
+	 */
+	int next(int offset, int field) {
+		int limit = frame.limit();
+		if (limit - offset < Integer.BYTES) {
+			throw new IllegalArgumentException("Truncated field " + field);
+		}
+		int length = frame.getInt(offset);
+		if (length < 0 || length > limit - offset - Integer.BYTES) {
+			throw new IllegalArgumentException("Invalid length of field " + field + ": " +
+					length);
+		}
+		return offset + Integer.BYTES + length;
+	}
+
+	ByteBuffer slice(int offset, int length) {
+		if (length < 0 || length > frame.limit() - offset) {
+			throw new IllegalArgumentException("Invalid field length: " + length);
+		}
+		ByteBuffer b = frame.duplicate();
+		b.limit(offset + length)
+		 .position(offset);
+		return b.slice();
+	}
+
+	@Override
+	public String toString() {
+		return "LazyFrame{" + (frame.limit() - start) + " bytes}";
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc.codec;
+
+import java.util.Arrays;
+
+/**
+ * A pure Java encoder and decoder of the LZ4 block format, favouring speed over ratio
+ * with a single-probe hash table.
+ */
+final class Lz4Block {
+
+	static final int MIN_MATCH     = 4;
+	static final int LAST_LITERALS = 5;
+	static final int MF_LIMIT      = 12;
+	static final int MAX_OFFSET    = 65535;
+	static final int HASH_LOG      = 12;
+	static final int SKIP_TRIGGER  = 6;
+
+	/**
+	 * @param length an uncompressed length
+	 *
+	 * @return the maximum compressed length
+	 */
+	static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * @return a new hash table to reuse across {@link #compress} calls
+	 */
+	static int[] newTable() {
+		return new int[1 << HASH_LOG];
+	}
+
+	/**
+	 * Compress {@code src[srcOff..srcOff+srcLen)} into {@code dst} from {@code dstOff},
+	 * which must have {@link #maxCompressedLength(int)} bytes available.
+	 *
+	 * @return the compressed length
+	 */
+	static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff,
+			int[] table) {
+		Arrays.fill(table, -1);
+		int end = srcOff + srcLen;
+		int matchLimit = end - LAST_LITERALS;
+		int mfLimit = end - MF_LIMIT;
+		int anchor = srcOff;
+		int ip = srcOff;
+		int op = dstOff;
+
+		while (ip < mfLimit) {
+			int seq = readInt(src, ip);
+			int h = hash(seq);
+			int ref = table[h];
+			table[h] = ip;
+			if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+				ip += 1 + ((ip - anchor) >>> SKIP_TRIGGER);
+				continue;
+			}
+			while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+				ip--;
+				ref--;
+			}
+			int matchLen = MIN_MATCH;
+			while (ip + matchLen < matchLimit && src[ip + matchLen] == src[ref + matchLen]) {
+				matchLen++;
+			}
+
+			int token = op++;
+			int literals = ip - anchor;
+			int t;
+			if (literals >= 15) {
+				t = 15 << 4;
+				op = writeLength(dst, op, literals - 15);
+			}
+			else {
+				t = literals << 4;
+			}
+			System.arraycopy(src, anchor, dst, op, literals);
+			op += literals;
+
+			int offset = ip - ref;
+			dst[op++] = (byte) offset;
+			dst[op++] = (byte) (offset >>> 8);
+
+			int ml = matchLen - MIN_MATCH;
+			if (ml >= 15) {
+				t |= 15;
+				op = writeLength(dst, op, ml - 15);
+			}
+			else {
+				t |= ml;
+			}
+			dst[token] = (byte) t;
+
+			ip += matchLen;
+			anchor = ip;
+		}
+
+		int literals = end - anchor;
+		if (literals >= 15) {
+			dst[op++] = (byte) (15 << 4);
+			op = writeLength(dst, op, literals - 15);
+		}
+		else {
+			dst[op++] = (byte) (literals << 4);
+		}
+		System.arraycopy(src, anchor, dst, op, literals);
+		return op + literals - dstOff;
+	}
+
+	/**
+	 * Decompress {@code src[srcOff..srcOff+srcLen)} into exactly {@code dstLen} bytes of
+	 * {@code dst} from {@code dstOff}.
+	 *
+	 * @throws IllegalArgumentException if the block is malformed
+	 */
+	static void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff,
+			int dstLen) {
+		int end = srcOff + srcLen;
+		int dstEnd = dstOff + dstLen;
+		int ip = srcOff;
+		int op = dstOff;
+		try {
+			for (; ; ) {
+				int token = src[ip++] & 0xFF;
+
+				int literals = token >>> 4;
+				if (literals == 15) {
+					int b;
+					do {
+						b = src[ip++] & 0xFF;
+						literals += b;
+					}
+					while (b == 255);
+				}
+				if (op + literals > dstEnd || ip + literals > end) {
+					throw malformed();
+				}
+				System.arraycopy(src, ip, dst, op, literals);
+				ip += literals;
+				op += literals;
+				if (ip == end) {
+					break;
+				}
+
+				int offset = (src[ip++] & 0xFF) | (src[ip++] & 0xFF) << 8;
+				int ref = op - offset;
+				if (offset == 0 || ref < dstOff) {
+					throw malformed();
+				}
+
+				int matchLen = token & 15;
+				if (matchLen == 15) {
+					int b;
+					do {
+						b = src[ip++] & 0xFF;
+						matchLen += b;
+					}
+					while (b == 255);
+				}
+				matchLen += MIN_MATCH;
+				if (op + matchLen > dstEnd) {
+					throw malformed();
+				}
+				if (offset >= matchLen) {
+					System.arraycopy(dst, ref, dst, op, matchLen);
+					op += matchLen;
+				}
+				else {
+					for (int i = 0; i < matchLen; i++) {
+						dst[op++] = dst[ref++];
+					}
+				}
+			}
+		}
+		catch (ArrayIndexOutOfBoundsException e) {
+			throw malformed();
+		}
+		if (op != dstEnd) {
+			throw malformed();
+		}
+	}
+
+	static int writeLength(byte[] dst, int op, int length) {
+		while (length >= 255) {
+			dst[op++] = (byte) 255;
+			length -= 255;
+		}
+		dst[op++] = (byte) length;
+		return op;
+	}
+
+	static int readInt(byte[] src, int i) {
+		return (src[i] & 0xFF) | (src[i + 1] & 0xFF) << 8 | (src[i + 2] & 0xFF) << 16 |
+				(src[i + 3] & 0xFF) << 24;
+	}
+
+	static int hash(int seq) {
+		return (seq * -1640531535) >>> (32 - HASH_LOG);
+	}
+
+	static IllegalArgumentException malformed() {
+		return new IllegalArgumentException("Malformed LZ4 block");
+	}
+
+	private Lz4Block() {
+	}
+}
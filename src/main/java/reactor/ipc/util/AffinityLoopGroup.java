@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc.util;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.ipc.Channel;
+
+/**
+ * A fixed group of single-threaded event loops pinning every connection to one loop.
+ * <p>
+ * A connection is identified by its {@link Channel#delegate()} when available, so that
+ * several transports or channel views over the same IO runtime connection share the
+ * same loop, and otherwise by the {@link Channel} itself. Its loop is chosen by
+ * consistent hashing on a ring of virtual nodes, keeping most assignments stable when
+ * the group size changes between deployments. Both inbound and outbound processing
+ * should run on the returned {@link Scheduler}, e.g.
+ * {@code channel.receive().publishOn(scheduler)}, to keep per-connection state on a
+ * single core without cross-thread handoffs.
+ * <p>
+ * When rebalancing is enabled, a connection whose hashed loop has more than
+ * {@code maxQueueDepth} pending tasks is assigned to the next loop on the ring below that
+ * depth instead. Assigned connections are never moved, to preserve their ordering, and
+ * must be {@link #release(Object) released} when closed.
+ *
+ * @since 0.6
+ */
+public final class AffinityLoopGroup {
+
+	/**
+	 * Number of ring positions per loop
+	 */
+	static final int VIRTUAL_NODES = 64;
+
+	/**
+	 * Create an {@link AffinityLoopGroup} with one loop per available processor and no
+	 * rebalancing.
+	 *
+	 * @param name the loop thread name prefix
+	 *
+	 * @return a new {@link AffinityLoopGroup}
+	 */
+	public static AffinityLoopGroup create(String name) {
+		return create(name, Runtime.getRuntime().availableProcessors(), 0);
+	}
+
+	/**
+	 * Create an {@link AffinityLoopGroup}.
+	 *
+	 * @param name the loop thread name prefix
+	 * @param loops the number of loops
+	 * @param maxQueueDepth the pending task count above which new connections are
+	 * assigned to another loop, 0 to disable rebalancing
+	 *
+	 * @return a new {@link AffinityLoopGroup}
+	 */
+	public static AffinityLoopGroup create(String name, int loops, int maxQueueDepth) {
+		return new AffinityLoopGroup(name, loops, maxQueueDepth);
+	}
+
+	final Loop[]                      loops;
+	final int[]                       ringHashes;
+	final int[]                       ringOwners;
+	final int                         maxQueueDepth;
+	final ConcurrentMap<Object, Loop> assigned = new ConcurrentHashMap<>();
+
+	AffinityLoopGroup(String name, int loops, int maxQueueDepth) {
+		if (loops < 1) {
+			throw new IllegalArgumentException("loops must be strictly positive, was: " + loops);
+		}
+		if (maxQueueDepth < 0) {
+			throw new IllegalArgumentException("maxQueueDepth must be positive, was: " + maxQueueDepth);
+		}
+		Objects.requireNonNull(name, "name");
+		this.maxQueueDepth = maxQueueDepth;
+		this.loops = new Loop[loops];
+		for (int i = 0; i < loops; i++) {
+			this.loops[i] = new Loop(name + "-" + i);
+		}
+
+		long[] ring = new long[loops * VIRTUAL_NODES];
+		for (int i = 0; i < loops; i++) {
+			for (int j = 0; j < VIRTUAL_NODES; j++) {
+				int h = mix(i * 0x9E3779B9 + j * 0x85EBCA6B);
+				ring[i * VIRTUAL_NODES + j] = ((long) h << 32) | i;
+			}
+		}
+		Arrays.sort(ring);
+		this.ringHashes = new int[ring.length];
+		this.ringOwners = new int[ring.length];
+		for (int i = 0; i < ring.length; i++) {
+			ringHashes[i] = (int) (ring[i] >> 32);
+			ringOwners[i] = (int) ring[i];
+		}
+	}
+
+	/**
+	 * Return the {@link Scheduler} of the loop the given channel is pinned to, assigning
+	 * a loop on first call.
+	 *
+	 * @param channel the channel
+	 *
+	 * @return the pinned {@link Scheduler}
+	 */
+	public Scheduler scheduler(Channel<?, ?> channel) {
+		return scheduler(key(channel));
+	}
+
+	/**
+	 * Return the {@link Scheduler} of the loop the given connection is pinned to,
+	 * assigning a loop on first call.
+	 *
+	 * @param connection the connection identity, e.g. a {@link Channel#delegate()}
+	 *
+	 * @return the pinned {@link Scheduler}
+	 */
+	public Scheduler scheduler(Object connection) {
+		return assigned.computeIfAbsent(connection, this::select).scheduler;
+	}
+
+	/**
+	 * Forget the loop assignment of a closed channel.
+	 *
+	 * @param channel the closed channel
+	 */
+	public void release(Channel<?, ?> channel) {
+		release(key(channel));
+	}
+
+	/**
+	 * Forget the loop assignment of a closed connection.
+	 *
+	 * @param connection the connection identity
+	 */
+	public void release(Object connection) {
+		assigned.remove(connection);
+	}
+
+	/**
+	 * @return the number of loops
+	 */
+	public int loopCount() {
+		return loops.length;
+	}
+
+	/**
+	 * @param loop the loop index
+	 *
+	 * @return the number of tasks pending on the given loop
+	 */
+	public int queueDepth(int loop) {
+		return loops[loop].depth();
+	}
+
+	/**
+	 * @return the number of pinned connections
+	 */
+	public int connectionCount() {
+		return assigned.size();
+	}
+
+	/**
+	 * Stop every loop after their pending tasks.
+	 */
+	public void shutdown() {
+		for (Loop loop : loops) {
+			loop.executor.shutdown();
+		}
+	}
+
+	Loop select(Object connection) {
+		int h = mix(connection.hashCode());
+		int i = Arrays.binarySearch(ringHashes, h);
+		if (i < 0) {
+			i = -i - 1;
+		}
+		int n = ringHashes.length;
+		Loop home = loops[ringOwners[i % n]];
+		if (maxQueueDepth == 0 || home.depth() <= maxQueueDepth) {
+			return home;
+		}
+		Loop least = home;
+		for (int k = 1; k < n; k++) {
+			Loop candidate = loops[ringOwners[(i + k) % n]];
+			int depth = candidate.depth();
+			if (depth <= maxQueueDepth) {
+				return candidate;
+			}
+			if (depth < least.depth()) {
+				least = candidate;
+			}
+		}
+		return least;
+	}
+
+	static Object key(Channel<?, ?> channel) {
+		Object delegate = channel.delegate();
+		return delegate != null ? delegate : channel;
+	}
+
+	static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	static final class Loop implements Executor {
+
+		final ThreadPoolExecutor executor;
+		final Scheduler          scheduler;
+
+		Loop(String name) {
+			this.executor = new ThreadPoolExecutor(1,
+					1,
+					0L,
+					TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<>(),
+					r -> {
+						Thread t = new Thread(r, name);
+						t.setDaemon(true);
+						return t;
+					});
+			this.scheduler = Schedulers.fromExecutor(this);
+		}
+
+		@Override
+		public void execute(Runnable command) {
+			executor.execute(command);
+		}
+
+		int depth() {
+			return executor.getQueue()
+			               .size();
+		}
+	}
+}
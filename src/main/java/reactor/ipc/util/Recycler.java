@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc.util;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * A lightweight object pool recycling decoded messages, e.g. with
+ * {@code inbound.receive(recycler.decoder((buffer, message) -> ...))}.
+ * <p>
+ * Every thread acquires from its own stack without synchronization. A {@link Handle}
+ * released by its acquiring thread goes straight back to that stack, while a handle
+ * released by another thread is pushed to a lock-free return list of the owning stack,
+ * reclaimed by the owner once its stack is empty. Both the stack and the return list are
+ * bounded, extra released objects being left to the garbage collector.
+ * <p>
+ * Release contract: the final consumer of a {@link Handle} calls {@link Handle#release()}
+ * exactly once, after which neither the handle nor the object it holds may be used.
+ * In debug mode, enabled per recycler or with the {@code reactor.ipc.recycler.debug}
+ * system property, every acquire yields a distinct handle so that {@link Handle#get()}
+ * or {@link Handle#release()} on a released handle always fail with an
+ * {@link IllegalStateException} pointing to the release site.
+ *
+ * @param <T> the recycled object type
+ *
+ * @since 0.6
+ */
+public final class Recycler<T> {
+
+	/**
+	 * Default debug mode, set with the {@code reactor.ipc.recycler.debug} system property
+	 */
+	public static final boolean DEBUG = Boolean.getBoolean("reactor.ipc.recycler.debug");
+
+	/**
+	 * Default maximum number of pooled objects per thread
+	 */
+	public static final int DEFAULT_MAX_PER_THREAD = 1024;
+
+	/**
+	 * Create a {@link Recycler} with the default capacity and debug mode.
+	 *
+	 * @param factory the new object factory
+	 * @param reset the callback clearing an object on release
+	 * @param <T> the recycled object type
+	 *
+	 * @return a new {@link Recycler}
+	 */
+	public static <T> Recycler<T> create(Supplier<? extends T> factory,
+			Consumer<? super T> reset) {
+		return create(factory, reset, DEFAULT_MAX_PER_THREAD, DEBUG);
+	}
+
+	/**
+	 * Create a {@link Recycler}.
+	 *
+	 * @param factory the new object factory
+	 * @param reset the callback clearing an object on release
+	 * @param maxPerThread the maximum number of pooled objects per thread
+	 * @param debug true to detect use after release
+	 * @param <T> the recycled object type
+	 *
+	 * @return a new {@link Recycler}
+	 */
+	public static <T> Recycler<T> create(Supplier<? extends T> factory,
+			Consumer<? super T> reset,
+			int maxPerThread,
+			boolean debug) {
+		return new Recycler<>(factory, reset, maxPerThread, debug);
+	}
+
+	final Supplier<? extends T> factory;
+	final Consumer<? super T>   reset;
+	final int                   maxPerThread;
+	final boolean               debug;
+	final ThreadLocal<Stack<T>> stacks;
+
+	Recycler(Supplier<? extends T> factory,
+			Consumer<? super T> reset,
+			int maxPerThread,
+			boolean debug) {
+		if (maxPerThread < 1) {
+			throw new IllegalArgumentException("maxPerThread must be strictly positive, " +
+					"was: " + maxPerThread);
+		}
+		this.factory = Objects.requireNonNull(factory, "factory");
+		this.reset = Objects.requireNonNull(reset, "reset");
+		this.maxPerThread = maxPerThread;
+		this.debug = debug;
+		this.stacks = ThreadLocal.withInitial(() -> new Stack<>(this));
+	}
+
+	/**
+	 * Acquire a pooled or new object.
+	 *
+	 * @return a {@link Handle} to release once done with its object
+	 */
+	public Handle<T> acquire() {
+		Stack<T> stack = stacks.get();
+		Handle<T> h = stack.pop();
+		if (h == null) {
+			h = new Handle<>(stack, factory.get());
+		}
+		h.released = null;
+		return h;
+	}
+
+	/**
+	 * Return a decoding function for {@link reactor.ipc.Inbound#receive(Function)}
+	 * filling recycled objects from each received item.
+	 *
+	 * @param decoder the callback decoding a received item into a recycled object
+	 * @param <IN> the received type
+	 *
+	 * @return a decoding function emitting handles to release once consumed
+	 */
+	public <IN> Function<Flux<IN>, Flux<Handle<T>>> decoder(BiConsumer<? super IN, ? super T> decoder) {
+		Objects.requireNonNull(decoder, "decoder");
+		return inbound -> inbound.map(in -> {
+			Handle<T> h = acquire();
+			try {
+				decoder.accept(in, h.value);
+			}
+			catch (Throwable e) {
+				h.release();
+				throw e;
+			}
+			return h;
+		});
+	}
+
+	/**
+	 * @return the number of objects pooled by the current thread
+	 */
+	public int pooled() {
+		return stacks.get().size;
+	}
+
+	/**
+	 * A recycled object holder.
+	 *
+	 * @param <T> the recycled object type
+	 */
+	public static final class Handle<T> {
+
+		final Stack<T> stack;
+		final T        value;
+
+		Throwable released;
+		Handle<T> next;
+
+		Handle(Stack<T> stack, T value) {
+			this.stack = stack;
+			this.value = value;
+		}
+
+		/**
+		 * @return the held object
+		 * @throws IllegalStateException if this handle has been released
+		 */
+		public T get() {
+			Throwable r = released;
+			if (r != null) {
+				throw new IllegalStateException("Recycled object used after release", r);
+			}
+			return value;
+		}
+
+		/**
+		 * @return true if this handle has been released
+		 */
+		public boolean isReleased() {
+			return released != null;
+		}
+
+		/**
+		 * Reset the held object and return it to its pool.
+		 *
+		 * @throws IllegalStateException if this handle has already been released
+		 */
+		public void release() {
+			Throwable r = released;
+			if (r != null) {
+				throw new IllegalStateException("Recycled object released twice", r);
+			}
+			Recycler<T> recycler = stack.parent;
+			if (recycler.debug) {
+				released = new Exception("Released at");
+				recycler.reset.accept(value);
+				stack.push(new Handle<>(stack, value));
+			}
+			else {
+				released = RELEASED;
+				recycler.reset.accept(value);
+				stack.push(this);
+			}
+		}
+	}
+
+	static final Throwable RELEASED = new Exception("Released", null, false, false) {
+	};
+
+	static final class Stack<T> {
+
+		final Recycler<T> parent;
+		final Thread      owner;
+		final Object[]    elements;
+		int               size;
+
+		volatile Handle<T> returned;
+		@SuppressWarnings("rawtypes")
+		static final AtomicReferenceFieldUpdater<Stack, Handle> RETURNED =
+				AtomicReferenceFieldUpdater.newUpdater(Stack.class, Handle.class, "returned");
+
+		volatile int returnedCount;
+		@SuppressWarnings("rawtypes")
+		static final AtomicIntegerFieldUpdater<Stack> RETURNED_COUNT =
+				AtomicIntegerFieldUpdater.newUpdater(Stack.class, "returnedCount");
+
+		Stack(Recycler<T> parent) {
+			this.parent = parent;
+			this.owner = Thread.currentThread();
+			this.elements = new Object[parent.maxPerThread];
+		}
+
+		@SuppressWarnings("unchecked")
+		Handle<T> pop() {
+			if (size == 0 && !scavenge()) {
+				return null;
+			}
+			Handle<T> h = (Handle<T>) elements[--size];
+			elements[size] = null;
+			return h;
+		}
+
+		void push(Handle<T> h) {
+			if (Thread.currentThread() == owner) {
+				if (size < elements.length) {
+					elements[size++] = h;
+				}
+				return;
+			}
+			if (RETURNED_COUNT.incrementAndGet(this) > elements.length) {
+				RETURNED_COUNT.decrementAndGet(this);
+				return;
+			}
+			for (; ; ) {
+				Handle<T> head = returned;
+				h.next = head;
+				if (RETURNED.compareAndSet(this, head, h)) {
+					return;
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		boolean scavenge() {
+			Handle<T> h = RETURNED.getAndSet(this, null);
+			if (h == null) {
+				return false;
+			}
+			int n = 0;
+			while (h != null) {
+				Handle<T> next = h.next;
+				h.next = null;
+				if (size < elements.length) {
+					elements[size++] = h;
+				}
+				n++;
+				h = next;
+			}
+			RETURNED_COUNT.addAndGet(this, -n);
+			return size != 0;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc.util;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import reactor.core.Exceptions;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+/**
+ * An {@link Executor} running its tasks one at a time and in submission order on top of
+ * a shared worker pool, typically one instance per {@link reactor.ipc.Channel}.
+ * <p>
+ * Tasks are offered to a lock-free multi-producer single-consumer queue and drained by
+ * a single pool task at a time, which yields back to the pool after a bounded number of
+ * tasks so that busy channels don't starve others. Many instances can share a small
+ * work-stealing pool, {@link #create()} using a FIFO {@link ForkJoinPool}, without any
+ * channel being bound to a particular worker.
+ * <p>
+ * Use {@link #scheduler()} in place of a per-channel {@code publishOn} scheduler, e.g.
+ * {@code channel.receive().publishOn(executor.scheduler())}.
+ *
+ * @since 0.6
+ */
+public final class SerializedExecutor implements Executor, Runnable {
+
+	/**
+	 * Default maximum number of tasks run before yielding back to the pool
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 64;
+
+	/**
+	 * Create a {@link SerializedExecutor} on the shared work-stealing pool.
+	 *
+	 * @return a new {@link SerializedExecutor}
+	 */
+	public static SerializedExecutor create() {
+		return create(SharedPool.INSTANCE);
+	}
+
+	/**
+	 * Create a {@link SerializedExecutor} on the given worker pool.
+	 *
+	 * @param workers the shared worker pool
+	 *
+	 * @return a new {@link SerializedExecutor}
+	 */
+	public static SerializedExecutor create(Executor workers) {
+		return create(workers, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Create a {@link SerializedExecutor} on the given worker pool.
+	 *
+	 * @param workers the shared worker pool
+	 * @param batchSize the maximum number of tasks run before yielding back to the pool
+	 *
+	 * @return a new {@link SerializedExecutor}
+	 */
+	public static SerializedExecutor create(Executor workers, int batchSize) {
+		return new SerializedExecutor(workers, batchSize);
+	}
+
+	static final Logger log = Loggers.getLogger(SerializedExecutor.class);
+
+	final Executor workers;
+	final int      batchSize;
+
+	Node head;
+
+	volatile Node tail;
+	static final AtomicReferenceFieldUpdater<SerializedExecutor, Node> TAIL =
+			AtomicReferenceFieldUpdater.newUpdater(SerializedExecutor.class, Node.class, "tail");
+
+	volatile int wip;
+	static final AtomicIntegerFieldUpdater<SerializedExecutor> WIP =
+			AtomicIntegerFieldUpdater.newUpdater(SerializedExecutor.class, "wip");
+
+	SerializedExecutor(Executor workers, int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be strictly positive, " +
+					"was: " + batchSize);
+		}
+		this.workers = Objects.requireNonNull(workers, "workers");
+		this.batchSize = batchSize;
+		Node stub = new Node(null);
+		this.head = stub;
+		this.tail = stub;
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		Node n = new Node(Objects.requireNonNull(task, "task"));
+		Node prev = TAIL.getAndSet(this, n);
+		Node.NEXT.lazySet(prev, n);
+		if (WIP.getAndIncrement(this) == 0) {
+			workers.execute(this);
+		}
+	}
+
+	/**
+	 * @return a {@link Scheduler} view of this executor, every worker sharing its
+	 * ordering guarantee
+	 */
+	public Scheduler scheduler() {
+		return Schedulers.fromExecutor(this);
+	}
+
+	/**
+	 * @return true if no task is pending or running
+	 */
+	public boolean isIdle() {
+		return wip == 0;
+	}
+
+	/**
+	 * Drain loop, run by the worker pool only.
+	 */
+	@Override
+	public void run() {
+		int missed = 1;
+		int budget = batchSize;
+		for (; ; ) {
+			Runnable task;
+			while ((task = poll()) != null) {
+				try {
+					task.run();
+				}
+				catch (Throwable e) {
+					Exceptions.throwIfFatal(e);
+					log.error("Serialized task failed", e);
+				}
+				if (--budget <= 0 && head.next != null) {
+					workers.execute(this);
+					return;
+				}
+			}
+			missed = WIP.addAndGet(this, -missed);
+			if (missed == 0) {
+				return;
+			}
+		}
+	}
+
+	Runnable poll() {
+		Node next = head.next;
+		if (next == null) {
+			return null;
+		}
+		Runnable task = next.task;
+		next.task = null;
+		head = next;
+		return task;
+	}
+
+	static final class Node {
+
+		Runnable task;
+
+		volatile Node next;
+		static final AtomicReferenceFieldUpdater<Node, Node> NEXT =
+				AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+		Node(Runnable task) {
+			this.task = task;
+		}
+	}
+
+	static final class SharedPool {
+
+		static final ForkJoinPool INSTANCE =
+				new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+						ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+						null,
+						true);
+	}
+}
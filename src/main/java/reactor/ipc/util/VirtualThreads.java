@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Helper for running imperative, blocking channel handlers. On runtimes providing
+ * virtual threads, each task runs on its own virtual thread so that blocking reads and
+ * writes never hold a platform thread. Otherwise tasks run on a shared bounded
+ * executor.
+ *
+ * @since 0.6
+ */
+public enum VirtualThreads {
+	;
+
+	/**
+	 * Default number of platform threads of the fallback executor, can be set with the
+	 * {@code reactor.ipc.blocking.maxThreads} system property
+	 */
+	public static final int DEFAULT_MAX_THREADS =
+			Integer.getInteger("reactor.ipc.blocking.maxThreads",
+					Math.max(4, Runtime.getRuntime().availableProcessors() * 4));
+
+	/**
+	 * Default number of pending tasks of the fallback executor, can be set with the
+	 * {@code reactor.ipc.blocking.maxPending} system property
+	 */
+	public static final int DEFAULT_MAX_PENDING =
+			Integer.getInteger("reactor.ipc.blocking.maxPending", 1024);
+
+	private static final ExecutorService VIRTUAL = virtualExecutor();
+
+	private static volatile ExecutorService fallback;
+
+	/**
+	 * @return true if tasks run on virtual threads
+	 */
+	public static boolean isAvailable() {
+		return VIRTUAL != null;
+	}
+
+	/**
+	 * Return an executor running each task on a new virtual thread if available, or the
+	 * shared bounded fallback executor otherwise. Tasks submitted beyond the fallback
+	 * capacity are rejected with {@link java.util.concurrent.RejectedExecutionException}.
+	 *
+	 * @return the executor for blocking channel handlers
+	 */
+	public static ExecutorService executor() {
+		if (VIRTUAL != null) {
+			return VIRTUAL;
+		}
+		ExecutorService e = fallback;
+		if (e == null) {
+			synchronized (VirtualThreads.class) {
+				e = fallback;
+				if (e == null) {
+					e = newBoundedExecutor(DEFAULT_MAX_THREADS, DEFAULT_MAX_PENDING);
+					fallback = e;
+				}
+			}
+		}
+		return e;
+	}
+
+	/**
+	 * Create a bounded executor of daemon platform threads.
+	 *
+	 * @param maxThreads the maximum number of threads
+	 * @param maxPending the maximum number of tasks waiting for a thread
+	 *
+	 * @return a new bounded {@link ExecutorService}
+	 */
+	public static ExecutorService newBoundedExecutor(int maxThreads, int maxPending) {
+		AtomicLong counter = new AtomicLong();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads,
+				maxThreads,
+				60L,
+				TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(maxPending),
+				r -> {
+					Thread t = new Thread(r, "blocking-channel-" + counter.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	static ExecutorService virtualExecutor() {
+		if (Boolean.getBoolean("reactor.ipc.blocking.disableVirtualThreads")) {
+			return null;
+		}
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		}
+		catch (Throwable t) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.ipc.util.VirtualThreads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class BlockingInboundTests {
+
+	@Test
+	public void readRequestsInBatches() throws Exception {
+		List<Long> requests = new CopyOnWriteArrayList<>();
+		Inbound<Integer> inbound = () -> Flux.range(1, 10)
+		                                     .doOnRequest(requests::add);
+
+		BlockingInbound<Integer> blocking = BlockingInbound.create(inbound, 4);
+		int sum = 0;
+		Integer next;
+		while ((next = blocking.read()) != null) {
+			sum += next;
+		}
+
+		assertEquals(55, sum);
+		assertEquals("[4, 3, 3, 3]", requests.toString());
+	}
+
+	@Test
+	public void readFromExecutor() throws Exception {
+		DirectProcessor<String> processor = DirectProcessor.create();
+		BlockingInbound<String> blocking = BlockingInbound.create(() -> processor, 2);
+
+		Future<String> read = VirtualThreads.executor()
+		                                    .submit(() -> blocking.read() + blocking.read());
+		processor.onNext("a");
+		processor.onNext("b");
+
+		assertEquals("ab", read.get(5, TimeUnit.SECONDS));
+		processor.onComplete();
+		assertNull(blocking.read());
+	}
+
+	@Test(expected = TimeoutException.class)
+	public void readTimeout() throws Exception {
+		BlockingInbound.create(Flux::never)
+		               .read(Duration.ofMillis(10));
+	}
+}
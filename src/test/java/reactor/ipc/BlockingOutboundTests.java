@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.ipc.util.VirtualThreads;
+
+import static org.junit.Assert.assertEquals;
+
+public class BlockingOutboundTests {
+
+	@Test
+	public void writeHonoursDemand() throws Exception {
+		List<String> written = new CopyOnWriteArrayList<>();
+		Outbound<String> outbound = d -> Flux.from(d)
+		                                     .doOnNext(written::add)
+		                                     .then();
+
+		Future<?> writer = VirtualThreads.executor()
+		                                 .submit(() -> {
+			                                 try (BlockingOutbound<String> out =
+					                                      BlockingOutbound.create(outbound)) {
+				                                 out.write("a");
+				                                 out.write("b");
+			                                 }
+			                                 return null;
+		                                 });
+
+		writer.get(5, TimeUnit.SECONDS);
+		assertEquals("[a, b]", written.toString());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void writeAfterFailedSend() throws Exception {
+		BlockingOutbound<String> out =
+				BlockingOutbound.create(d -> Flux.from(d)
+				                                 .doOnNext(s -> {
+					                                 throw new IllegalStateException(s);
+				                                 })
+				                                 .then());
+		out.write("a");
+		out.write("b");
+	}
+}
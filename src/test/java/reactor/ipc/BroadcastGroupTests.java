@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BroadcastGroupTests {
+
+	@Test
+	public void everyMemberReceivesSharedItems() {
+		AtomicInteger released = new AtomicInteger();
+		BroadcastGroup<String> group = BroadcastGroup.create(s -> s,
+				s -> released.incrementAndGet(),
+				BroadcastGroup.Overflow.BUFFER,
+				16);
+
+		RecordingOutbound a = new RecordingOutbound(true);
+		RecordingOutbound b = new RecordingOutbound(true);
+		MonoProcessor<Void> aDone = group.add(a)
+		                                 .subscribe();
+		MonoProcessor<Void> bDone = group.add(b)
+		                                 .subscribe();
+		assertEquals(2, group.size());
+
+		group.send(Flux.just("a", "b", "c"))
+		     .block();
+		group.shutdown();
+
+		assertEquals("[a, b, c]", a.items.toString());
+		assertEquals("[a, b, c]", b.items.toString());
+		assertTrue(aDone.isSuccess() && bDone.isSuccess());
+		assertEquals(3, released.get());
+	}
+
+	@Test
+	public void releaseOnceWritten() {
+		AtomicInteger released = new AtomicInteger();
+		BroadcastGroup<String> group = BroadcastGroup.create(s -> s,
+				s -> released.incrementAndGet(),
+				BroadcastGroup.Overflow.BUFFER,
+				16);
+
+		RecordingOutbound member = new RecordingOutbound(false);
+		group.add(member)
+		     .subscribe();
+
+		group.send(Flux.just("a", "b", "c"))
+		     .block();
+
+		assertEquals("[a]", member.items.toString());
+		assertEquals(0, released.get());
+
+		member.complete();
+		assertEquals("[a, b, c]", member.items.toString());
+		assertEquals(1, released.get());
+
+		member.complete();
+		assertEquals(3, released.get());
+	}
+
+	@Test
+	public void dropItemsWhileWriting() {
+		AtomicInteger released = new AtomicInteger();
+		BroadcastGroup<String> group = BroadcastGroup.create(s -> s,
+				s -> released.incrementAndGet(),
+				BroadcastGroup.Overflow.DROP,
+				16);
+
+		RecordingOutbound slow = new RecordingOutbound(false);
+		group.add(slow)
+		     .subscribe();
+
+		group.send(Flux.just("a", "b", "c"))
+		     .block();
+
+		assertEquals("[a]", slow.items.toString());
+		assertEquals(2, released.get());
+
+		slow.complete();
+		assertEquals(3, released.get());
+	}
+
+	@Test
+	public void disconnectSlowMember() {
+		AtomicInteger released = new AtomicInteger();
+		BroadcastGroup<String> group = BroadcastGroup.create(s -> s,
+				s -> released.incrementAndGet(),
+				BroadcastGroup.Overflow.DISCONNECT,
+				2);
+
+		RecordingOutbound slow = new RecordingOutbound(false);
+		RecordingOutbound fast = new RecordingOutbound(true);
+		MonoProcessor<Void> slowDone = group.add(slow)
+		                                    .subscribe();
+		group.add(fast)
+		     .subscribe();
+
+		group.send(Flux.just("a", "b", "c", "d"))
+		     .block();
+
+		assertTrue(slowDone.getError() instanceof IllegalStateException);
+		assertEquals(1, group.size());
+		assertEquals("[a, b, c, d]", fast.items.toString());
+		assertEquals(3, released.get());
+
+		slow.complete();
+		assertEquals(4, released.get());
+	}
+
+	@Test
+	public void leaveOnWriteError() {
+		BroadcastGroup<String> group = BroadcastGroup.create(BroadcastGroup.Overflow.BUFFER, 16);
+
+		RecordingOutbound broken = new RecordingOutbound(false);
+		MonoProcessor<Void> done = group.add(broken)
+		                                .subscribe();
+		group.send(Flux.just("a"))
+		     .block();
+		broken.fail();
+
+		assertEquals("Broken pipe", done.getError()
+		                                .getMessage());
+		assertEquals(0, group.size());
+	}
+
+	/**
+	 * Record every written item, completing writes immediately or on demand
+	 */
+	static final class RecordingOutbound implements Outbound<String> {
+
+		final boolean                    autoComplete;
+		final List<String>               items  = new CopyOnWriteArrayList<>();
+		final Queue<MonoProcessor<Void>> writes = new ConcurrentLinkedQueue<>();
+
+		RecordingOutbound(boolean autoComplete) {
+			this.autoComplete = autoComplete;
+		}
+
+		@Override
+		public Mono<Void> send(Publisher<? extends String> dataStream) {
+			Flux.from(dataStream)
+			    .subscribe(items::add);
+			if (autoComplete) {
+				return Mono.empty();
+			}
+			MonoProcessor<Void> write = MonoProcessor.create();
+			writes.add(write);
+			return write;
+		}
+
+		void complete() {
+			writes.remove()
+			      .onComplete();
+		}
+
+		void fail() {
+			writes.remove()
+			      .onError(new IOException("Broken pipe"));
+		}
+	}
+}
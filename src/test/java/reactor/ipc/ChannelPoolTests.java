@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChannelPoolTests {
+
+	@Test
+	public void warmupConnectsEveryEndpoint() {
+		Endpoint a = new Endpoint();
+		Endpoint b = new Endpoint();
+		ChannelPool<String, String> pool = ChannelPool.create(Arrays.asList(a, b), 3, c -> true);
+
+		pool.warmup()
+		    .block();
+		pool.warmup()
+		    .block();
+
+		assertEquals(6, pool.size());
+		assertEquals(3, a.connected.size());
+		assertEquals(3, b.connected.size());
+	}
+
+	@Test
+	public void preferLeastLoadedChannel() {
+		ChannelPool<String, String> pool = ChannelPool.create(Arrays.asList(new Endpoint()));
+		pool.warmup()
+		    .block();
+
+		List<Channel<String, String>> busy = new ArrayList<>();
+		pool.withChannel(c -> {
+			busy.add(c);
+			return Mono.never();
+		})
+		    .subscribe();
+
+		assertEquals(1L, pool.outstanding());
+		for (int i = 0; i < 10; i++) {
+			assertNotSame(busy.get(0), pool.withChannel(Mono::just)
+			                                .block());
+		}
+		assertEquals(1L, pool.outstanding());
+	}
+
+	@Test
+	public void evictAndReplaceChannelOnTransportError() throws Exception {
+		Endpoint endpoint = new Endpoint();
+		ChannelPool<String, String> pool = ChannelPool.create(Arrays.asList(endpoint));
+		pool.warmup()
+		    .block();
+
+		List<Channel<String, String>> failed = new ArrayList<>();
+		try {
+			pool.withChannel(c -> {
+				failed.add(c);
+				return Mono.error(new IOException("Connection reset"));
+			})
+			    .block();
+			fail();
+		}
+		catch (RuntimeException e) {
+			assertEquals("Connection reset", e.getCause()
+			                                  .getMessage());
+		}
+
+		assertEquals(1, pool.size());
+		assertTrue(((TestChannel) failed.get(0)).closed);
+		await(() -> pool.size() == 2);
+		assertEquals(3, endpoint.connected.size());
+		assertEquals(0L, pool.outstanding());
+	}
+
+	@Test
+	public void keepChannelOnApplicationError() {
+		Endpoint endpoint = new Endpoint();
+		ChannelPool<String, String> pool = ChannelPool.create(Arrays.asList(endpoint));
+		pool.warmup()
+		    .block();
+
+		try {
+			pool.withChannel(c -> Mono.error(new IllegalStateException("Bad request")))
+			    .block();
+			fail();
+		}
+		catch (IllegalStateException e) {
+			assertEquals("Bad request", e.getMessage());
+		}
+
+		assertEquals(2, pool.size());
+		assertEquals(2, endpoint.connected.size());
+		assertFalse(endpoint.connected.get(0).closed);
+		assertFalse(endpoint.connected.get(1).closed);
+		assertEquals(0L, pool.outstanding());
+	}
+
+	@Test
+	public void evictUnhealthyChannel() throws Exception {
+		Endpoint endpoint = new Endpoint();
+		ChannelPool<String, String> pool = ChannelPool.create(Arrays.asList(endpoint),
+				2,
+				c -> ((TestChannel) c).healthy);
+		pool.warmup()
+		    .block();
+		TestChannel unhealthy = endpoint.connected.get(0);
+		unhealthy.healthy = false;
+
+		for (int i = 0; i < 10; i++) {
+			pool.send(Flux.just("ping"))
+			    .block();
+		}
+		await(() -> pool.size() == 2);
+
+		assertTrue(unhealthy.sent.isEmpty());
+		assertTrue(unhealthy.closed);
+		assertEquals(3, endpoint.connected.size());
+		assertEquals(10, endpoint.connected.get(1).sent.size() + endpoint.connected.get(2).sent.size());
+	}
+
+	@Test
+	public void backOffFromEndpointHandingOutUnhealthyChannels() throws Exception {
+		Endpoint endpoint = new Endpoint();
+		ChannelPool<String, String> pool = ChannelPool.create(Arrays.asList(endpoint),
+				2,
+				c -> false);
+		pool.warmup()
+		    .block();
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+		int rejected = 0;
+		while (System.nanoTime() < deadline) {
+			try {
+				pool.send(Flux.just("ping"))
+				    .block();
+				fail();
+			}
+			catch (IllegalStateException e) {
+				assertEquals("No channel available", e.getMessage());
+				rejected++;
+			}
+		}
+		pool.close();
+
+		assertTrue(rejected > 100);
+		assertTrue("connected " + endpoint.connected.size(), endpoint.connected.size() < 20);
+	}
+
+	@Test
+	public void failWithoutChannel() {
+		ChannelPool<String, String> pool = ChannelPool.create(Arrays.asList(new Endpoint()));
+		try {
+			pool.send(Flux.just("ping"))
+			    .block();
+			fail();
+		}
+		catch (IllegalStateException e) {
+			assertEquals("No channel available", e.getMessage());
+		}
+
+		pool.warmup()
+		    .block();
+		pool.close();
+
+		assertEquals(0, pool.size());
+	}
+
+	@Test
+	public void disposeEveryChannelOnClose() {
+		Endpoint endpoint = new Endpoint();
+		List<Channel<String, String>> disposed = new ArrayList<>();
+		ChannelPool<String, String> pool = ChannelPool.create(Arrays.asList(endpoint),
+				2,
+				c -> true,
+				e -> true,
+				disposed::add);
+		pool.warmup()
+		    .block();
+
+		pool.close();
+
+		assertEquals(endpoint.connected, disposed);
+	}
+
+	@Test
+	public void failConnectCompletingEmpty() {
+		Supplier<Publisher<TestChannel>> endpoint = Mono::empty;
+		ChannelPool<String, String> pool = ChannelPool.create(Arrays.asList(endpoint));
+		try {
+			pool.warmup()
+			    .block();
+			fail();
+		}
+		catch (IllegalStateException e) {
+			assertEquals("Endpoint 0 completed without a channel", e.getMessage());
+		}
+
+		assertEquals(0, pool.size());
+	}
+
+	static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.nanoTime() < deadline);
+			Thread.sleep(1);
+		}
+	}
+
+	static final class Endpoint implements Supplier<Publisher<TestChannel>> {
+
+		final List<TestChannel> connected = new CopyOnWriteArrayList<>();
+
+		@Override
+		public Publisher<TestChannel> get() {
+			return Mono.fromCallable(() -> {
+				TestChannel c = new TestChannel();
+				connected.add(c);
+				return c;
+			});
+		}
+	}
+
+	static final class TestChannel implements Channel<String, String>, AutoCloseable {
+
+		final List<String> sent = new CopyOnWriteArrayList<>();
+
+		volatile boolean healthy = true;
+		volatile boolean closed;
+
+		@Override
+		public Flux<String> receive() {
+			return Flux.never();
+		}
+
+		@Override
+		public Mono<Void> send(Publisher<? extends String> dataStream) {
+			return Flux.<String>from(dataStream)
+			           .doOnNext(sent::add)
+			           .then();
+		}
+
+		@Override
+		public Object delegate() {
+			return null;
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ChannelRegistryTests {
+
+	private static final int[] THREADS         = new int[]{1, 2, 4, 8};
+	private static final int   ENTRIES         = 1_000_000;
+	private static final int   LOOKUPS         = 10_000_000;
+	private static final int   TEST_ITERATIONS = 5;
+
+	@Test
+	public void registerLookupAndRemove() {
+		ChannelRegistry<String> registry = ChannelRegistry.create();
+		long a = registry.register("a");
+		long b = registry.register("b");
+
+		assertTrue(a != b);
+		assertEquals("a", registry.get(a));
+		assertEquals("b", registry.get(b));
+		assertEquals(2, registry.size());
+
+		assertEquals("a", registry.remove(a));
+		assertNull(registry.get(a));
+		assertNull(registry.remove(a));
+		assertEquals(1, registry.size());
+
+		assertNull(registry.put(a, "c"));
+		assertEquals("c", registry.put(a, "d"));
+		assertEquals("d", registry.get(a));
+	}
+
+	@Test
+	public void matchReferenceMapUnderRandomUpdates() {
+		ChannelRegistry<Object> registry = ChannelRegistry.create();
+		Map<Long, Object> reference = new HashMap<>();
+		Random random = new Random(42);
+		for (int i = 0; i < 200_000; i++) {
+			long id = 1 + random.nextInt(5000);
+			if (random.nextInt(3) == 0) {
+				assertSame(reference.remove(id), registry.remove(id));
+			}
+			else {
+				Object c = new Object();
+				assertSame(reference.put(id, c), registry.put(id, c));
+			}
+		}
+		assertEquals(reference.size(), registry.size());
+		for (Map.Entry<Long, Object> e : reference.entrySet()) {
+			assertSame(e.getValue(), registry.get(e.getKey()));
+		}
+		List<Object> seen = new ArrayList<>();
+		registry.forEach(seen::add);
+		assertEquals(reference.size(), seen.size());
+	}
+
+	@Test
+	public void removeAllOnShutdown() {
+		ChannelRegistry<String> registry = ChannelRegistry.create();
+		for (int i = 0; i < 100; i++) {
+			registry.register("c" + i);
+		}
+		List<String> removed = new ArrayList<>();
+
+		registry.removeAll(removed::add);
+
+		assertEquals(100, removed.size());
+		assertEquals(0, registry.size());
+		assertNull(registry.get(1));
+	}
+
+	@Test
+	public void neverGetChannelOfReusedSlot() throws InterruptedException {
+		ChannelRegistry<String> registry = ChannelRegistry.create();
+		long a = 1L;
+		long b = a + 1;
+		int mask = registry.table.mask;
+		while (ChannelRegistry.index(b, mask) != ChannelRegistry.index(a, mask)) {
+			b++;
+		}
+		long other = b;
+		registry.put(a, "a");
+		Thread writer = new Thread(() -> {
+			for (int i = 0; i < 1_000_000; i++) {
+				registry.remove(a);
+				registry.put(other, "b");
+				registry.remove(other);
+				registry.put(a, "a");
+			}
+		});
+		writer.start();
+
+		while (writer.isAlive()) {
+			String c = registry.get(a);
+			assertTrue(c == null || c.equals("a"));
+		}
+		writer.join();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectReservedId() {
+		ChannelRegistry.create()
+		               .put(0L, "c");
+	}
+
+	@Test
+	@Ignore
+	public void memoryFootprint() {
+		Object channel = new Object();
+		doMemoryTest("ConcurrentHashMap", () -> {
+			Map<Long, Object> map = new ConcurrentHashMap<>();
+			for (long id = 1; id <= ENTRIES; id++) {
+				map.put(id, channel);
+			}
+			return map;
+		});
+		doMemoryTest("ChannelRegistry", () -> {
+			ChannelRegistry<Object> registry = ChannelRegistry.create();
+			for (int i = 0; i < ENTRIES; i++) {
+				registry.register(channel);
+			}
+			return registry;
+		});
+	}
+
+	@Test
+	@Ignore
+	public void lookupPerformance() throws InterruptedException {
+		Object channel = new Object();
+		Map<Long, Object> map = new ConcurrentHashMap<>();
+		ChannelRegistry<Object> registry = ChannelRegistry.create(ENTRIES);
+		for (long id = 1; id <= ENTRIES; id++) {
+			map.put(id, channel);
+			registry.put(id, channel);
+		}
+		doTest("ConcurrentHashMap lookup", LOOKUPS, () -> map::get);
+		doTest("ChannelRegistry lookup", LOOKUPS, () -> registry::get);
+	}
+
+	@Test
+	@Ignore
+	public void registerPerformance() throws InterruptedException {
+		Object channel = new Object();
+		// fresh maps per iteration, so that at most ENTRIES are live at once
+		doTest("ConcurrentHashMap register", ENTRIES, () -> {
+			AtomicLong ids = new AtomicLong();
+			Map<Long, Object> map = new ConcurrentHashMap<>();
+			return i -> map.put(ids.incrementAndGet(), channel);
+		});
+		doTest("ChannelRegistry register", ENTRIES, () -> {
+			ChannelRegistry<Object> registry = ChannelRegistry.create();
+			return i -> registry.register(channel);
+		});
+	}
+
+	private void doMemoryTest(String description, Supplier<Object> factory) {
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long before = runtime.totalMemory() - runtime.freeMemory();
+		Object retained = factory.get();
+		System.gc();
+		long after = runtime.totalMemory() - runtime.freeMemory();
+		System.out.println(description + " with " + ENTRIES + " entries:");
+		System.out.println("\t bytes per entry: " + (after - before) / ENTRIES);
+		assertTrue(retained != null);
+	}
+
+	private void doTest(String description,
+			int operations,
+			Supplier<LongFunction<Object>> operationFactory)
+			throws InterruptedException {
+		for (int threads : THREADS) {
+			final int iterations = operations / threads;
+			long[] durations = new long[TEST_ITERATIONS];
+
+			for (int i = 0; i < TEST_ITERATIONS; i++) {
+				final LongFunction<Object> operation = operationFactory.get();
+				final CountDownLatch latch = new CountDownLatch(threads);
+
+				long startTime = System.currentTimeMillis();
+
+				for (int j = 0; j < threads; j++) {
+					new Thread(() -> {
+						Random random = new Random();
+						for (int u = 0; u < iterations; u++) {
+							operation.apply(1 + random.nextInt(ENTRIES));
+						}
+						latch.countDown();
+					}).start();
+				}
+
+				latch.await();
+
+				durations[i] = System.currentTimeMillis() - startTime;
+			}
+			long total = 0;
+			for (long duration : durations) {
+				total += duration;
+			}
+			System.out.println(description + " with " + threads + " thread" + (threads > 1 ? "s" : "") + ":");
+			System.out.println("\t average: " + total / durations.length + "ms");
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CoalescingOutboundTests {
+
+	static final Outbound<ByteBuffer> NOOP = d -> Mono.empty();
+
+	static Flux<ByteBuffer> buffers(int count, int size) {
+		return Flux.range(0, count)
+		           .map(i -> ByteBuffer.allocate(size));
+	}
+
+	@Test
+	public void flushOnBatchSize() {
+		List<Integer> sizes = new CopyOnWriteArrayList<>();
+		CoalescingOutbound outbound = CoalescingOutbound.create(NOOP,
+				b -> Mono.fromRunnable(() -> sizes.add(b.length)),
+				4,
+				Integer.MAX_VALUE,
+				Duration.ZERO);
+
+		outbound.send(buffers(10, 10))
+		        .block();
+
+		assertEquals("[4, 4, 2]", sizes.toString());
+	}
+
+	@Test
+	public void flushOnBatchBytes() {
+		List<Integer> sizes = new CopyOnWriteArrayList<>();
+		CoalescingOutbound outbound = CoalescingOutbound.create(NOOP,
+				b -> Mono.fromRunnable(() -> sizes.add(b.length)),
+				64,
+				250,
+				Duration.ZERO);
+
+		outbound.send(buffers(7, 100))
+		        .block();
+
+		assertEquals("[3, 3, 1]", sizes.toString());
+	}
+
+	@Test
+	public void flushOnDelay() throws InterruptedException {
+		CountDownLatch latch = new CountDownLatch(1);
+		List<Integer> sizes = new CopyOnWriteArrayList<>();
+		CoalescingOutbound outbound = CoalescingOutbound.create(NOOP,
+				b -> Mono.fromRunnable(() -> {
+					sizes.add(b.length);
+					latch.countDown();
+				}),
+				64,
+				Integer.MAX_VALUE,
+				Duration.ofMillis(10));
+
+		DirectProcessor<ByteBuffer> processor = DirectProcessor.create();
+		outbound.send(processor)
+		        .subscribe();
+
+		processor.onNext(ByteBuffer.allocate(1));
+		processor.onNext(ByteBuffer.allocate(1));
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals("[2]", sizes.toString());
+		processor.onComplete();
+	}
+
+	@Test
+	public void flushOnSubMillisecondDelay() throws InterruptedException {
+		CountDownLatch latch = new CountDownLatch(1);
+		CoalescingOutbound outbound = CoalescingOutbound.create(NOOP,
+				b -> Mono.fromRunnable(latch::countDown),
+				64,
+				Integer.MAX_VALUE,
+				Duration.ofNanos(500_000));
+
+		DirectProcessor<ByteBuffer> processor = DirectProcessor.create();
+		outbound.send(processor)
+		        .subscribe();
+
+		processor.onNext(ByteBuffer.allocate(1));
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		processor.onComplete();
+	}
+
+	@Test
+	public void gatheringWriteOnDelegate() throws Exception {
+		Pipe pipe = Pipe.open();
+		Outbound<ByteBuffer> outbound = new Outbound<ByteBuffer>() {
+			@Override
+			public Object delegate() {
+				return pipe.sink();
+			}
+
+			@Override
+			public Mono<Void> send(Publisher<? extends ByteBuffer> dataStream) {
+				return Mono.error(new IllegalStateException("not coalesced"));
+			}
+		};
+
+		CoalescingOutbound.create(outbound)
+		                  .send(Flux.just("a", "bc", "def")
+		                            .map(s -> ByteBuffer.wrap(s.getBytes())))
+		                  .block();
+
+		ByteBuffer read = ByteBuffer.allocate(6);
+		while (read.hasRemaining()) {
+			pipe.source()
+			    .read(read);
+		}
+		assertEquals("abcdef", new String(read.array()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectNonBlockingDelegate() throws Exception {
+		Pipe pipe = Pipe.open();
+		pipe.sink()
+		    .configureBlocking(false);
+
+		CoalescingOutbound.create(new Outbound<ByteBuffer>() {
+			@Override
+			public Object delegate() {
+				return pipe.sink();
+			}
+
+			@Override
+			public Mono<Void> send(Publisher<? extends ByteBuffer> dataStream) {
+				return Mono.error(new IllegalStateException("not coalesced"));
+			}
+		});
+	}
+}
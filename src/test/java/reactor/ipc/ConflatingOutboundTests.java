@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.UnicastProcessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConflatingOutboundTests {
+
+	@Test
+	public void keepLatestPerKeyWhileNoDemand() {
+		Outbound<String> target = d -> Flux.<String>from(d)
+		                                   .then();
+		ConflatingOutbound<String> outbound =
+				ConflatingOutbound.create(target, t -> t.substring(0, 1));
+		UnicastProcessor<String> ticks = UnicastProcessor.create();
+		List<String> sent = new CopyOnWriteArrayList<>();
+		AtomicReference<Subscription> subscription = new AtomicReference<>();
+
+		outbound.conflate(ticks)
+		        .subscribe(new Subscriber<String>() {
+			        @Override
+			        public void onSubscribe(Subscription s) {
+				        subscription.set(s);
+			        }
+
+			        @Override
+			        public void onNext(String s) {
+				        sent.add(s);
+			        }
+
+			        @Override
+			        public void onError(Throwable t) {
+			        }
+
+			        @Override
+			        public void onComplete() {
+			        }
+		        });
+
+		ticks.onNext("a1");
+		ticks.onNext("b1");
+		ticks.onNext("a2");
+		ticks.onNext("a3");
+		subscription.get()
+		            .request(1);
+		ticks.onNext("b2");
+		ticks.onNext("a4");
+		subscription.get()
+		            .request(10);
+
+		assertEquals(Arrays.asList("a3", "b2", "a4"), sent);
+	}
+
+	@Test
+	public void sendEverythingWhenTargetKeepsUp() {
+		List<String> sent = new CopyOnWriteArrayList<>();
+		Outbound<String> target = d -> Flux.<String>from(d)
+		                                   .doOnNext(sent::add)
+		                                   .then();
+
+		ConflatingOutbound.create(target, t -> t.substring(0, 1))
+		                  .send(Flux.just("a1", "b1", "a2"))
+		                  .block();
+
+		assertEquals(Arrays.asList("a1", "b1", "a2"), sent);
+	}
+
+	@Test
+	public void failWhenTooManyKeysPending() {
+		AtomicReference<Throwable> error = new AtomicReference<>();
+		Outbound<Integer> target = d -> Flux.<Integer>from(d)
+		                                    .then();
+
+		ConflatingOutbound.create(target, t -> t, 2)
+		                  .conflate(Flux.range(0, 3))
+		                  .subscribe(new Subscriber<Integer>() {
+			                  @Override
+			                  public void onSubscribe(Subscription s) {
+			                  }
+
+			                  @Override
+			                  public void onNext(Integer integer) {
+			                  }
+
+			                  @Override
+			                  public void onError(Throwable t) {
+				                  error.set(t);
+			                  }
+
+			                  @Override
+			                  public void onComplete() {
+			                  }
+		                  });
+
+		assertNotNull(error.get());
+		assertTrue(error.get() instanceof IllegalStateException);
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FileRegionsTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void sendRegionInMappedChunks() throws Exception {
+		byte[] data = new byte[3 * FileRegions.DEFAULT_CHUNK_SIZE];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 31);
+		}
+		File file = folder.newFile();
+		Files.write(file.toPath(), data);
+
+		ByteArrayOutputStream written = new ByteArrayOutputStream();
+		List<Integer> chunks = new CopyOnWriteArrayList<>();
+		Outbound<ByteBuffer> outbound = d -> Flux.from(d)
+		                                         .doOnNext(b -> {
+			                                         chunks.add(b.remaining());
+			                                         while (b.hasRemaining()) {
+				                                         written.write(b.get());
+			                                         }
+		                                         })
+		                                         .then();
+
+		int position = 100;
+		int count = 2 * FileRegions.DEFAULT_CHUNK_SIZE;
+		FileRegions.send(outbound, file.toPath(), position, count)
+		           .block();
+
+		assertEquals(2, chunks.size());
+		byte[] expected = new byte[count];
+		System.arraycopy(data, position, expected, 0, count);
+		assertArrayEquals(expected, written.toByteArray());
+	}
+
+	@Test
+	public void stopAtEndOfFile() throws Exception {
+		File file = folder.newFile();
+		Files.write(file.toPath(), new byte[]{1, 2, 3});
+
+		List<ByteBuffer> chunks = new CopyOnWriteArrayList<>();
+		Outbound<ByteBuffer> outbound = d -> Flux.from(d)
+		                                         .doOnNext(chunks::add)
+		                                         .then();
+
+		FileRegions.send(outbound, file.toPath(), 1, Long.MAX_VALUE)
+		           .block();
+
+		assertEquals(1, chunks.size());
+		assertEquals(2, chunks.get(0).remaining());
+		assertEquals(2, chunks.get(0).get());
+	}
+
+	@Test
+	public void transferRegionToBlockingDelegate() throws Exception {
+		byte[] data = new byte[100_000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		File source = folder.newFile();
+		File target = folder.newFile();
+		Files.write(source.toPath(), data);
+
+		try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE)) {
+			ByteBufferOutbound outbound = new ByteBufferOutbound() {
+				@Override
+				public Mono<Void> send(Publisher<? extends ByteBuffer> dataStream) {
+					return Mono.error(new AssertionError("transferTo expected"));
+				}
+
+				@Override
+				public Object delegate() {
+					return out;
+				}
+			};
+
+			FileRegions.send(outbound, source.toPath(), 1000, 50_000)
+			           .block();
+		}
+
+		assertArrayEquals(Arrays.copyOfRange(data, 1000, 51_000),
+				Files.readAllBytes(target.toPath()));
+	}
+
+	@Test
+	public void sendWithOverriddenSendFile() throws Exception {
+		File file = folder.newFile();
+		List<Long> regions = new CopyOnWriteArrayList<>();
+		Outbound<ByteBuffer> outbound = new ByteBufferOutbound() {
+			@Override
+			public Mono<Void> send(Publisher<? extends ByteBuffer> dataStream) {
+				return Mono.error(new AssertionError("sendFile expected"));
+			}
+
+			@Override
+			public Mono<Void> sendFile(Path f, long position, long count) {
+				regions.add(position);
+				regions.add(count);
+				return Mono.empty();
+			}
+		};
+
+		FileRegions.send(outbound, file.toPath(), 3, 4)
+		           .block();
+
+		assertEquals(Arrays.asList(3L, 4L), regions);
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HedgingTests {
+
+	@Test
+	public void hedgeSlowAttempt() {
+		Hedging hedging = Hedging.create();
+		warmup(hedging, 64);
+		AtomicInteger attempts = new AtomicInteger();
+		AtomicBoolean cancelled = new AtomicBoolean();
+		Mono<String> attempt = Mono.defer(() -> attempts.incrementAndGet() == 1 ?
+				Mono.<String>never().doOnCancel(() -> cancelled.set(true)) :
+				Mono.just("fast"));
+
+		String reply = hedging.hedge(attempt)
+		                      .block(Duration.ofSeconds(5));
+
+		assertEquals("fast", reply);
+		assertEquals(2, attempts.get());
+		assertEquals(1L, hedging.hedged());
+		assertTrue(cancelled.get());
+	}
+
+	@Test
+	public void recordLatencyFromExchangeStart() {
+		AtomicLong clock = new AtomicLong();
+		Hedging hedging = new Hedging(Hedging.DEFAULT_PERCENTILE,
+				Hedging.DEFAULT_BUDGET,
+				clock::get,
+				Schedulers.timer());
+		warmup(hedging, 64);
+		AtomicInteger attempts = new AtomicInteger();
+		Mono<String> attempt = Mono.defer(() -> {
+			clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+			return attempts.incrementAndGet() == 1 ? Mono.never() : Mono.just("fast");
+		});
+
+		hedging.hedge(attempt)
+		       .block(Duration.ofSeconds(5));
+
+		assertEquals(2, attempts.get());
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(20), hedging.samples[64]);
+	}
+
+	@Test
+	public void noHedgeBeforeEnoughReplies() {
+		Hedging hedging = Hedging.create();
+		warmup(hedging, Hedging.MIN_SAMPLES - 1);
+		assertEquals(Long.MAX_VALUE, hedging.delayNanos);
+		AtomicInteger attempts = new AtomicInteger();
+
+		hedging.hedge(Mono.defer(() -> {
+			attempts.incrementAndGet();
+			return Mono.delayMillis(50);
+		}))
+		       .block(Duration.ofSeconds(5));
+
+		assertEquals(1, attempts.get());
+		assertEquals(0L, hedging.hedged());
+	}
+
+	@Test
+	public void limitHedgesToBudget() {
+		Hedging hedging = Hedging.create(0.5d, 0.05d);
+		warmup(hedging, 64);
+		AtomicInteger attempts = new AtomicInteger();
+		Mono<Long> slow = Mono.defer(() -> {
+			attempts.incrementAndGet();
+			return Mono.delayMillis(50);
+		});
+
+		for (int i = 0; i < 10; i++) {
+			hedging.hedge(slow)
+			       .block(Duration.ofSeconds(5));
+		}
+
+		assertEquals(3L, hedging.hedged());
+		assertEquals(13, attempts.get());
+	}
+
+	@Test
+	public void hedgeOnPooledChannels() {
+		ChannelPool<String, String> pool =
+				ChannelPool.create(Arrays.asList(new ChannelPoolTests.Endpoint()));
+		pool.warmup()
+		    .block();
+		Hedging hedging = Hedging.create();
+		warmup(hedging, 64);
+		AtomicInteger attempts = new AtomicInteger();
+
+		Channel<String, String> replied = hedging.hedge(pool, c -> attempts.incrementAndGet() == 1 ?
+				Mono.never() : Mono.just(c))
+		                                         .block(Duration.ofSeconds(5));
+
+		assertTrue(replied instanceof ChannelPoolTests.TestChannel);
+		assertEquals(2, attempts.get());
+		assertEquals(0L, pool.outstanding());
+	}
+
+	static void warmup(Hedging hedging, int replies) {
+		for (int i = 0; i < replies; i++) {
+			hedging.hedge(Mono.just(i))
+			       .block();
+		}
+	}
+}
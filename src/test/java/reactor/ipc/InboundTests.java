@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class InboundTests {
+
+	@Test
+	public void receiveBatchesBySize() {
+		Inbound<Integer> inbound = () -> Flux.range(0, 10);
+
+		List<List<Integer>> batches = inbound.receiveBatches(4, Duration.ofSeconds(10))
+		                                     .collectList()
+		                                     .block();
+
+		assertEquals(Arrays.asList(Arrays.asList(0, 1, 2, 3),
+				Arrays.asList(4, 5, 6, 7),
+				Arrays.asList(8, 9)), batches);
+	}
+
+	@Test
+	public void receiveBatchesByTime() throws Exception {
+		Inbound<Integer> inbound = () -> Flux.just(1, 2)
+		                                     .concatWith(Flux.<Integer>never());
+		List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+
+		inbound.receiveBatches(100, Duration.ofMillis(50))
+		       .subscribe(batches::add);
+		Thread.sleep(300);
+
+		assertEquals(Collections.singletonList(Arrays.asList(1, 2)), batches);
+	}
+
+	@Test
+	public void receiveBatchesAtSlowSubscriberPace() throws Exception {
+		Inbound<Integer> inbound = InboundTests::trickle;
+		List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+		AtomicReference<Subscription> subscription = new AtomicReference<>();
+		AtomicReference<Throwable> error = new AtomicReference<>();
+
+		inbound.receiveBatches(4, Duration.ofMillis(1))
+		       .subscribe(new Subscriber<List<Integer>>() {
+			       @Override
+			       public void onSubscribe(Subscription s) {
+				       subscription.set(s);
+				       s.request(1);
+			       }
+
+			       @Override
+			       public void onNext(List<Integer> batch) {
+				       batches.add(batch);
+			       }
+
+			       @Override
+			       public void onError(Throwable t) {
+				       error.set(t);
+			       }
+
+			       @Override
+			       public void onComplete() {
+			       }
+		       });
+		Thread.sleep(100);
+
+		assertEquals(1, batches.size());
+
+		subscription.get()
+		            .request(2);
+		Thread.sleep(100);
+		subscription.get()
+		            .cancel();
+
+		assertNull(error.get());
+		assertEquals(3, batches.size());
+		assertEquals(4, batches.get(1).size());
+		int next = 0;
+		for (List<Integer> batch : batches) {
+			for (Integer i : batch) {
+				assertEquals(next++, (int) i);
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectEmptyBatches() {
+		Inbound<Integer> inbound = Flux::empty;
+		inbound.receiveBatches(0, Duration.ofMillis(1));
+	}
+
+	/**
+	 * @return an infinite sequence of increasing integers, one per millisecond
+	 */
+	static Flux<Integer> trickle() {
+		return Flux.<Integer, Integer>generate(() -> 0, (i, sink) -> {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+			sink.next(i);
+			return i + 1;
+		})
+		           .subscribeOn(Schedulers.elastic());
+	}
+
+	/**
+	 * Request {@code n} items then cancel after a while, failing on any error.
+	 */
+	static <T> List<T> receiveRequested(Publisher<? extends T> source, long n) throws Exception {
+		List<T> received = new CopyOnWriteArrayList<>();
+		AtomicReference<Subscription> subscription = new AtomicReference<>();
+		AtomicReference<Throwable> error = new AtomicReference<>();
+		source.subscribe(new Subscriber<T>() {
+			@Override
+			public void onSubscribe(Subscription s) {
+				subscription.set(s);
+				s.request(n);
+			}
+
+			@Override
+			public void onNext(T t) {
+				received.add(t);
+			}
+
+			@Override
+			public void onError(Throwable t) {
+				error.set(t);
+			}
+
+			@Override
+			public void onComplete() {
+			}
+		});
+		Thread.sleep(100);
+		subscription.get()
+		            .cancel();
+		assertNull(error.get());
+		return received;
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+
+import static org.junit.Assert.assertEquals;
+
+public class IntInboundTests {
+
+	@Test
+	public void batchBoxedInbound() {
+		Inbound<Integer> boxed = () -> Flux.range(1, 10);
+
+		List<int[]> batches = IntInbound.fromBoxed(boxed, 4, Duration.ofSeconds(10))
+		                                .receive()
+		                                .collectList()
+		                                .block();
+
+		assertEquals(3, batches.size());
+		assertEquals(4, batches.get(0).length);
+		assertEquals(2, batches.get(2).length);
+		assertEquals(10, batches.get(2)[1]);
+	}
+
+	@Test
+	public void boxedView() {
+		IntInbound inbound = () -> Flux.just(new int[]{1, 2}, new int[]{3});
+
+		assertEquals("[1, 2, 3]",
+				inbound.boxed()
+				       .receive()
+				       .collectList()
+				       .block()
+				       .toString());
+	}
+
+	@Test
+	public void batchAtSubscriberPace() throws Exception {
+		Inbound<Integer> boxed = InboundTests::trickle;
+
+		List<int[]> batches =
+				InboundTests.receiveRequested(IntInbound.fromBoxed(boxed, 4, Duration.ofMillis(1))
+				                                        .receive(), 2);
+
+		assertEquals(2, batches.size());
+		assertEquals(0, batches.get(0)[0]);
+		assertEquals(batches.get(0).length, batches.get(1)[0]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectInvalidBatchSizeEagerly() {
+		IntInbound.fromBoxed(Flux::empty, 0, Duration.ofMillis(1));
+	}
+}
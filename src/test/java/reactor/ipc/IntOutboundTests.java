@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.junit.Assert.assertEquals;
+
+public class IntOutboundTests {
+
+	@Test
+	public void roundTrip() {
+		List<Integer> written = new CopyOnWriteArrayList<>();
+		IntOutbound outbound =
+				IntOutbound.fromBoxed(d -> Flux.from(d)
+				                              .doOnNext(written::add)
+				                              .then());
+
+		outbound.sendInts(1, 2, 3)
+		        .block();
+		outbound.boxed(2, Duration.ofSeconds(10))
+		        .send(Flux.range(4, 3))
+		        .block();
+
+		assertEquals("[1, 2, 3, 4, 5, 6]", written.toString());
+	}
+
+	@Test
+	public void batchAtTransportPace() throws Exception {
+		List<List<int[]>> written = new CopyOnWriteArrayList<>();
+		IntOutbound outbound = d -> {
+			try {
+				written.add(InboundTests.<int[]>receiveRequested(d, 2));
+			}
+			catch (Exception e) {
+				return Mono.error(e);
+			}
+			return Mono.empty();
+		};
+
+		outbound.boxed(4, Duration.ofMillis(1))
+		        .send(InboundTests.trickle())
+		        .block(Duration.ofSeconds(5));
+
+		List<int[]> batches = written.get(0);
+		assertEquals(2, batches.size());
+		assertEquals(0, batches.get(0)[0]);
+		assertEquals(batches.get(0).length, batches.get(1)[0]);
+	}
+}
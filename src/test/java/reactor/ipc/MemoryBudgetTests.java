@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.Flux;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryBudgetTests {
+
+	@Test
+	public void releaseBudgetOnceDelivered() {
+		MemoryBudget budget = MemoryBudget.create(1000);
+		Inbound<ByteBuffer> inbound = () -> Flux.range(0, 100)
+		                                        .map(i -> ByteBuffer.allocate(100));
+
+		long count = budget.budget(inbound)
+		                   .receive()
+		                   .count()
+		                   .block();
+
+		assertEquals(100L, count);
+		assertEquals(0L, budget.used());
+		assertEquals(0L, budget.accounts());
+	}
+
+	@Test
+	public void lowerDemandNearExhaustion() {
+		MemoryBudget budget = MemoryBudget.create(1000);
+		AtomicLong requested = new AtomicLong();
+		Subscription s = subscribe(budget, requested);
+
+		assertEquals(10L, requested.get());
+		assertEquals(1000L, budget.used());
+		assertTrue(budget.throttled() > 0L);
+
+		s.request(5);
+		assertEquals(15L, requested.get());
+
+		s.cancel();
+		assertEquals(0L, budget.used());
+		assertEquals(0L, budget.accounts());
+	}
+
+	@Test
+	public void holdSequencesToFairShareAboveHighWatermark() {
+		MemoryBudget budget = MemoryBudget.create(1000, 0.5d);
+		AtomicLong first = new AtomicLong();
+		AtomicLong second = new AtomicLong();
+		subscribe(budget, first);
+		subscribe(budget, second);
+
+		assertEquals(10L, first.get());
+		assertEquals(5L, second.get());
+		assertEquals(500L, budget.fairShare());
+	}
+
+	static Subscription subscribe(MemoryBudget budget, AtomicLong requested) {
+		AtomicReference<Subscription> subscription = new AtomicReference<>();
+		budget.budget(Flux.range(0, 1000)
+		                  .doOnRequest(requested::addAndGet)
+		                  .map(i -> ByteBuffer.allocate(100)), ByteBuffer::remaining)
+		      .subscribe(new Subscriber<ByteBuffer>() {
+			      @Override
+			      public void onSubscribe(Subscription s) {
+				      subscription.set(s);
+			      }
+
+			      @Override
+			      public void onNext(ByteBuffer buffer) {
+			      }
+
+			      @Override
+			      public void onError(Throwable t) {
+			      }
+
+			      @Override
+			      public void onComplete() {
+			      }
+		      });
+		return subscription.get();
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionedInboundTests {
+
+	@Test
+	public void keepPerKeyOrderAcrossRails() {
+		Inbound<Integer> inbound = () -> Flux.range(0, 10_000);
+		Map<Integer, List<Integer>> byKey = new ConcurrentHashMap<>();
+		Map<Integer, Set<String>> threads = new ConcurrentHashMap<>();
+
+		long count = inbound.receivePartitioned(i -> i % 16, 4)
+		                    .doOnNext(i -> {
+			                    byKey.computeIfAbsent(i % 16, k -> new ArrayList<>())
+			                         .add(i);
+			                    threads.computeIfAbsent(i % 16,
+					                    k -> ConcurrentHashMap.newKeySet())
+			                           .add(Thread.currentThread()
+			                                      .getName());
+		                    })
+		                    .sequential()
+		                    .count()
+		                    .block();
+
+		assertEquals(10_000L, count);
+		assertEquals(16, byKey.size());
+		for (Map.Entry<Integer, List<Integer>> e : byKey.entrySet()) {
+			List<Integer> values = e.getValue();
+			for (int i = 0; i < values.size(); i++) {
+				assertEquals(e.getKey() + 16 * i, (int) values.get(i));
+			}
+			assertEquals(1, threads.get(e.getKey())
+			                       .size());
+		}
+	}
+
+	@Test
+	public void boundDemandWhenRailsDoNotRequest() {
+		AtomicLong requested = new AtomicLong();
+		Inbound<Integer> inbound = () -> Flux.range(0, 1000)
+		                                     .doOnRequest(requested::addAndGet);
+		List<Subscription> subscriptions = new ArrayList<>();
+		Subscriber<Integer> idle = new Subscriber<Integer>() {
+			@Override
+			public void onSubscribe(Subscription s) {
+				subscriptions.add(s);
+			}
+
+			@Override
+			public void onNext(Integer integer) {
+			}
+
+			@Override
+			public void onError(Throwable t) {
+			}
+
+			@Override
+			public void onComplete() {
+			}
+		};
+
+		@SuppressWarnings("unchecked")
+		Subscriber<Integer>[] rails = new Subscriber[]{idle, idle};
+		new PartitionedInbound<>(inbound.receive(), i -> i, 2, 16, Schedulers.single())
+				.subscribe(rails);
+
+		assertEquals(16L, requested.get());
+		subscriptions.forEach(Subscription::cancel);
+	}
+
+	@Test
+	public void releaseItemsOfferedAfterRailCancel() {
+		AtomicLong requested = new AtomicLong();
+		DirectProcessor<Integer> processor = DirectProcessor.create();
+		Flux<Integer> source = processor.doOnRequest(requested::addAndGet);
+		List<Subscription> subscriptions = new ArrayList<>();
+		Subscriber<Integer> idle = new Subscriber<Integer>() {
+			@Override
+			public void onSubscribe(Subscription s) {
+				subscriptions.add(s);
+			}
+
+			@Override
+			public void onNext(Integer integer) {
+			}
+
+			@Override
+			public void onError(Throwable t) {
+			}
+
+			@Override
+			public void onComplete() {
+			}
+		};
+
+		@SuppressWarnings("unchecked")
+		Subscriber<Integer>[] rails = new Subscriber[]{idle, idle};
+		new PartitionedInbound<>(source, i -> i, 2, 1, Schedulers.immediate())
+				.subscribe(rails);
+		assertEquals(1L, requested.get());
+
+		@SuppressWarnings("unchecked")
+		PartitionedInbound.Rail<Integer> rail =
+				(PartitionedInbound.Rail<Integer>) subscriptions.get(0);
+		rail.cancel();
+		// an item dispatched to the rail just before it was cancelled
+		rail.queue.offer(0);
+		rail.schedule();
+
+		assertTrue(rail.queue.isEmpty());
+		assertEquals(0, rail.wip);
+		assertEquals(2L, requested.get());
+		subscriptions.get(1)
+		             .cancel();
+	}
+
+	@Test
+	public void spreadKeysOverAllRails() {
+		boolean[] used = new boolean[8];
+		for (int key = 0; key < 64; key++) {
+			used[PartitionedInbound.rail(key, 8)] = true;
+		}
+		for (boolean u : used) {
+			assertTrue(u);
+		}
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PipesTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void forwardSameItemsInFlushWindows() {
+		List<ByteBuffer> received = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			received.add(ByteBuffer.allocate(1));
+		}
+		List<List<ByteBuffer>> windows = new CopyOnWriteArrayList<>();
+		Outbound<ByteBuffer> outbound = d -> Flux.<ByteBuffer>from(d)
+		                                         .collectList()
+		                                         .doOnNext(windows::add)
+		                                         .then();
+
+		Pipes.pipe(() -> Flux.fromIterable(received), outbound, 4, Duration.ofSeconds(10))
+		     .block();
+
+		assertEquals(3, windows.size());
+		assertEquals(4, windows.get(0).size());
+		assertEquals(2, windows.get(2).size());
+		assertSame(received.get(9), windows.get(2).get(1));
+	}
+
+	@Test
+	public void upstreamDemandBoundedByWindow() {
+		AtomicLong maxRequest = new AtomicLong();
+		AtomicLong count = new AtomicLong();
+		Inbound<Integer> inbound = () -> Flux.range(1, 1000)
+		                                     .doOnRequest(n -> maxRequest.accumulateAndGet(n,
+				                                     Math::max));
+		Outbound<Integer> outbound = d -> Flux.from(d)
+		                                      .doOnNext(v -> count.incrementAndGet())
+		                                      .then();
+
+		Pipes.pipe(inbound, outbound, 16, Duration.ZERO)
+		     .block();
+
+		assertEquals(1000, count.get());
+		assertTrue("requested " + maxRequest.get(), maxRequest.get() <= 16);
+	}
+
+	@Test
+	public void flushAfterDelay() {
+		Inbound<String> inbound = () -> Flux.just("a")
+		                                    .concatWith(Flux.never());
+		List<String> flushed = new CopyOnWriteArrayList<>();
+		Outbound<String> outbound = d -> Flux.from(d)
+		                                     .collectList()
+		                                     .doOnNext(l -> flushed.addAll(l))
+		                                     .then();
+
+		Mono<Void> pipe = Pipes.pipe(inbound, outbound, 16, Duration.ofMillis(10));
+		pipe.subscribe();
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (flushed.isEmpty() && System.currentTimeMillis() < deadline) {
+			Thread.yield();
+		}
+		assertEquals("[a]", flushed.toString());
+	}
+
+	@Test
+	public void forwardAtSlowOutboundPace() {
+		Inbound<Integer> inbound = () -> InboundTests.trickle()
+		                                             .take(100);
+		List<List<Integer>> windows = new CopyOnWriteArrayList<>();
+		Outbound<Integer> outbound = d -> Flux.<Integer>from(d)
+		                                      .collectList()
+		                                      .doOnNext(windows::add)
+		                                      .then(() -> Mono.delayMillis(5)
+		                                                      .then());
+
+		Pipes.pipe(inbound, outbound, 4, Duration.ofMillis(1))
+		     .block(Duration.ofSeconds(10));
+
+		int next = 0;
+		for (List<Integer> window : windows) {
+			assertTrue(window.size() <= 4);
+			for (Integer i : window) {
+				assertEquals(next++, (int) i);
+			}
+		}
+		assertEquals(100, next);
+	}
+
+	@Test(expected = CancellationException.class)
+	public void failWhenOutboundCancels() {
+		Outbound<Integer> outbound = d -> Flux.from(d)
+		                                      .take(1)
+		                                      .then();
+
+		Pipes.pipe(() -> Flux.range(0, 10), outbound, 4, Duration.ofSeconds(10))
+		     .block();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void forwardInboundError() {
+		Inbound<String> inbound = () -> Flux.just("a")
+		                                    .concatWith(Flux.error(new IllegalStateException()));
+		Outbound<String> outbound = d -> Flux.from(d)
+		                                     .then();
+
+		Pipes.pipe(inbound, outbound)
+		     .block();
+	}
+
+	@Test
+	public void transferBetweenFileChannels() throws Exception {
+		byte[] data = new byte[100_000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		File source = folder.newFile();
+		File target = folder.newFile();
+		Files.write(source.toPath(), data);
+
+		try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+		     FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE)) {
+			Pipes.pipe(new FileInbound(in), new FileOutbound(out))
+			     .block();
+		}
+
+		assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+	}
+
+	static final class FileInbound implements Inbound<ByteBuffer> {
+
+		final FileChannel channel;
+
+		FileInbound(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public Flux<ByteBuffer> receive() {
+			return Flux.error(new AssertionError("transferTo expected"));
+		}
+
+		@Override
+		public Object delegate() {
+			return channel;
+		}
+	}
+
+	static final class FileOutbound implements Outbound<ByteBuffer> {
+
+		final FileChannel channel;
+
+		FileOutbound(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public Mono<Void> send(Publisher<? extends ByteBuffer> dataStream) {
+			return Mono.error(new AssertionError("transferTo expected"));
+		}
+
+		@Override
+		public Object delegate() {
+			return channel;
+		}
+	}
+}
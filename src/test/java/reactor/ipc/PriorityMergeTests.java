@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.UnicastProcessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PriorityMergeTests {
+
+	@Test
+	public void interleaveByWeight() {
+		Recorder<String> recorder = new Recorder<>();
+		PriorityMerge.merge(Flux.<String>empty(),
+				Flux.range(0, 10)
+				    .map(i -> "i" + i),
+				Flux.range(0, 10)
+				    .map(i -> "b" + i))
+		             .subscribe(recorder);
+		recorder.request(Long.MAX_VALUE);
+
+		assertEquals(Arrays.asList("i0", "i1", "i2", "i3", "b0",
+				"i4", "i5", "i6", "i7", "b1",
+				"i8", "i9", "b2", "b3", "b4", "b5", "b6", "b7", "b8", "b9"),
+				recorder.values);
+		assertTrue(recorder.completed);
+	}
+
+	@Test
+	public void controlPreemptsBulk() {
+		UnicastProcessor<String> control = UnicastProcessor.create();
+		Recorder<String> recorder = new Recorder<>();
+		PriorityMerge.merge(control,
+				Flux.<String>never(),
+				Flux.range(0, 100)
+				    .map(i -> "b" + i))
+		             .subscribe(recorder);
+
+		recorder.request(2);
+		control.onNext("heartbeat");
+		recorder.request(2);
+		control.onComplete();
+
+		assertEquals(Arrays.asList("b0", "b1", "heartbeat", "b2"), recorder.values);
+	}
+
+	@Test
+	public void sendPrioritizedOnOneChannel() {
+		List<String> written = new CopyOnWriteArrayList<>();
+		Outbound<String> outbound = d -> Flux.from(d)
+		                                     .doOnNext(written::add)
+		                                     .then();
+
+		outbound.sendPrioritized(Flux.just("c0"), Flux.just("i0"), Flux.just("b0"))
+		        .block();
+
+		assertEquals(3, written.size());
+		assertTrue(written.containsAll(Arrays.asList("c0", "i0", "b0")));
+	}
+
+	@Test
+	public void errorCancelsOtherSources() {
+		UnicastProcessor<String> control = UnicastProcessor.create();
+		AtomicBoolean bulkCancelled = new AtomicBoolean();
+		Recorder<String> recorder = new Recorder<>();
+		PriorityMerge.merge(control,
+				Flux.<String>never(),
+				Flux.<String>never().doOnCancel(() -> bulkCancelled.set(true)))
+		             .subscribe(recorder);
+		recorder.request(1);
+		control.onError(new IllegalStateException("boom"));
+
+		assertTrue(recorder.error.get() instanceof IllegalStateException);
+		assertTrue(bulkCancelled.get());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectMismatchedWeights() {
+		Publisher<String> p = Flux.empty();
+		PriorityMerge.merge(p, new int[]{1}, 8, p, p);
+	}
+
+	static final class Recorder<T> implements Subscriber<T> {
+
+		final List<T>                    values = new CopyOnWriteArrayList<>();
+		final AtomicReference<Throwable> error  = new AtomicReference<>();
+
+		Subscription s;
+		volatile boolean completed;
+
+		@Override
+		public void onSubscribe(Subscription s) {
+			this.s = s;
+		}
+
+		@Override
+		public void onNext(T t) {
+			values.add(t);
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			error.set(t);
+		}
+
+		@Override
+		public void onComplete() {
+			completed = true;
+		}
+
+		void request(long n) {
+			s.request(n);
+		}
+	}
+}
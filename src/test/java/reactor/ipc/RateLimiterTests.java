@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterTests {
+
+	@Test
+	public void grantUpToBurstThenRefill() {
+		AtomicLong clock = new AtomicLong();
+		RateLimiter limiter = new RateLimiter(10, 5, clock::get, Schedulers.timer());
+
+		assertEquals(5L, limiter.tryAcquire(10));
+		assertEquals(0L, limiter.tryAcquire(1));
+
+		clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+		assertEquals(1L, limiter.tryAcquire(10));
+
+		clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+		assertEquals(5L, limiter.available());
+	}
+
+	@Test
+	public void overdrawOnUnconditionalAcquire() {
+		AtomicLong clock = new AtomicLong();
+		RateLimiter limiter = new RateLimiter(10, 5, clock::get, Schedulers.timer());
+
+		limiter.acquire(10);
+		clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+		assertEquals(0L, limiter.available());
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(100), limiter.nanosUntil(1));
+
+		clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+		assertEquals(5L, limiter.available());
+	}
+
+	@Test
+	public void limitRequestsToGrantedPermits() {
+		RateLimiter limiter = RateLimiter.create(200, 10);
+		List<Long> requests = new CopyOnWriteArrayList<>();
+
+		long start = System.nanoTime();
+		long count = limiter.limit(Flux.range(0, 50)
+		                               .doOnRequest(requests::add))
+		                    .count()
+		                    .block();
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertEquals(50L, count);
+		assertTrue("elapsed " + elapsed, elapsed >= 150);
+		for (long r : requests) {
+			assertTrue("requested " + r, r <= 10);
+		}
+	}
+
+	@Test
+	public void shareLimiterAcrossOutbounds() {
+		RateLimiter limiter = RateLimiter.create(100, 5);
+		AtomicLong written = new AtomicLong();
+		Outbound<ByteBuffer> channel = d -> Flux.from(d)
+		                                        .doOnNext(b -> written.addAndGet(b.remaining()))
+		                                        .then();
+		Outbound<ByteBuffer> first = limiter.limitOutboundBytes(channel);
+		Outbound<ByteBuffer> second = limiter.limitOutboundBytes(channel);
+
+		long start = System.nanoTime();
+		first.send(Flux.range(0, 5)
+		               .map(i -> ByteBuffer.allocate(2)))
+		     .and(second.send(Flux.range(0, 5)
+		                          .map(i -> ByteBuffer.allocate(2))))
+		     .block();
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertEquals(20L, written.get());
+		assertTrue("elapsed " + elapsed, elapsed >= 100);
+	}
+}
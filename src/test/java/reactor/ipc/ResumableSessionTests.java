@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.core.publisher.UnicastProcessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ResumableSessionTests {
+
+	@Test
+	public void resumeAfterConnectionLoss() throws Exception {
+		ResumableSession a = ResumableSession.create();
+		ResumableSession b = ResumableSession.create();
+		List<Integer> received = new CopyOnWriteArrayList<>();
+
+		Link first = new Link(50);
+		a.attach(first.a, 0)
+		 .subscribe();
+		b.attach(first.b, 0)
+		 .subscribe(f -> received.add(f.getInt(0)));
+
+		a.send(Flux.range(0, 100)
+		           .map(ResumableSessionTests::payload))
+		 .block();
+
+		assertEquals(50, received.size());
+		assertEquals(50, b.lastReceived());
+		first.close();
+
+		Link second = new Link(Integer.MAX_VALUE);
+		a.attach(second.a, b.lastReceived())
+		 .subscribe();
+		b.attach(second.b, a.lastReceived())
+		 .subscribe(f -> received.add(f.getInt(0)));
+
+		assertEquals(100, received.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, (int) received.get(i));
+		}
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (a.ring.firstSeq != 101L && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(101L, a.ring.firstSeq);
+		assertEquals(0, a.ring.used);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectResumeBehindReplayBuffer() {
+		ResumableSession a = ResumableSession.create();
+		a.send(Flux.range(0, 10)
+		           .map(ResumableSessionTests::payload))
+		 .block();
+		a.acknowledge(5);
+
+		a.attach(new Link(0).a, 2)
+		 .blockLast();
+	}
+
+	@Test
+	public void stopSendingWhenReplayBufferFull() {
+		ResumableSession a = ResumableSession.create(UUID.randomUUID(), 64);
+
+		MonoProcessor<Void> sent = a.send(Flux.range(0, 100)
+		                                      .map(ResumableSessionTests::payload))
+		                            .subscribe();
+
+		assertFalse(sent.isTerminated());
+		assertEquals(8, a.lastSent());
+
+		a.acknowledge(4);
+		assertEquals(12, a.lastSent());
+
+		for (int i = 0; i < 100 && !sent.isTerminated(); i++) {
+			a.acknowledge(a.lastSent());
+		}
+		assertTrue(sent.isTerminated());
+		assertEquals(100, a.lastSent());
+	}
+
+	static ByteBuffer payload(int i) {
+		ByteBuffer b = ByteBuffer.allocate(4);
+		b.putInt(0, i);
+		return b;
+	}
+
+	/**
+	 * Two connected in-memory channels, delivering only the first data frames from
+	 * {@code a} to {@code b}
+	 */
+	static final class Link {
+
+		final UnicastProcessor<ByteBuffer> toA = UnicastProcessor.create();
+		final UnicastProcessor<ByteBuffer> toB = UnicastProcessor.create();
+		final Channel<ByteBuffer, ByteBuffer> a;
+		final Channel<ByteBuffer, ByteBuffer> b;
+
+		Link(int delivered) {
+			AtomicInteger data = new AtomicInteger();
+			this.a = new LinkChannel(toA, f -> f.get(0) != ResumableSession.DATA ||
+					data.incrementAndGet() <= delivered, toB);
+			this.b = new LinkChannel(toB, f -> true, toA);
+		}
+
+		void close() {
+			toA.onComplete();
+			toB.onComplete();
+		}
+	}
+
+	static final class LinkChannel implements Channel<ByteBuffer, ByteBuffer> {
+
+		final Flux<ByteBuffer>                                inbound;
+		final Predicate<ByteBuffer>                           filter;
+		final UnicastProcessor<ByteBuffer>                    outbound;
+
+		LinkChannel(Flux<ByteBuffer> inbound,
+				Predicate<ByteBuffer> filter,
+				UnicastProcessor<ByteBuffer> outbound) {
+			this.inbound = inbound;
+			this.filter = filter;
+			this.outbound = outbound;
+		}
+
+		@Override
+		public Flux<ByteBuffer> receive() {
+			return inbound;
+		}
+
+		@Override
+		public Mono<Void> send(Publisher<? extends ByteBuffer> dataStream) {
+			return Flux.<ByteBuffer>from(dataStream)
+			           .filter(filter)
+			           .doOnNext(outbound::onNext)
+			           .then();
+		}
+
+		@Override
+		public Object delegate() {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.UnicastProcessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SheddingInboundTests {
+
+	final AtomicLong                    clock        = new AtomicLong();
+	final List<Integer>                 received     = new CopyOnWriteArrayList<>();
+	final List<Integer>                 dropped      = new CopyOnWriteArrayList<>();
+	final AtomicReference<Subscription> subscription = new AtomicReference<>();
+
+	@Test
+	public void deliverEverythingUnderTarget() {
+		SheddingInbound<Integer> inbound = shedding(() -> Flux.range(0, 10));
+
+		long count = inbound.receive()
+		                    .count()
+		                    .block();
+
+		assertEquals(10L, count);
+		assertTrue(dropped.isEmpty());
+	}
+
+	@Test
+	public void dropWhenQueueTimeStaysAboveTarget() {
+		subscribe(shedding(() -> Flux.range(0, 100)));
+
+		advance(50);
+		request(1);
+		advance(150);
+		request(1);
+
+		assertEquals(Arrays.asList(0, 2), received);
+		assertEquals(Collections.singletonList(1), dropped);
+
+		request(1);
+		assertEquals(Arrays.asList(0, 2, 3), received);
+
+		advance(100);
+		request(1);
+		assertEquals(Arrays.asList(1, 4), dropped);
+		assertEquals(Arrays.asList(0, 2, 3, 5), received);
+	}
+
+	@Test
+	public void stopDroppingOnceQueueTimeRecovers() {
+		UnicastProcessor<Integer> source = UnicastProcessor.create();
+		subscribe(shedding(() -> source));
+		source.onNext(0);
+		source.onNext(1);
+		source.onNext(2);
+
+		advance(200);
+		request(1);
+		advance(150);
+		request(1);
+		source.onNext(3);
+		source.onNext(4);
+		request(2);
+
+		assertEquals(Collections.singletonList(1), dropped);
+		assertEquals(Arrays.asList(0, 2, 3, 4), received);
+	}
+
+	SheddingInbound<Integer> shedding(Inbound<Integer> inbound) {
+		return new SheddingInbound<>(inbound,
+				Duration.ofMillis(5),
+				Duration.ofMillis(100),
+				128,
+				dropped::add,
+				clock::get);
+	}
+
+	void subscribe(SheddingInbound<Integer> inbound) {
+		inbound.receive()
+		       .subscribe(new Subscriber<Integer>() {
+			       @Override
+			       public void onSubscribe(Subscription s) {
+				       subscription.set(s);
+			       }
+
+			       @Override
+			       public void onNext(Integer integer) {
+				       received.add(integer);
+			       }
+
+			       @Override
+			       public void onError(Throwable t) {
+			       }
+
+			       @Override
+			       public void onComplete() {
+			       }
+		       });
+	}
+
+	void advance(long millis) {
+		clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+	}
+
+	void request(long n) {
+		subscription.get()
+		            .request(n);
+	}
+}
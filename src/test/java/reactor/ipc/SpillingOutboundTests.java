@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SpillingOutboundTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void spillWhileWritingAndReplayInOrder() throws Exception {
+		Path dir = folder.newFolder()
+		                 .toPath();
+		ManualTarget target = new ManualTarget();
+
+		try (SpillingOutbound outbound = SpillingOutbound.create(target, dir, 1024)) {
+			outbound.send(Flux.range(0, 100)
+			                  .map(SpillingOutboundTests::record))
+			        .block();
+
+			assertEquals(1, target.received.size());
+			assertEquals(99, outbound.pending());
+			assertTrue(segments(dir) > 5);
+
+			target.complete();
+			assertEquals(1 + SpillingOutbound.MAX_WRITE_SIZE, target.received.size());
+			assertEquals(99 - SpillingOutbound.MAX_WRITE_SIZE, outbound.pending());
+
+			while (!target.writes.isEmpty()) {
+				target.complete();
+			}
+			assertEquals(100, target.received.size());
+			assertEquals(0, outbound.pending());
+			assertTrue(segments(dir) <= 2);
+			for (int i = 0; i < 100; i++) {
+				assertEquals(i, target.received.get(i)
+				                               .getInt(0));
+			}
+		}
+	}
+
+	@Test
+	public void handOverDirectlyWhenIdle() throws Exception {
+		ManualTarget target = new ManualTarget();
+		try (SpillingOutbound outbound = SpillingOutbound.create(target,
+				folder.newFolder()
+				      .toPath(),
+				1024)) {
+			ByteBuffer first = record(1);
+			ByteBuffer second = record(2);
+			outbound.send(Flux.just(first, second))
+			        .block();
+
+			assertSame(first, target.received.get(0));
+			assertEquals(1, outbound.pending());
+		}
+	}
+
+	@Test
+	public void batchWhileWritingWithoutSpilling() throws Exception {
+		ManualTarget target = new ManualTarget();
+		try (SpillingOutbound outbound = SpillingOutbound.create(target,
+				folder.newFolder()
+				      .toPath(),
+				1024)) {
+			List<ByteBuffer> sent = Flux.range(0, SpillingOutbound.MAX_WRITE_SIZE + 1)
+			                            .map(SpillingOutboundTests::record)
+			                            .collectList()
+			                            .block();
+			outbound.send(Flux.fromIterable(sent))
+			        .block();
+
+			assertEquals(1, target.received.size());
+			assertEquals(SpillingOutbound.MAX_WRITE_SIZE, outbound.pending());
+			assertEquals(0L, outbound.log.count());
+
+			target.complete();
+			assertEquals(sent, target.received);
+			for (int i = 0; i < sent.size(); i++) {
+				assertSame(sent.get(i), target.received.get(i));
+			}
+			assertEquals(0L, outbound.pending());
+		}
+	}
+
+	@Test
+	public void replayAfterRestart() throws Exception {
+		Path dir = folder.newFolder()
+		                 .toPath();
+		ManualTarget target = new ManualTarget();
+		try (SpillingOutbound outbound = SpillingOutbound.create(target, dir, 1024)) {
+			outbound.send(Flux.range(0, 50)
+			                  .map(SpillingOutboundTests::record))
+			        .block();
+			target.complete();
+			target.complete();
+			// the third write, replaying from record 33, never completes
+			assertEquals(50, target.received.size());
+		}
+
+		List<ByteBuffer> replayed = new CopyOnWriteArrayList<>();
+		Outbound<ByteBuffer> next = d -> Flux.from(d)
+		                                     .doOnNext(replayed::add)
+		                                     .then();
+		try (SpillingOutbound outbound = SpillingOutbound.create(next, dir, 1024)) {
+			assertEquals(17, replayed.size());
+			assertEquals(33, replayed.get(0)
+			                         .getInt(0));
+			assertEquals(0, outbound.pending());
+		}
+	}
+
+	@Test
+	public void replayAgainAfterTargetFailure() throws Exception {
+		ManualTarget target = new ManualTarget();
+		try (SpillingOutbound outbound = SpillingOutbound.create(target,
+				folder.newFolder()
+				      .toPath(),
+				1024)) {
+			outbound.send(Flux.range(0, 50)
+			                  .map(SpillingOutboundTests::record))
+			        .block();
+			target.complete();
+			assertEquals(1 + SpillingOutbound.MAX_WRITE_SIZE, target.received.size());
+
+			target.fail();
+			assertEquals(49, outbound.pending());
+			outbound.send(Flux.just(record(50)))
+			        .block();
+			assertEquals(50, outbound.pending());
+			assertTrue(target.writes.isEmpty());
+
+			target.received.clear();
+			outbound.resume();
+			while (!target.writes.isEmpty()) {
+				target.complete();
+			}
+			assertEquals(0, outbound.pending());
+			assertEquals(50, target.received.size());
+			for (int i = 0; i < 50; i++) {
+				assertEquals(i + 1, target.received.get(i)
+				                                   .getInt(0));
+			}
+		}
+	}
+
+	@Test
+	public void spillDirectBufferAfterTargetFailure() throws Exception {
+		ManualTarget target = new ManualTarget();
+		try (SpillingOutbound outbound = SpillingOutbound.create(target,
+				folder.newFolder()
+				      .toPath(),
+				1024)) {
+			outbound.send(Flux.just(record(1)))
+			        .block();
+			target.fail();
+			assertEquals(1, outbound.pending());
+			outbound.send(Flux.just(record(2)))
+			        .block();
+
+			target.received.clear();
+			outbound.resume();
+			target.complete();
+			target.complete();
+
+			assertEquals(1, target.received.get(0)
+			                               .getInt(0));
+			assertEquals(2, target.received.get(1)
+			                               .getInt(0));
+		}
+	}
+
+	static ByteBuffer record(int i) {
+		ByteBuffer b = ByteBuffer.allocate(100);
+		b.putInt(0, i);
+		return b;
+	}
+
+	static long segments(Path dir) throws Exception {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.map(Path::toFile)
+			            .map(File::getName)
+			            .filter(n -> n.endsWith(SpillLog.SUFFIX))
+			            .count();
+		}
+	}
+
+	/**
+	 * Receive every write synchronously and complete or fail them on demand
+	 */
+	static final class ManualTarget implements Outbound<ByteBuffer> {
+
+		final List<ByteBuffer>           received = new CopyOnWriteArrayList<>();
+		final Queue<MonoProcessor<Void>> writes   = new ConcurrentLinkedQueue<>();
+
+		@Override
+		public Mono<Void> send(Publisher<? extends ByteBuffer> dataStream) {
+			Flux.from(dataStream)
+			    .subscribe(received::add);
+			MonoProcessor<Void> write = MonoProcessor.create();
+			writes.add(write);
+			return write;
+		}
+
+		void complete() {
+			writes.remove()
+			      .onComplete();
+		}
+
+		void fail() {
+			writes.remove()
+			      .onError(new IOException("Broken pipe"));
+		}
+	}
+}
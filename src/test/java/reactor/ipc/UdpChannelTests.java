@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.MonoProcessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UdpChannelTests {
+
+	static final InetSocketAddress ANY_LOOPBACK =
+			new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+	@Test
+	public void unicastOnLoopback() throws IOException {
+		try (UdpChannel receiver = UdpChannel.unicast(ANY_LOOPBACK, ANY_LOOPBACK);
+		     UdpChannel sender = UdpChannel.unicast(ANY_LOOPBACK, receiver.localAddress())) {
+			MonoProcessor<List<String>> received = receive(receiver, 100);
+
+			sender.send(datagrams(0, 100))
+			      .block();
+
+			assertEquals(expected(100), received.block(Duration.ofSeconds(5)));
+		}
+	}
+
+	@Test
+	public void retransmitLostDatagrams() throws IOException {
+		try (UdpChannel receiver = UdpChannel.unicast(ANY_LOOPBACK, ANY_LOOPBACK, true);
+		     LossyRelay relay = new LossyRelay(receiver.localAddress(), 3L, 50L, 51L);
+		     UdpChannel sender = UdpChannel.unicast(ANY_LOOPBACK, relay.address(), true)) {
+			MonoProcessor<List<String>> received = receive(receiver, 100);
+
+			sender.send(datagrams(0, 100))
+			      .block();
+
+			assertEquals(expected(100), received.block(Duration.ofSeconds(5)));
+			assertEquals(0L, receiver.dropped());
+		}
+	}
+
+	@Test
+	public void keepInOrderDatagramsUntilRequested() throws Exception {
+		try (UdpChannel receiver = UdpChannel.unicast(ANY_LOOPBACK, ANY_LOOPBACK, true);
+		     UdpChannel sender = UdpChannel.unicast(ANY_LOOPBACK, receiver.localAddress(), true)) {
+			List<String> received = new CopyOnWriteArrayList<>();
+			AtomicReference<Subscription> subscription = new AtomicReference<>();
+			receiver.receive()
+			        .map(b -> StandardCharsets.UTF_8.decode(b)
+			                                        .toString())
+			        .subscribe(new Subscriber<String>() {
+				        @Override
+				        public void onSubscribe(Subscription s) {
+					        subscription.set(s);
+					        s.request(5);
+				        }
+
+				        @Override
+				        public void onNext(String datagram) {
+					        received.add(datagram);
+				        }
+
+				        @Override
+				        public void onError(Throwable t) {
+				        }
+
+				        @Override
+				        public void onComplete() {
+				        }
+			        });
+
+			// the last datagram arrives in order without demand, no later one exposing it
+			sender.send(datagrams(0, 6))
+			      .block();
+			await(() -> received.size() == 5);
+			Thread.sleep(50);
+			assertEquals(5, received.size());
+
+			subscription.get()
+			            .request(1);
+			await(() -> received.size() == 6);
+
+			assertEquals(expected(6), received);
+			assertEquals(0L, receiver.dropped());
+		}
+	}
+
+	@Test
+	public void trackRestartedSenderAnew() throws Exception {
+		try (UdpChannel receiver = UdpChannel.unicast(ANY_LOOPBACK, ANY_LOOPBACK, true)) {
+			MonoProcessor<List<String>> received = receive(receiver, 20);
+			InetSocketAddress address;
+			try (UdpChannel sender = UdpChannel.unicast(ANY_LOOPBACK, receiver.localAddress(), true)) {
+				address = sender.localAddress();
+				sender.send(datagrams(0, 10))
+				      .block();
+			}
+
+			try (UdpChannel restarted = rebind(address, receiver.localAddress())) {
+				restarted.send(datagrams(10, 10))
+				         .block();
+
+				assertEquals(expected(20), received.block(Duration.ofSeconds(5)));
+			}
+		}
+	}
+
+	@Test
+	public void expireIdleSenders() throws Exception {
+		DatagramChannel channel = DatagramChannel.open()
+		                                         .bind(ANY_LOOPBACK);
+		try (UdpChannel receiver = new UdpChannel(channel,
+				channel,
+				ANY_LOOPBACK,
+				true,
+				UdpChannel.DEFAULT_MAX_DATAGRAM_SIZE,
+				UdpChannel.DEFAULT_BATCH_SIZE,
+				UdpChannel.DEFAULT_WINDOW,
+				Duration.ofMillis(50)).start();
+		     UdpChannel sender = UdpChannel.unicast(ANY_LOOPBACK, receiver.localAddress(), true)) {
+			MonoProcessor<List<String>> received = receive(receiver, 10);
+
+			sender.send(datagrams(0, 10))
+			      .block();
+
+			assertEquals(expected(10), received.block(Duration.ofSeconds(5)));
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (!receiver.sources.isEmpty()) {
+				assertTrue(System.nanoTime() < deadline);
+				Thread.sleep(10);
+			}
+		}
+	}
+
+	@Test
+	public void multicastToEveryMember() throws IOException {
+		NetworkInterface networkInterface = multicastInterface();
+		Assume.assumeTrue(networkInterface != null);
+		InetSocketAddress group = new InetSocketAddress("239.255.27.1", freePort());
+		try (UdpChannel first = UdpChannel.multicast(group, networkInterface, true);
+		     UdpChannel second = UdpChannel.multicast(group, networkInterface, true);
+		     UdpChannel sender = UdpChannel.multicast(group, networkInterface, true)) {
+			MonoProcessor<List<String>> firstReceived = receive(first, 50);
+			MonoProcessor<List<String>> secondReceived = receive(second, 50);
+
+			sender.send(datagrams(0, 50))
+			      .block();
+
+			assertEquals(expected(50), firstReceived.block(Duration.ofSeconds(5)));
+			assertEquals(expected(50), secondReceived.block(Duration.ofSeconds(5)));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectOversizedDatagram() throws IOException {
+		try (UdpChannel channel = UdpChannel.unicast(ANY_LOOPBACK, ANY_LOOPBACK)) {
+			channel.send(Flux.just(ByteBuffer.allocate(UdpChannel.DEFAULT_MAX_DATAGRAM_SIZE + 1)))
+			       .block();
+		}
+	}
+
+	static MonoProcessor<List<String>> receive(UdpChannel channel, int count) {
+		return channel.receive()
+		              .map(b -> StandardCharsets.UTF_8.decode(b)
+		                                              .toString())
+		              .take(count)
+		              .collectList()
+		              .subscribe();
+	}
+
+	static Flux<ByteBuffer> datagrams(int from, int count) {
+		return Flux.range(from, count)
+		           .map(i -> ByteBuffer.wrap(("datagram-" + i).getBytes(StandardCharsets.UTF_8)));
+	}
+
+	static List<String> expected(int count) {
+		return Flux.range(0, count)
+		           .map(i -> "datagram-" + i)
+		           .collectList()
+		           .block();
+	}
+
+	static NetworkInterface multicastInterface() throws IOException {
+		for (NetworkInterface i : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+			if (i.isUp() && i.supportsMulticast() && i.getInetAddresses()
+			                                          .hasMoreElements()) {
+				return i;
+			}
+		}
+		return null;
+	}
+
+	static int freePort() throws IOException {
+		try (DatagramSocket socket = new DatagramSocket()) {
+			return socket.getLocalPort();
+		}
+	}
+
+	static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.nanoTime() < deadline);
+			Thread.sleep(1);
+		}
+	}
+
+	/**
+	 * Open a reliable channel on the given address once its previous channel released
+	 * it, the sockets of a closed channel being closed by its receiving thread
+	 */
+	static UdpChannel rebind(InetSocketAddress local, InetSocketAddress remote)
+			throws Exception {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		for (; ; ) {
+			try {
+				return UdpChannel.unicast(local, remote, true);
+			}
+			catch (BindException e) {
+				assertTrue(System.nanoTime() < deadline);
+				Thread.sleep(1);
+			}
+		}
+	}
+
+	/**
+	 * Forward datagrams from any sender to a receiver and acknowledgements back to the
+	 * last sender, dropping the first transmission of the given reliable mode sequences
+	 */
+	static final class LossyRelay implements Closeable {
+
+		final DatagramChannel   channel;
+		final InetSocketAddress receiver;
+		final Set<Long>         lost;
+
+		SocketAddress sender;
+
+		LossyRelay(InetSocketAddress receiver, Long... lost) throws IOException {
+			this.channel = DatagramChannel.open()
+			                              .bind(ANY_LOOPBACK);
+			this.receiver = receiver;
+			this.lost = new HashSet<>(Arrays.asList(lost));
+			Thread relay = new Thread(this::run, "lossy-relay");
+			relay.setDaemon(true);
+			relay.start();
+		}
+
+		InetSocketAddress address() throws IOException {
+			return (InetSocketAddress) channel.getLocalAddress();
+		}
+
+		void run() {
+			ByteBuffer b = ByteBuffer.allocate(UdpChannel.DEFAULT_MAX_DATAGRAM_SIZE);
+			try {
+				for (; ; ) {
+					b.clear();
+					SocketAddress from = channel.receive(b);
+					b.flip();
+					if (from.equals(receiver)) {
+						if (sender != null) {
+							channel.send(b, sender);
+						}
+						continue;
+					}
+					sender = from;
+					if (b.get(0) == UdpChannel.DATA && lost.remove(b.getLong(5))) {
+						continue;
+					}
+					channel.send(b, receiver);
+				}
+			}
+			catch (IOException e) {
+				// closed
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc.codec;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.ipc.Inbound;
+import reactor.ipc.Outbound;
+
+import static org.junit.Assert.assertEquals;
+
+public class ColumnarCodecTests {
+
+	@Test
+	public void roundTripThroughChannel() {
+		List<ByteBuffer> frames = new CopyOnWriteArrayList<>();
+		Outbound<ByteBuffer> outbound = d -> Flux.from(d)
+		                                         .doOnNext(frames::add)
+		                                         .then();
+
+		outbound.map(Flux.just(ColumnarBatch.of(new int[]{1, 2, 3},
+				new long[]{10L, 20L, 30L},
+				new double[]{0.5, 1.5, 2.5})), ColumnarCodec.encoder())
+		        .block();
+
+		assertEquals(1, frames.size());
+
+		Inbound<ByteBuffer> inbound = () -> Flux.fromIterable(frames);
+		List<ColumnarBatch> batches = inbound.receive(ColumnarCodec.decoder())
+		                                     .collectList()
+		                                     .block();
+
+		assertEquals(1, batches.size());
+		ColumnarBatch batch = batches.get(0);
+		assertEquals(3, batch.rowCount());
+		assertEquals(3, batch.columnCount());
+		assertEquals(ColumnarBatch.Type.LONG, batch.type(1));
+		assertEquals(2, batch.getInt(0, 1));
+		assertEquals(30L, batch.getLong(1, 2));
+		assertEquals(0.5, batch.getDouble(2, 0), 0d);
+	}
+
+	@Test
+	public void decodeConsecutiveFrames() {
+		ByteBuffer first = ColumnarCodec.encode(ColumnarBatch.of(new long[]{1L}));
+		ByteBuffer second = ColumnarCodec.encode(ColumnarBatch.of(new int[]{7, 8, 9}));
+		ByteBuffer both = ByteBuffer.allocate(first.remaining() + second.remaining());
+		both.put(first)
+		    .put(second)
+		    .flip();
+
+		List<ColumnarBatch> batches = ColumnarCodec.decodeAll(both);
+
+		assertEquals(2, batches.size());
+		assertEquals(1L, batches.get(0).getLong(0, 0));
+		assertEquals(9, batches.get(1).getInt(0, 2));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectTruncatedFrame() {
+		ByteBuffer frame = ColumnarCodec.encode(ColumnarBatch.of(new long[]{1L, 2L}));
+		frame.limit(frame.limit() - 1);
+		ColumnarCodec.decode(frame);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectOverflowingColumnSize() {
+		ByteBuffer frame = ColumnarCodec.encode(ColumnarBatch.of(new int[]{1}));
+		// 2^30 + 1 int rows wrap to a 4 bytes column in int arithmetic
+		frame.putInt(Integer.BYTES, (1 << 30) + 1);
+		ColumnarCodec.decode(frame);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectColumnsOfDifferentLengths() {
+		ColumnarBatch.of(new int[]{1}, new long[]{1L, 2L});
+	}
+}
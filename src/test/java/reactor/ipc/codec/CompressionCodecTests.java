@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.ipc.Inbound;
+import reactor.ipc.Outbound;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompressionCodecTests {
+
+	static final byte[] TEXT;
+
+	static {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			sb.append("{\"symbol\":\"ABC\",\"price\":")
+			  .append(i)
+			  .append(",\"side\":\"BUY\"}\n");
+		}
+		TEXT = sb.toString()
+		         .getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void deflateRoundTrip() {
+		roundTrip(CompressionCodec.deflate());
+	}
+
+	@Test
+	public void lz4RoundTrip() {
+		roundTrip(CompressionCodec.lz4());
+	}
+
+	@Test
+	public void deflateWithDictionary() {
+		byte[] dictionary = "{\"symbol\":\"ABC\",\"price\":,\"side\":\"BUY\"}".getBytes(
+				StandardCharsets.UTF_8);
+		CompressionCodec codec =
+				CompressionCodec.deflate(Deflater.BEST_SPEED, 16, dictionary);
+		roundTrip(codec);
+	}
+
+	@Test
+	public void storeSmallAndIncompressibleMessages() {
+		byte[] random = new byte[4096];
+		new Random(0).nextBytes(random);
+		byte[] small = "small".getBytes(StandardCharsets.UTF_8);
+
+		List<ByteBuffer> frames = encode(CompressionCodec.lz4(),
+				ByteBuffer.wrap(small),
+				ByteBuffer.wrap(random));
+
+		assertEquals(CompressionCodec.STORED, frames.get(0).get(0));
+		assertEquals(CompressionCodec.STORED, frames.get(1).get(0));
+		assertEquals(CompressionCodec.HEADER_SIZE + random.length, frames.get(1).remaining());
+
+		List<ByteBuffer> decoded = decode(CompressionCodec.lz4(), frames);
+		assertArrayEquals(small, bytes(decoded.get(0)));
+		assertArrayEquals(random, bytes(decoded.get(1)));
+	}
+
+	@Test
+	public void lz4LongMatchesAndDirectBuffers() {
+		byte[] data = new byte[100_000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i % 7 == 0 ? i : 'a');
+		}
+		ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+		direct.put(data)
+		      .flip();
+
+		List<ByteBuffer> frames = encode(CompressionCodec.lz4(), direct);
+
+		assertEquals(CompressionCodec.LZ4, frames.get(0).get(0));
+		assertTrue(frames.get(0).remaining() < data.length / 2);
+		assertArrayEquals(data, bytes(decode(CompressionCodec.lz4(), frames).get(0)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectOversizedFrameBeforeAllocating() {
+		ByteBuffer frame = ByteBuffer.allocate(CompressionCodec.HEADER_SIZE + 4);
+		frame.put(CompressionCodec.DEFLATE)
+		     .putInt(Integer.MAX_VALUE)
+		     .putInt(0)
+		     .flip();
+
+		decode(CompressionCodec.deflate(), Collections.singletonList(frame));
+	}
+
+	@Test
+	public void acceptFramesUpToMaxFrameLength() {
+		CompressionCodec codec = CompressionCodec.lz4(16, TEXT.length);
+
+		roundTrip(codec);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectMalformedLz4Block() {
+		byte[] block = new byte[]{(byte) 0x1F, 'a', 9, 0};
+		Lz4Block.decompress(block, 0, block.length, new byte[64], 0, 64);
+	}
+
+	static void roundTrip(CompressionCodec codec) {
+		List<ByteBuffer> frames = encode(codec, ByteBuffer.wrap(TEXT), ByteBuffer.wrap(TEXT));
+
+		assertEquals(2, frames.size());
+		assertEquals(codec.method, frames.get(0).get(0));
+		assertTrue(frames.get(0).remaining() < TEXT.length / 2);
+
+		List<ByteBuffer> decoded = decode(codec, frames);
+		assertEquals(2, decoded.size());
+		assertArrayEquals(TEXT, bytes(decoded.get(0)));
+		assertArrayEquals(TEXT, bytes(decoded.get(1)));
+	}
+
+	static List<ByteBuffer> encode(CompressionCodec codec, ByteBuffer... buffers) {
+		List<ByteBuffer> frames = new CopyOnWriteArrayList<>();
+		Outbound<ByteBuffer> outbound = d -> Flux.from(d)
+		                                         .doOnNext(frames::add)
+		                                         .then();
+		outbound.map(Flux.just(buffers), codec.encoder())
+		        .block();
+		return frames;
+	}
+
+	static List<ByteBuffer> decode(CompressionCodec codec, List<ByteBuffer> frames) {
+		Inbound<ByteBuffer> inbound = () -> Flux.fromIterable(frames);
+		return inbound.receive(codec.decoder())
+		              .collectList()
+		              .block();
+	}
+
+	static byte[] bytes(ByteBuffer buffer) {
+		byte[] b = new byte[buffer.remaining()];
+		buffer.duplicate()
+		      .get(b);
+		return b;
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.ipc.Inbound;
+import reactor.ipc.Outbound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class LazyFrameTests {
+
+	static ByteBuffer utf8(String s) {
+		return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void routeOnHeaderAndForwardFrame() {
+		byte[] key = "orders".getBytes(StandardCharsets.UTF_8);
+		Inbound<ByteBuffer> inbound =
+				() -> Flux.just(LazyFrame.encode(utf8("first"), utf8("orders"), utf8("1")),
+						LazyFrame.encode(utf8("second"), utf8("quotes"), utf8("2")),
+						LazyFrame.encode(utf8("third"), utf8("orders"), utf8("3")));
+
+		List<ByteBuffer> forwarded = new CopyOnWriteArrayList<>();
+		Outbound<ByteBuffer> outbound = d -> Flux.from(d)
+		                                         .doOnNext(forwarded::add)
+		                                         .then();
+
+		outbound.map(inbound.receive(LazyFrame.decoder())
+		                    .filter(f -> f.fieldEquals(0, key)), LazyFrame.encoder())
+		        .block();
+
+		assertEquals(2, forwarded.size());
+		LazyFrame third = LazyFrame.wrap(forwarded.get(1));
+		assertEquals("3", third.fieldAsString(1, StandardCharsets.UTF_8));
+		assertEquals("third", StandardCharsets.UTF_8.decode(third.body()).toString());
+	}
+
+	@Test
+	public void readFieldsInPlace() {
+		ByteBuffer frame = LazyFrame.encode(utf8("body"), utf8("key"), ByteBuffer.allocate(0));
+		LazyFrame f = LazyFrame.wrap(frame);
+
+		assertEquals(2, f.fieldCount());
+		assertEquals(3, f.fieldLength(0));
+		assertEquals(0, f.fieldLength(1));
+		assertFalse(f.fieldEquals(0, new byte[]{'k', 'e'}));
+		assertSame(frame.array(), f.field(0).array());
+		assertEquals(4, f.body().remaining());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectTruncatedField() {
+		ByteBuffer frame = LazyFrame.encode(ByteBuffer.allocate(0), utf8("key"));
+		frame.limit(frame.limit() - 1);
+		LazyFrame.wrap(frame).field(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectTruncatedFieldOnCompare() {
+		ByteBuffer frame = LazyFrame.encode(ByteBuffer.allocate(0), utf8("key"));
+		frame.limit(frame.limit() - 1);
+		LazyFrame.wrap(frame)
+		         .fieldEquals(0, "key".getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void readFieldsInAnyOrder() {
+		LazyFrame f = LazyFrame.wrap(LazyFrame.encode(utf8("body"),
+				utf8("a"),
+				utf8("bb"),
+				utf8("ccc")));
+
+		assertEquals("ccc", f.fieldAsString(2, StandardCharsets.UTF_8));
+		assertEquals("a", f.fieldAsString(0, StandardCharsets.UTF_8));
+		assertEquals("bb", f.fieldAsString(1, StandardCharsets.UTF_8));
+		assertEquals("body", StandardCharsets.UTF_8.decode(f.body())
+		                                           .toString());
+		assertEquals(3, f.fieldLength(2));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void rejectMissingField() {
+		LazyFrame.wrap(LazyFrame.encode(utf8("body"))).field(0);
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.ipc.Channel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AffinityLoopGroupTests {
+
+	@Test
+	public void channelsSharingDelegateShareLoop() {
+		AffinityLoopGroup group = AffinityLoopGroup.create("affinity", 4, 0);
+		try {
+			Object connection = new Object();
+			Scheduler a = group.scheduler(channel(connection));
+			Scheduler b = group.scheduler(channel(connection));
+
+			assertSame(a, b);
+			assertEquals(1, group.connectionCount());
+
+			String inbound = Mono.fromCallable(() -> Thread.currentThread().getName())
+			                     .subscribeOn(a)
+			                     .block();
+			String outbound = Mono.fromCallable(() -> Thread.currentThread().getName())
+			                      .subscribeOn(b)
+			                      .block();
+			assertEquals(inbound, outbound);
+
+			group.release(channel(connection));
+			assertEquals(0, group.connectionCount());
+		}
+		finally {
+			group.shutdown();
+		}
+	}
+
+	@Test
+	public void rebalanceAwayFromOverloadedLoop() throws InterruptedException {
+		AffinityLoopGroup group = AffinityLoopGroup.create("affinity", 2, 1);
+		CountDownLatch blocked = new CountDownLatch(1);
+		try {
+			Object first = "connection-0";
+			Scheduler home = group.scheduler(first);
+			Object sameHome = null;
+			for (int i = 1; sameHome == null; i++) {
+				String candidate = "connection-" + i;
+				if (group.select(candidate) == group.select(first)) {
+					sameHome = candidate;
+				}
+			}
+
+			for (int i = 0; i < 3; i++) {
+				home.schedule(() -> {
+					try {
+						blocked.await(5, TimeUnit.SECONDS);
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				});
+			}
+			assertTrue(group.queueDepth(0) + group.queueDepth(1) > 1);
+
+			assertNotSame(home, group.scheduler(sameHome));
+			assertSame(home, group.scheduler(first));
+		}
+		finally {
+			blocked.countDown();
+			group.shutdown();
+		}
+	}
+
+	static Channel<Object, Object> channel(Object delegate) {
+		return new Channel<Object, Object>() {
+			@Override
+			public Object delegate() {
+				return delegate;
+			}
+
+			@Override
+			public Flux<Object> receive() {
+				return Flux.empty();
+			}
+
+			@Override
+			public Mono<Void> send(org.reactivestreams.Publisher<?> dataStream) {
+				return Mono.empty();
+			}
+		};
+	}
+}
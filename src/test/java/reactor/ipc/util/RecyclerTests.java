@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.ipc.Inbound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class RecyclerTests {
+
+	static final class Message {
+
+		long id;
+	}
+
+	@Test
+	public void reuseOnSameThread() {
+		AtomicInteger created = new AtomicInteger();
+		Recycler<Message> recycler = Recycler.create(() -> {
+			created.incrementAndGet();
+			return new Message();
+		}, m -> m.id = 0L, 16, false);
+
+		Recycler.Handle<Message> first = recycler.acquire();
+		first.get().id = 42L;
+		Message message = first.get();
+		first.release();
+
+		Recycler.Handle<Message> second = recycler.acquire();
+		assertSame(message, second.get());
+		assertEquals(0L, second.get().id);
+		assertEquals(1, created.get());
+	}
+
+	@Test
+	public void crossThreadReturn() throws InterruptedException {
+		Recycler<Message> recycler = Recycler.create(Message::new, m -> {
+		}, 16, false);
+
+		Recycler.Handle<Message> handle = recycler.acquire();
+		Message message = handle.get();
+		Thread other = new Thread(handle::release);
+		other.start();
+		other.join();
+
+		assertEquals(0, recycler.pooled());
+		assertSame(message, recycler.acquire().get());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void debugDetectsUseAfterRelease() {
+		Recycler<Message> recycler = Recycler.create(Message::new, m -> {
+		}, 16, true);
+
+		Recycler.Handle<Message> handle = recycler.acquire();
+		handle.release();
+		recycler.acquire();
+		handle.get();
+	}
+
+	@Test
+	public void decoderRecyclesReleasedMessages() {
+		AtomicInteger created = new AtomicInteger();
+		Recycler<Message> recycler = Recycler.create(() -> {
+			created.incrementAndGet();
+			return new Message();
+		}, m -> m.id = 0L);
+		Inbound<Long> inbound = () -> Flux.range(1, 1000)
+		                                  .map(Integer::longValue);
+
+		long sum = inbound.receive(recycler.decoder((id, m) -> m.id = id))
+		                  .map(h -> {
+			                  long id = h.get().id;
+			                  h.release();
+			                  return id;
+		                  })
+		                  .reduce(0L, Long::sum)
+		                  .block();
+
+		assertEquals(500500L, sum);
+		assertEquals(1, created.get());
+	}
+}
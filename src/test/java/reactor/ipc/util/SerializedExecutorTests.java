@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2011-2016 Pivotal Software Inc, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package reactor.ipc.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SerializedExecutorTests {
+
+	@Test
+	public void orderedAndNonOverlappingPerChannel() throws InterruptedException {
+		int channels = 16;
+		int producers = 4;
+		int tasks = 10_000;
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			SerializedExecutor[] executors = new SerializedExecutor[channels];
+			AtomicInteger[] active = new AtomicInteger[channels];
+			int[][] last = new int[channels][producers];
+			AtomicInteger violations = new AtomicInteger();
+			for (int i = 0; i < channels; i++) {
+				executors[i] = SerializedExecutor.create(pool, 8);
+				active[i] = new AtomicInteger();
+			}
+
+			CountDownLatch done = new CountDownLatch(channels * producers * tasks);
+			List<Thread> threads = new ArrayList<>();
+			for (int p = 0; p < producers; p++) {
+				int producer = p;
+				threads.add(new Thread(() -> {
+					for (int t = 1; t <= tasks; t++) {
+						int seq = t;
+						for (int c = 0; c < channels; c++) {
+							int channel = c;
+							executors[c].execute(() -> {
+								if (active[channel].incrementAndGet() != 1) {
+									violations.incrementAndGet();
+								}
+								if (last[channel][producer] != seq - 1) {
+									violations.incrementAndGet();
+								}
+								last[channel][producer] = seq;
+								active[channel].decrementAndGet();
+								done.countDown();
+							});
+						}
+					}
+				}));
+			}
+			threads.forEach(Thread::start);
+
+			assertTrue(done.await(30, TimeUnit.SECONDS));
+			assertEquals(0, violations.get());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+}